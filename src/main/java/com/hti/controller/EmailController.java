@@ -27,11 +27,16 @@ import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RequestPart;
 import org.springframework.web.bind.annotation.RestController;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 
 import com.hti.model.BatchProcessFilterRequest;
 import com.hti.model.EmailProcessResponse;
 import com.hti.model.EmailRequest;
 import com.hti.service.BatchService;
+import com.hti.util.GlobalVar;
 
 import io.swagger.v3.oas.annotations.Operation;
 import io.swagger.v3.oas.annotations.Parameter;
@@ -51,6 +56,7 @@ import lombok.RequiredArgsConstructor;
 public class EmailController {
 
 	private final BatchService batchService;
+	private final ObjectMapper objectMapper;
 
 	// ---------------------------------------------------------------------
 	// 🚀 Unified Send Message API
@@ -252,8 +258,13 @@ public class EmailController {
 			🔹 **Example Request**
 			`GET /email-service/all-bulk`
 
+			🔹 **Paging**
+			Batches are listed newest first. With `limit` one page is returned, pass the batchId of its last
+			entry as `lastBatchId` for the next page. Without `limit` all batches are streamed page by page.
+
 			🔹 **Response**
 			Returns batch summaries containing fields like batchId, status, totalCount, and createdAt.
+			Body and attachments are not included.
 			""")
 	@ApiResponses({
 			@ApiResponse(responseCode = "200", description = "Bulk batches retrieved successfully.", content = @Content(mediaType = "application/json")),
@@ -262,9 +273,66 @@ public class EmailController {
 	public ResponseEntity<?> getAllBulk(@Valid @ModelAttribute BatchProcessFilterRequest batchProcessFilterRequest,
 			@Parameter(description = "Authenticated username or requester", example = "testUser", required = true) @RequestHeader String username,
 			@Parameter(description = "Client IP address making the request", example = "127.0.0.1", required = true) @RequestHeader @NotBlank(message = "IP address header is required") String ipAddress) {
-		List<EmailProcessResponse> list = batchService.getAllBulk(username, ipAddress, batchProcessFilterRequest);
-		System.out.println("Returning list size: " + list.size());
-		return ResponseEntity.ok(list);
+		boolean singlePage = batchProcessFilterRequest.getLimit() > 0 || batchProcessFilterRequest.getBatchId() > 0;
+		// read before the headers are committed, a failure still gets an error status
+		List<EmailProcessResponse> firstPage = batchService.getAllBulk(username, ipAddress, batchProcessFilterRequest);
+		StreamingResponseBody body = outputStream -> {
+			try (JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)) {
+				// a failed later page must leave the array unterminated, not look complete
+				generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+				generator.writeStartArray();
+				List<EmailProcessResponse> page = firstPage;
+				while (true) {
+					for (EmailProcessResponse response : page) {
+						objectMapper.writeValue(generator, response);
+					}
+					generator.flush();
+					if (singlePage || page.size() < GlobalVar.BATCH_LIST_PAGE_SIZE) {
+						break;
+					}
+					batchProcessFilterRequest.setLastBatchId(Long.parseLong(page.get(page.size() - 1).getBatchId()));
+					// a ProcessingException here aborts the response
+					page = batchService.getAllBulk(username, ipAddress, batchProcessFilterRequest);
+				}
+				generator.writeEndArray();
+			}
+		};
+		return ResponseEntity.ok().contentType(MediaType.APPLICATION_JSON).body(body);
+	}
+
+	@GetMapping("/smtp-rates")
+	@Operation(summary = "Current Smtp Send Rates", description = """
+			Fetch the adaptive send rate of each smtp account of the user.
+
+			🔹 **Response**
+			Returns per smtp account the current rate limit (0 while unlimited), the measured rate,
+			the allowed concurrent senders and the number of throttling replies received.
+			""")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Send rates retrieved successfully.", content = @Content(mediaType = "application/json")),
+			@ApiResponse(responseCode = "400", description = "No smtp configuration found.", content = @Content(mediaType = "application/json", schema = @Schema())) })
+	public ResponseEntity<?> getSmtpRates(
+			@Parameter(description = "Authenticated username or requester", example = "testUser", required = true) @RequestHeader String username) {
+		return ResponseEntity.ok(batchService.getSmtpRates(username));
+	}
+
+	@GetMapping("/progress")
+	@Operation(summary = "Batch Progress", description = """
+			Fetch the progress counters of a batch.
+
+			🔹 **Usage Example**
+			`GET /email-service/progress?batch_Id=251117105522321`
+
+			🔹 **Response**
+			Returns the total, pending, sent, failed and delivered recipients of the batch and its status.
+			""")
+	@ApiResponses({
+			@ApiResponse(responseCode = "200", description = "Batch progress retrieved successfully.", content = @Content(mediaType = "application/json")),
+			@ApiResponse(responseCode = "400", description = "No batch found.", content = @Content(mediaType = "application/json", schema = @Schema())) })
+	public ResponseEntity<?> getProgress(
+			@Parameter(description = "Authenticated username or requester", example = "testUser", required = true) @RequestHeader String username,
+			@Parameter(description = "Unique batch ID", example = "2512041546538901001", required = true) @RequestParam(name = "batch_Id") String batchId) {
+		return ResponseEntity.ok(batchService.getProgress(username, batchId));
 	}
 
 }
@@ -32,9 +32,11 @@ import com.hti.listener.FlagEventListener;
 import com.hti.process.EmailProcessor;
 import com.hti.process.ImapIdleListener;
 import com.hti.process.SchedulerManager;
+import com.hti.process.SendRateController;
 import com.hti.service.SingletonService;
 import com.hti.util.FileUtil;
 import com.hti.util.GlobalVar;
+import com.hti.util.MessageIdGenerator;
 
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.classic.joran.JoranConfigurator;
@@ -82,6 +84,8 @@ public class ServiceController implements Runnable {
 					loadConfiguration();
 				} else {
 					checkMemoryUsage();
+					SendRateController.logStats();
+					GlobalVar.connectionPool.logStats();
 					try {
 						Thread.sleep(10 * 1000);
 					} catch (InterruptedException ie) {
@@ -109,6 +113,7 @@ public class ServiceController implements Runnable {
 		ClientConfig config = new ClientConfig();
 		config.getNetworkConfig().setSmartRouting(false);
 		GlobalVar.hazelInstance = HazelcastClient.newHazelcastClient(config);
+		MessageIdGenerator.init(GlobalVar.hazelInstance);
 		ITopic<Map<String, String>> flag_topic = GlobalVar.hazelInstance.getTopic("flag_status");
 		flag_topic.addMessageListener(new FlagEventListener());
 		GlobalVar.connectionPool = new ConnectionPool();
@@ -150,8 +155,77 @@ public class ServiceController implements Runnable {
 			throw e;
 		}
 		GlobalVar.ATTACHMENT_DIR = props.getProperty("attachment.dir");
+		GlobalVar.NODE_ID = Integer.parseInt(props.getProperty("node.id", "-1"));
+		GlobalVar.NODE_ID_LEASE_TIME = Long.parseLong(props.getProperty("node.id.lease.time", "30"));
 		GlobalVar.QUEUE_WAIT_TIME = Integer.parseInt(props.getProperty("queue.wait.time"));
+		GlobalVar.QUEUE_CAPACITY = Integer.parseInt(props.getProperty("queue.capacity", "65536"));
+		GlobalVar.WRITER_THREADS = Integer.parseInt(props.getProperty("writer.threads", "4"));
+		GlobalVar.WRITER_IDLE_TIMEOUT = Long.parseLong(props.getProperty("writer.idle.timeout", "600000"));
+		GlobalVar.WEBHOOK_THREADS = Integer.parseInt(props.getProperty("webhook.threads", "4"));
+		GlobalVar.VIRTUAL_THREADS = Boolean.parseBoolean(props.getProperty("spring.threads.virtual.enabled", "false"));
+		GlobalVar.REPORT_BATCH_MIN = Integer.parseInt(props.getProperty("report.batch.min", "100"));
+		GlobalVar.REPORT_BATCH_MAX = Integer.parseInt(props.getProperty("report.batch.max", "5000"));
+		GlobalVar.REPORT_LINGER_TIME = Long.parseLong(props.getProperty("report.linger.time", "20"));
+		GlobalVar.REPORT_TARGET_LATENCY = Long.parseLong(props.getProperty("report.target.latency", "200"));
 		GlobalVar.JDBC_BATCH_SIZE = Integer.parseInt(props.getProperty("jdbc.batch.size"));
+		GlobalVar.FLAG_UPDATE_CHUNK_SIZE = Integer.parseInt(props.getProperty("recipient.flag.chunk.size", "500"));
+		GlobalVar.RECIPIENT_PAGE_SIZE = Integer.parseInt(props.getProperty("recipient.page.size", "5000"));
+		GlobalVar.BATCH_LIST_PAGE_SIZE = Integer.parseInt(props.getProperty("batch.list.page.size", "500"));
+		GlobalVar.RECIPIENT_SPILL_THRESHOLD = Integer.parseInt(props.getProperty("recipient.spill.threshold", "256"));
+		GlobalVar.BULK_INSERT_CHUNK_SIZE = Integer.parseInt(props.getProperty("bulk.insert.chunk.size", "1000"));
+		GlobalVar.BULK_INSERT_THREADS = Integer.parseInt(props.getProperty("bulk.insert.threads", "4"));
+		GlobalVar.SMTP_POOL_MAX_CONNECTIONS = Integer.parseInt(props.getProperty("smtp.pool.max.connections", "4"));
+		GlobalVar.SMTP_POOL_IDLE_TIMEOUT = Integer.parseInt(props.getProperty("smtp.pool.idle.timeout", "300"));
+		GlobalVar.SMTP_SEND_TIMEOUT = Integer.parseInt(props.getProperty("smtp.send.timeout", "30000"));
+		GlobalVar.SMTP_RECONNECT_MAX_DELAY = Long.parseLong(props.getProperty("smtp.reconnect.max.delay", "60000"));
+		GlobalVar.ENVELOPE_MAX_RECIPIENTS = Integer.parseInt(props.getProperty("smtp.envelope.max.recipients", "50"));
+		GlobalVar.ENVELOPE_GROUP_BY_DOMAIN = Boolean.parseBoolean(props.getProperty("smtp.envelope.group.by.domain", "true"));
+		GlobalVar.SMTP_RATE_PER_SECOND = Double.parseDouble(props.getProperty("smtp.rate.per.second", "0"));
+		GlobalVar.SMTP_RATE_BURST = Integer.parseInt(props.getProperty("smtp.rate.burst", "10"));
+		GlobalVar.SMTP_RATE_PER_SECOND_BY_ACCOUNT.clear();
+		GlobalVar.SMTP_RATE_BURST_BY_ACCOUNT.clear();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith("smtp.rate.per.second.")) {
+				GlobalVar.SMTP_RATE_PER_SECOND_BY_ACCOUNT.put(
+						Integer.parseInt(key.substring("smtp.rate.per.second.".length()).trim()),
+						Double.parseDouble(props.getProperty(key).trim()));
+			} else if (key.startsWith("smtp.rate.burst.")) {
+				GlobalVar.SMTP_RATE_BURST_BY_ACCOUNT.put(
+						Integer.parseInt(key.substring("smtp.rate.burst.".length()).trim()),
+						Integer.parseInt(props.getProperty(key).trim()));
+			}
+		}
+		GlobalVar.AIMD_DECREASE_FACTOR = Double.parseDouble(props.getProperty("smtp.aimd.decrease.factor", "0.5"));
+		GlobalVar.AIMD_INCREASE_STEP = Double.parseDouble(props.getProperty("smtp.aimd.increase.step", "1"));
+		GlobalVar.AIMD_MIN_RATE = Double.parseDouble(props.getProperty("smtp.aimd.min.rate", "0.2"));
+		GlobalVar.AIMD_SUCCESS_WINDOW = Integer.parseInt(props.getProperty("smtp.aimd.success.window", "50"));
+		GlobalVar.AIMD_COOLDOWN = Long.parseLong(props.getProperty("smtp.aimd.cooldown", "2000"));
+		GlobalVar.RETRY_MAX_ATTEMPTS = Integer.parseInt(props.getProperty("retry.max.attempts", "5"));
+		GlobalVar.RETRY_INITIAL_DELAY = Integer.parseInt(props.getProperty("retry.initial.delay", "60"));
+		GlobalVar.RETRY_MAX_DELAY = Integer.parseInt(props.getProperty("retry.max.delay", "3600"));
+		GlobalVar.PROGRESS_FLUSH_INTERVAL = Long.parseLong(props.getProperty("progress.flush.interval", "5000"));
+		GlobalVar.CLUSTER_MODE = Boolean.parseBoolean(props.getProperty("cluster.mode", "false"));
+		GlobalVar.CLUSTER_RANGE_SIZE = Integer.parseInt(props.getProperty("cluster.range.size", "10000"));
+		GlobalVar.CLUSTER_LEASE_TIME = Long.parseLong(props.getProperty("cluster.lease.time", "30000"));
+		GlobalVar.REPLICA_READ_WINDOW = Long.parseLong(props.getProperty("replica.read.window", "5000"));
+		GlobalVar.REPLICA_RETRY_INTERVAL = Long.parseLong(props.getProperty("replica.retry.interval", "30000"));
+		GlobalVar.SPOOL_DIR = props.getProperty("spool.dir", "spool");
+		GlobalVar.SPOOL_COMMIT_INTERVAL = Long.parseLong(props.getProperty("spool.commit.interval", "200"));
+		GlobalVar.SPOOL_REPLAY_INTERVAL = Long.parseLong(props.getProperty("spool.replay.interval", "60000"));
+		GlobalVar.WEBHOOK_MAX_ATTEMPTS = Integer.parseInt(props.getProperty("webhook.max.attempts", "10"));
+		GlobalVar.WEBHOOK_MAX_AGE = Long.parseLong(props.getProperty("webhook.max.age", "86400000"));
+		GlobalVar.PARTITION_DAYS_AHEAD = Integer.parseInt(props.getProperty("partition.days.ahead", "3"));
+		GlobalVar.PARTITION_RETENTION_DAYS = Integer.parseInt(props.getProperty("partition.retention.days", "0"));
+		GlobalVar.PARTITION_RETENTION_DAYS_BY_USER.clear();
+		for (String key : props.stringPropertyNames()) {
+			if (key.startsWith("partition.retention.days.")) {
+				GlobalVar.PARTITION_RETENTION_DAYS_BY_USER.put(
+						key.substring("partition.retention.days.".length()).toLowerCase(),
+						Integer.parseInt(props.getProperty(key).trim()));
+			}
+		}
+		GlobalVar.PARTITION_ARCHIVE = Boolean.parseBoolean(props.getProperty("partition.archive", "false"));
+		GlobalVar.PARTITION_THREADS = Integer.parseInt(props.getProperty("partition.threads", "4"));
 		// ------- smtp configuration -----------------
 		GlobalVar.EMAIL_CC = props.getProperty("smtp.mail.cc");
 		GlobalVar.EMAIL_FROM = props.getProperty("smtp.mail.from");
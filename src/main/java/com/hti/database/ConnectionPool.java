@@ -2,24 +2,214 @@ package com.hti.database;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 
-import javax.sql.DataSource;
-
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.jdbc.core.JdbcTemplate;
 
+import com.hti.util.GlobalVar;
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * Separate Hikari pools (bulkheads) per workload, so that a burst of one kind
+ * of work can not take the connections of another. Connections are borrowed
+ * straight from Hikari without any lock of our own. When a replica is
+ * configured, api reads of a user go to it unless the user wrote within
+ * {@link GlobalVar#REPLICA_READ_WINDOW}, so that a user reads its own writes.
+ * A replica that can not be reached is skipped for
+ * {@link GlobalVar#REPLICA_RETRY_INTERVAL} before it is tried again.
+ */
 public class ConnectionPool {
 
-	private DataSource dataSource;
+	public enum Workload {
+		/**
+		 * Hot writes of the send path: flags, reports, inbox, progress.
+		 */
+		WRITE,
+		/**
+		 * Reads of the REST api and of batch loading.
+		 */
+		READ,
+		/**
+		 * DDL, migrations, chunked deletes and startup recovery.
+		 */
+		MAINTENANCE
+	}
+
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+	private Map<Workload, Bulkhead> pools = new EnumMap<Workload, Bulkhead>(Workload.class);
+	// null when no replica is configured
+	private Bulkhead replica;
+	private Map<String, Long> lastWrites = new ConcurrentHashMap<String, Long>();
+	private LongAdder primaryReads = new LongAdder();
+	private volatile long replicaDownUntil;
 
 	public ConnectionPool() throws Exception {
-		this.dataSource = new DataSourceFactory().createDataSource();
+		this(new DataSourceFactory());
 	}
 
-	public synchronized Connection getConnection() throws SQLException {
-		return dataSource.getConnection();
+	ConnectionPool(DataSourceFactory factory) {
+		for (Workload workload : Workload.values()) {
+			pools.put(workload, new Bulkhead(workload.name(), factory.createDataSource(workload.name().toLowerCase())));
+		}
+		HikariDataSource replicaSource = null;
+		try {
+			replicaSource = factory.createReplicaDataSource();
+		} catch (RuntimeException e) {
+			logger.error("Replica Pool Not Created, Api Reads Stay On Primary", e);
+		}
+		if (replicaSource != null) {
+			this.replica = new Bulkhead("REPLICA", replicaSource);
+			logger.info("Api Reads Routed To Replica " + replicaSource.getJdbcUrl());
+		}
 	}
 
-	public synchronized JdbcTemplate getJdbcConnection() throws SQLException {
-		return new JdbcTemplate(dataSource);
+	/**
+	 * Connection of the {@link Workload#WRITE} pool.
+	 */
+	public Connection getConnection() throws SQLException {
+		return getConnection(Workload.WRITE);
+	}
+
+	public Connection getConnection(Workload workload) throws SQLException {
+		return pools.get(workload).getConnection();
+	}
+
+	/**
+	 * Connection for an api read of the user: the replica if configured, the
+	 * user did not write recently and the replica is reachable, otherwise the
+	 * {@link Workload#READ} pool of the primary.
+	 */
+	public Connection getReadConnection(String systemId) throws SQLException {
+		if (replica != null) {
+			if (!isRecentlyWritten(systemId) && System.currentTimeMillis() >= replicaDownUntil) {
+				try {
+					return replica.getConnection();
+				} catch (SQLException e) {
+					replicaDownUntil = System.currentTimeMillis() + GlobalVar.REPLICA_RETRY_INTERVAL;
+					logger.warn("Replica Connection Failed, Reading From Primary For "
+							+ GlobalVar.REPLICA_RETRY_INTERVAL + " ms: " + e.getMessage());
+				}
+			}
+			primaryReads.increment();
+		}
+		return getConnection(Workload.READ);
+	}
+
+	/**
+	 * The user wrote to the primary, its reads stay on the primary for
+	 * {@link GlobalVar#REPLICA_READ_WINDOW}.
+	 */
+	public void written(String systemId) {
+		if (replica != null) {
+			lastWrites.put(systemId, System.currentTimeMillis());
+		}
+	}
+
+	private boolean isRecentlyWritten(String systemId) {
+		Long writtenOn = lastWrites.get(systemId);
+		if (writtenOn == null) {
+			return false;
+		}
+		if (System.currentTimeMillis() - writtenOn > GlobalVar.REPLICA_READ_WINDOW) {
+			lastWrites.remove(systemId, writtenOn);
+			return false;
+		}
+		return true;
+	}
+
+	public JdbcTemplate getJdbcConnection() throws SQLException {
+		return new JdbcTemplate(pools.get(Workload.WRITE).dataSource);
+	}
+
+	/**
+	 * Active, idle and waiting connections of each pool with the borrow wait
+	 * times since the previous call.
+	 */
+	public List<Map<String, Object>> getStats() {
+		List<Map<String, Object>> stats = new ArrayList<Map<String, Object>>();
+		for (Bulkhead pool : pools.values()) {
+			stats.add(pool.getStats());
+		}
+		if (replica != null) {
+			Map<String, Object> replicaStats = replica.getStats();
+			replicaStats.put("primaryReads", primaryReads.sumThenReset());
+			replicaStats.put("down", System.currentTimeMillis() < replicaDownUntil);
+			stats.add(replicaStats);
+		}
+		return stats;
+	}
+
+	public void logStats() {
+		for (Map<String, Object> stats : getStats()) {
+			logger.info("Pool " + stats);
+		}
+	}
+
+	public void close() {
+		for (Bulkhead pool : pools.values()) {
+			pool.dataSource.close();
+		}
+		if (replica != null) {
+			replica.dataSource.close();
+		}
+	}
+
+	private static class Bulkhead {
+		private final String name;
+		private final HikariDataSource dataSource;
+		private final LongAdder borrows = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder timeouts = new LongAdder();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+
+		private Bulkhead(String name, HikariDataSource dataSource) {
+			this.name = name;
+			this.dataSource = dataSource;
+		}
+
+		private Connection getConnection() throws SQLException {
+			long start = System.nanoTime();
+			try {
+				return dataSource.getConnection();
+			} catch (SQLTransientConnectionException e) {
+				timeouts.increment();
+				throw e;
+			} finally {
+				long wait = System.nanoTime() - start;
+				borrows.increment();
+				waitNanos.add(wait);
+				maxWaitNanos.accumulateAndGet(wait, Math::max);
+			}
+		}
+
+		private Map<String, Object> getStats() {
+			long count = borrows.sumThenReset();
+			long wait = waitNanos.sumThenReset();
+			Map<String, Object> stats = new LinkedHashMap<String, Object>();
+			stats.put("pool", name);
+			stats.put("max", dataSource.getMaximumPoolSize());
+			HikariPoolMXBean bean = dataSource.getHikariPoolMXBean();
+			if (bean != null) {
+				stats.put("active", bean.getActiveConnections());
+				stats.put("idle", bean.getIdleConnections());
+				stats.put("waiting", bean.getThreadsAwaitingConnection());
+			}
+			stats.put("borrows", count);
+			stats.put("avgWaitMs", count > 0 ? wait / count / 1_000_000.0 : 0.0);
+			stats.put("maxWaitMs", maxWaitNanos.getAndSet(0) / 1_000_000.0);
+			stats.put("timeouts", timeouts.sumThenReset());
+			return stats;
+		}
 	}
 }
@@ -3,35 +3,88 @@ package com.hti.database;
 import java.io.IOException;
 import java.util.Properties;
 
-import javax.sql.DataSource;
-
 import com.zaxxer.hikari.HikariConfig;
 import com.zaxxer.hikari.HikariDataSource;
 
 public class DataSourceFactory {
 
-	public DataSource createDataSource() throws IOException {
+	private static final String PREFIX = "spring.datasource.hikari.";
+	private Properties properties;
+
+	public DataSourceFactory() throws IOException {
+		this(loadProperties());
+	}
+
+	DataSourceFactory(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Pool named after its workload. Settings are read from
+	 * spring.datasource.hikari.&lt;pool&gt;.&lt;setting&gt;, falling back to the
+	 * shared spring.datasource.hikari.&lt;setting&gt;.
+	 */
+	public HikariDataSource createDataSource(String pool) {
+		return createDataSource(pool, properties.getProperty("spring.datasource.url"),
+				properties.getProperty("spring.datasource.username"),
+				properties.getProperty("spring.datasource.password"));
+	}
+
+	/**
+	 * Pool of the read replica set by spring.datasource.replica.url, null if none.
+	 * Username and password default to the ones of the primary. The pool starts
+	 * even if the replica is down and waits at most
+	 * spring.datasource.hikari.replica.connection-timeout (default 1000 ms) for a
+	 * connection, so that reads fall back to the primary quickly.
+	 */
+	public HikariDataSource createReplicaDataSource() {
+		String url = properties.getProperty("spring.datasource.replica.url");
+		if (url == null || url.isBlank()) {
+			return null;
+		}
+		HikariConfig config = createConfig("replica", url,
+				properties.getProperty("spring.datasource.replica.username",
+						properties.getProperty("spring.datasource.username")),
+				properties.getProperty("spring.datasource.replica.password",
+						properties.getProperty("spring.datasource.password")));
+		config.setConnectionTimeout(
+				Long.parseLong(properties.getProperty(PREFIX + "replica.connection-timeout", "1000")));
+		config.setInitializationFailTimeout(-1);
+		return new HikariDataSource(config);
+	}
+
+	private static Properties loadProperties() throws IOException {
 		Properties properties = new Properties();
 
 		// Load the properties from the application.properties file
-		properties.load(getClass().getClassLoader().getResourceAsStream("application.properties"));
+		properties.load(DataSourceFactory.class.getClassLoader().getResourceAsStream("application.properties"));
+		return properties;
+	}
 
+	private HikariDataSource createDataSource(String pool, String url, String username, String password) {
+		return new HikariDataSource(createConfig(pool, url, username, password));
+	}
+
+	private HikariConfig createConfig(String pool, String url, String username, String password) {
 		HikariConfig config = new HikariConfig();
-		config.setJdbcUrl(properties.getProperty("spring.datasource.url"));
-		config.setUsername(properties.getProperty("spring.datasource.username"));
-		config.setPassword(properties.getProperty("spring.datasource.password"));
+		config.setPoolName("email-" + pool);
+		config.setJdbcUrl(url);
+		config.setUsername(username);
+		config.setPassword(password);
 		config.setDriverClassName(properties.getProperty("spring.datasource.driver-class-name"));
 
 		// HikariCP specific settings
-		config.setMaximumPoolSize(
-				Integer.parseInt(properties.getProperty("spring.datasource.hikari.maximum-pool-size")));
-		config.setMinimumIdle(Integer.parseInt(properties.getProperty("spring.datasource.hikari.minimum-idle")));
-		config.setIdleTimeout(Long.parseLong(properties.getProperty("spring.datasource.hikari.idle-timeout")));
-		config.setConnectionTimeout(
-				Long.parseLong(properties.getProperty("spring.datasource.hikari.connection-timeout")));
-		config.setMaxLifetime(Long.parseLong(properties.getProperty("spring.datasource.hikari.max-lifetime")));
+		config.setMaximumPoolSize(Integer.parseInt(setting(properties, pool, "maximum-pool-size")));
+		config.setMinimumIdle(Integer.parseInt(setting(properties, pool, "minimum-idle")));
+		config.setIdleTimeout(Long.parseLong(setting(properties, pool, "idle-timeout")));
+		config.setConnectionTimeout(Long.parseLong(setting(properties, pool, "connection-timeout")));
+		config.setMaxLifetime(Long.parseLong(setting(properties, pool, "max-lifetime")));
+		config.setRegisterMbeans(true);
+		return config;
+	}
 
-		return new HikariDataSource(config);
+	private static String setting(Properties properties, String pool, String name) {
+		return properties.getProperty(PREFIX + pool + "." + name, properties.getProperty(PREFIX + name));
 	}
 
 }
@@ -0,0 +1,253 @@
+package com.hti.database.service;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.util.GlobalVar;
+
+/**
+ * Sent, failed and delivered counters of running batches. They are updated in
+ * memory as recipients complete and written to the batch registry in one
+ * transaction every {@link GlobalVar#PROGRESS_FLUSH_INTERVAL}, so that listing
+ * batches reads a stored counter instead of counting recipient rows.
+ */
+public class BatchProgress implements Runnable {
+
+	private static BatchProgress instance;
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+	private Map<String, Counter> counters = new ConcurrentHashMap<String, Counter>();
+	private BatchRegistry batchRegistry = new BatchRegistry();
+	private RecipientStore recipientStore = new RecipientStore();
+	private volatile boolean stop;
+	private Thread thread;
+
+	private BatchProgress() {
+		this.thread = new Thread(this, "BatchProgress");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public static synchronized BatchProgress getInstance() {
+		if (instance == null) {
+			instance = new BatchProgress();
+		}
+		return instance;
+	}
+
+	/**
+	 * Writes the pending counts and stops the flusher.
+	 */
+	public static void shutdown(long timeout, TimeUnit unit) {
+		BatchProgress progress;
+		synchronized (BatchProgress.class) {
+			progress = instance;
+			instance = null;
+		}
+		if (progress != null) {
+			progress.stop = true;
+			progress.thread.interrupt();
+			try {
+				progress.thread.join(unit.toMillis(timeout));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Counter of a batch that starts or resumes, continuing from its stored
+	 * progress.
+	 */
+	public Counter open(String systemId, String batchId, int total) {
+		return counters.compute(systemId + "_" + batchId, (key, counter) -> {
+			if (counter == null) {
+				counter = load(systemId, batchId, total);
+			}
+			counter.closed = false;
+			return counter;
+		});
+	}
+
+	public Counter get(String systemId, String batchId) {
+		return counters.get(systemId + "_" + batchId);
+	}
+
+	/**
+	 * The batch stopped, its counter is removed after the next write.
+	 */
+	public void close(String systemId, String batchId) {
+		Counter counter = counters.get(systemId + "_" + batchId);
+		if (counter != null) {
+			counter.closed = true;
+		}
+	}
+
+	/**
+	 * Progress of the given batches of a user, running batches from memory and
+	 * others from the registry with one query.
+	 */
+	public Map<String, Counter> list(String systemId, Collection<String> batchIds) {
+		Map<String, Counter> progress = new LinkedHashMap<String, Counter>();
+		List<String> stored = new ArrayList<String>();
+		for (String batchId : batchIds) {
+			Counter counter = get(systemId, batchId);
+			if (counter != null) {
+				progress.put(batchId, counter);
+			} else {
+				stored.add(batchId);
+			}
+		}
+		Map<String, int[]> counts = batchRegistry.listProgress(systemId, stored);
+		for (String batchId : stored) {
+			int[] count = counts.get(batchId);
+			if (count != null) {
+				progress.put(batchId, new Counter(systemId, batchId, count));
+			} else {
+				// counted from the recipients once, then stored by the next write
+				Counter counter = load(systemId, batchId, 0);
+				counter.closed = true;
+				progress.put(batchId, counters.computeIfAbsent(systemId + "_" + batchId, key -> counter));
+			}
+		}
+		return progress;
+	}
+
+	private Counter load(String systemId, String batchId, int total) {
+		int[] count = batchRegistry.listProgress(systemId, List.of(batchId)).get(batchId);
+		if (count == null) {
+			// never counted, batch of an older version
+			int[] flags = recipientStore.countByFlag(systemId, batchId);
+			count = new int[] { Math.max(total, flags[0]), flags[1], flags[2], flags[1] };
+			Counter counter = new Counter(systemId, batchId, count, new int[4]);
+			counter.dirty = true;
+			return counter;
+		}
+		if (total > count[0]) {
+			count[0] = total;
+		}
+		return new Counter(systemId, batchId, count);
+	}
+
+	@Override
+	public void run() {
+		logger.info("Batch Progress Started");
+		while (!stop) {
+			try {
+				Thread.sleep(GlobalVar.PROGRESS_FLUSH_INTERVAL);
+			} catch (InterruptedException e) {
+				// stop requested
+			}
+			flush();
+		}
+		logger.info("Batch Progress Stopped");
+	}
+
+	private void flush() {
+		Map<String[], int[]> dirty = new HashMap<String[], int[]>();
+		List<Counter> written = new ArrayList<Counter>();
+		for (Counter counter : counters.values()) {
+			if (counter.dirty || counter.closed) {
+				counter.dirty = false;
+				written.add(counter);
+				dirty.put(new String[] { counter.systemId, counter.batchId }, counter.toDelta());
+			}
+		}
+		if (dirty.isEmpty()) {
+			return;
+		}
+		try {
+			batchRegistry.saveProgress(dirty);
+		} catch (SQLException e) {
+			logger.error("SQL error writing progress of " + dirty.size() + " batches", e);
+			written.forEach(counter -> counter.dirty = true);
+			return;
+		}
+		for (Counter counter : written) {
+			counter.flushed();
+			counters.computeIfPresent(counter.systemId + "_" + counter.batchId,
+					(key, current) -> current.closed && !current.dirty ? null : current);
+		}
+	}
+
+	public static class Counter {
+		private final String systemId;
+		private final String batchId;
+		private volatile int total;
+		private final AtomicInteger sent;
+		private final AtomicInteger failed;
+		private final AtomicInteger delivered;
+		private volatile boolean dirty;
+		private volatile boolean closed;
+		// counts already in the registry and the ones being written
+		private int[] stored;
+		private int[] writing;
+
+		private Counter(String systemId, String batchId, int[] count) {
+			this(systemId, batchId, count, count);
+		}
+
+		private Counter(String systemId, String batchId, int[] count, int[] stored) {
+			this.systemId = systemId;
+			this.batchId = batchId;
+			this.total = count[0];
+			this.sent = new AtomicInteger(count[1]);
+			this.failed = new AtomicInteger(count[2]);
+			this.delivered = new AtomicInteger(count[3]);
+			this.stored = stored.clone();
+		}
+
+		public void sent() {
+			sent.incrementAndGet();
+			dirty = true;
+		}
+
+		public void failed() {
+			failed.incrementAndGet();
+			dirty = true;
+		}
+
+		public void delivered() {
+			delivered.incrementAndGet();
+			dirty = true;
+		}
+
+		public int getPending() {
+			return Math.max(0, total - sent.get() - failed.get());
+		}
+
+		/**
+		 * Counts since the last write, total is written as is.
+		 */
+		private int[] toDelta() {
+			writing = new int[] { total, sent.get(), failed.get(), delivered.get() };
+			return new int[] { writing[0], writing[1] - stored[1], writing[2] - stored[2], writing[3] - stored[3] };
+		}
+
+		private void flushed() {
+			stored = writing;
+		}
+
+		public Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<String, Object>();
+			map.put("batchId", batchId);
+			map.put("total", total);
+			map.put("pending", getPending());
+			map.put("sent", sent.get());
+			map.put("failed", failed.get());
+			map.put("delivered", delivered.get());
+			return map;
+		}
+	}
+
+}
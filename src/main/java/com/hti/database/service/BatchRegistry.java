@@ -0,0 +1,247 @@
+package com.hti.database.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.database.ConnectionPool.Workload;
+import com.hti.util.GlobalVar;
+
+/**
+ * The batch_registry table lists every batch (kind B) and schedule (kind S) of
+ * all users with its status and server time, so that restart recovery and the
+ * daily schedule loader find their entries with one indexed query instead of
+ * scanning every batch_<system> and schedule_<system> table. The user tables
+ * stay the source of the entry details and are read by primary key.
+ */
+public class BatchRegistry {
+
+	public static final String BATCH = "B";
+	public static final String SCHEDULE = "S";
+	private static final String TABLE = "batch_registry";
+	private static volatile boolean ready;
+	private static Logger logger = LoggerFactory.getLogger("dbLogger");
+
+	/**
+	 * Creates the registry and, when it is empty, fills it once from the
+	 * existing batch_ and schedule_ tables.
+	 */
+	public static synchronized void init() {
+		if (ready) {
+			return;
+		}
+		String sql = "CREATE TABLE IF NOT EXISTS " + TABLE + " (kind char(1) NOT NULL, "
+				+ "system_id varchar(15) NOT NULL, batch_id bigint NOT NULL, status varchar(12) NOT NULL, "
+				+ "server_time timestamp NULL, updated_on timestamp NULL, total int DEFAULT NULL, "
+				+ "sent int DEFAULT NULL, failed int DEFAULT NULL, delivered int DEFAULT NULL, "
+				+ "PRIMARY KEY (kind, system_id, batch_id), KEY idx_status (status, server_time, system_id)) ENGINE=InnoDB";
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE)) {
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				statement.executeUpdate();
+			}
+			boolean empty;
+			try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM " + TABLE + " LIMIT 1");
+					ResultSet rs = statement.executeQuery()) {
+				empty = !rs.next();
+			}
+			if (empty) {
+				backfill(connection, "batch_%", BATCH, "created_on");
+				backfill(connection, "schedule_%", SCHEDULE, "server_time");
+			}
+			ready = true;
+		} catch (SQLException e) {
+			logger.error("SQL error preparing " + TABLE, e);
+		}
+	}
+
+	private static void backfill(Connection connection, String pattern, String kind, String timeColumn)
+			throws SQLException {
+		Set<String> tables = new HashSet<String>();
+		try (PreparedStatement statement = connection.prepareStatement("SHOW TABLES LIKE '" + pattern + "'");
+				ResultSet rs = statement.executeQuery()) {
+			while (rs.next()) {
+				tables.add(rs.getString(1));
+			}
+		}
+		tables.remove(TABLE);
+		for (String table : tables) {
+			String systemId = table.substring(table.indexOf('_') + 1);
+			String sql = "INSERT IGNORE INTO " + TABLE + " (kind, system_id, batch_id, status, server_time, total) "
+					+ "SELECT ?, ?, batch_id, status, " + timeColumn + ", total_recipients FROM " + table;
+			try (PreparedStatement statement = connection.prepareStatement(sql)) {
+				statement.setString(1, kind);
+				statement.setString(2, systemId);
+				logger.info(table + " Registered: " + statement.executeUpdate());
+			} catch (SQLException e) {
+				logger.error(table + " Registration Failed", e);
+			}
+		}
+	}
+
+	public void register(String kind, String systemId, String batchId, String status, Timestamp serverTime,
+			int total) {
+		init();
+		String sql = "INSERT INTO " + TABLE + " (kind, system_id, batch_id, status, server_time, total, sent, failed, "
+				+ "delivered) VALUES (?, ?, ?, ?, ?, ?, 0, 0, 0) ON DUPLICATE KEY UPDATE status = VALUES(status), "
+				+ "server_time = VALUES(server_time), total = VALUES(total), updated_on = NOW()";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, kind);
+			statement.setString(2, systemId);
+			statement.setString(3, batchId);
+			statement.setString(4, status);
+			statement.setTimestamp(5, serverTime);
+			statement.setInt(6, total);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error registering " + kind, e);
+		}
+	}
+
+	public void updateStatus(String kind, String systemId, String batchId, String status) {
+		init();
+		String sql = "UPDATE " + TABLE + " SET status = ?, updated_on = NOW() WHERE kind = ? AND system_id = ? AND batch_id = ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, status);
+			statement.setString(2, kind);
+			statement.setString(3, systemId);
+			statement.setString(4, batchId);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error updating " + kind + " status", e);
+		}
+	}
+
+	public void updateServerTime(String kind, String systemId, String batchId, Timestamp serverTime) {
+		init();
+		String sql = "UPDATE " + TABLE + " SET server_time = ?, updated_on = NOW() WHERE kind = ? AND system_id = ? AND batch_id = ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setTimestamp(1, serverTime);
+			statement.setString(2, kind);
+			statement.setString(3, systemId);
+			statement.setString(4, batchId);
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error updating " + kind + " server time", e);
+		}
+	}
+
+	/**
+	 * [systemId, batchId] of the entries of a kind in the given status whose
+	 * server time falls in [from, to). Null bounds are open.
+	 */
+	public List<String[]> list(String kind, String status, Timestamp from, Timestamp to) {
+		init();
+		StringBuilder sql = new StringBuilder(
+				"SELECT system_id, batch_id FROM " + TABLE + " WHERE status = ? AND kind = ?");
+		if (from != null) {
+			sql.append(" AND server_time >= ?");
+		}
+		if (to != null) {
+			sql.append(" AND server_time < ?");
+		}
+		List<String[]> list = new ArrayList<String[]>();
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.READ);
+				PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			int index = 1;
+			statement.setString(index++, status);
+			statement.setString(index++, kind);
+			if (from != null) {
+				statement.setTimestamp(index++, from);
+			}
+			if (to != null) {
+				statement.setTimestamp(index++, to);
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					list.add(new String[] { rs.getString("system_id"), rs.getString("batch_id") });
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("SQL error listing " + status + " entries of kind " + kind, e);
+		}
+		return list;
+	}
+
+	/**
+	 * Stored progress of the given batches of a user as batchId -> [total, sent,
+	 * failed, delivered]. Batches whose progress was never counted are missing.
+	 */
+	public Map<String, int[]> listProgress(String systemId, Collection<String> batchIds) {
+		init();
+		Map<String, int[]> progress = new HashMap<String, int[]>();
+		if (batchIds.isEmpty()) {
+			return progress;
+		}
+		String sql = "SELECT batch_id, total, sent, failed, delivered FROM " + TABLE
+				+ " WHERE kind = ? AND system_id = ? AND batch_id IN ("
+				+ String.join(",", Collections.nCopies(batchIds.size(), "?")) + ") AND sent IS NOT NULL";
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			int index = 1;
+			statement.setString(index++, BATCH);
+			statement.setString(index++, systemId);
+			for (String batchId : batchIds) {
+				statement.setString(index++, batchId);
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					progress.put(rs.getString("batch_id"), new int[] { rs.getInt("total"), rs.getInt("sent"),
+							rs.getInt("failed"), rs.getInt("delivered") });
+				}
+			}
+		} catch (SQLException e) {
+			logger.error(systemId + " SQL error listing progress", e);
+		}
+		return progress;
+	}
+
+	/**
+	 * Adds the progress of batches since their last write as [total, sent, failed,
+	 * delivered] keyed by [systemId, batchId], in one transaction. Counts are added
+	 * so that nodes sharing a batch do not overwrite each other.
+	 */
+	public void saveProgress(Map<String[], int[]> progress) throws SQLException {
+		String sql = "UPDATE " + TABLE + " SET total = GREATEST(IFNULL(total, 0), ?), sent = IFNULL(sent, 0) + ?, "
+				+ "failed = IFNULL(failed, 0) + ?, delivered = IFNULL(delivered, 0) + ? "
+				+ "WHERE kind = ? AND system_id = ? AND batch_id = ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			connection.setAutoCommit(false);
+			for (Map.Entry<String[], int[]> entry : progress.entrySet()) {
+				GlobalVar.connectionPool.written(entry.getKey()[0]);
+				int[] counts = entry.getValue();
+				for (int i = 0; i < counts.length; i++) {
+					statement.setInt(i + 1, counts[i]);
+				}
+				statement.setString(5, BATCH);
+				statement.setString(6, entry.getKey()[0]);
+				statement.setString(7, entry.getKey()[1]);
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			connection.commit();
+		}
+	}
+
+	public static Timestamp startOfDay(LocalDate date) {
+		return Timestamp.valueOf(date.atStartOfDay());
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.hti.database.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.util.GlobalVar;
+
+/**
+ * Streams rows into a table with multi-row INSERT statements of
+ * {@link GlobalVar#BULK_INSERT_CHUNK_SIZE} rows each. Large lists are split
+ * into slices handled by a shared pool of {@link GlobalVar#BULK_INSERT_THREADS}
+ * workers, each using a single connection for its whole slice.
+ */
+public class BulkInsertService {
+
+	/**
+	 * Binds one row to the statement starting at the given parameter index.
+	 */
+	@FunctionalInterface
+	public interface RowBinder<T> {
+		void bind(PreparedStatement statement, int parameterIndex, T row) throws SQLException;
+	}
+
+	private static ExecutorService executor;
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			AtomicInteger counter = new AtomicInteger();
+			executor = Executors.newFixedThreadPool(GlobalVar.BULK_INSERT_THREADS, r -> {
+				Thread thread = new Thread(r, "BulkInsert_" + counter.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			});
+		}
+		return executor;
+	}
+
+	/**
+	 * Inserts all rows into the table and waits for completion.
+	 *
+	 * @param columns comma separated column list matching the binder.
+	 * @param ignore  use INSERT IGNORE to skip duplicate keys.
+	 * @return true if every row was written.
+	 */
+	public <T> boolean insert(String tableName, String columns, int columnCount, List<T> rows, RowBinder<T> binder,
+			boolean ignore) {
+		if (rows == null || rows.isEmpty()) {
+			return true;
+		}
+		long start = System.currentTimeMillis();
+		int chunkSize = Math.max(1, GlobalVar.BULK_INSERT_CHUNK_SIZE);
+		int chunks = (rows.size() + chunkSize - 1) / chunkSize;
+		int slices = Math.min(GlobalVar.BULK_INSERT_THREADS, chunks);
+		int chunksPerSlice = (chunks + slices - 1) / slices;
+		List<Future<Boolean>> tasks = new ArrayList<>();
+		for (int slice = 0; slice < slices; slice++) {
+			int from = slice * chunksPerSlice * chunkSize;
+			int to = Math.min(rows.size(), from + chunksPerSlice * chunkSize);
+			if (from >= to) {
+				break;
+			}
+			List<T> sliceRows = rows.subList(from, to);
+			tasks.add(getExecutor()
+					.submit(() -> insertSlice(tableName, columns, columnCount, sliceRows, binder, ignore, chunkSize)));
+		}
+		boolean success = true;
+		for (Future<Boolean> task : tasks) {
+			try {
+				success &= task.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				success = false;
+			} catch (Exception e) {
+				logger.error(tableName + " Bulk Insert Error", e);
+				success = false;
+			}
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - start);
+		logger.info(tableName + " Bulk Inserted: " + rows.size() + " rows in " + elapsed + " ms ["
+				+ (rows.size() * 1000L / elapsed) + " rows/sec] Success: " + success);
+		return success;
+	}
+
+	private <T> boolean insertSlice(String tableName, String columns, int columnCount, List<T> rows,
+			RowBinder<T> binder, boolean ignore, int chunkSize) {
+		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
+			connection.setAutoCommit(false);
+			PreparedStatement fullChunk = null;
+			try {
+				for (int from = 0; from < rows.size(); from += chunkSize) {
+					int to = Math.min(rows.size(), from + chunkSize);
+					PreparedStatement statement;
+					if (to - from == chunkSize) {
+						if (fullChunk == null) {
+							fullChunk = connection.prepareStatement(
+									buildInsert(tableName, columns, columnCount, chunkSize, ignore));
+						}
+						statement = fullChunk;
+					} else {
+						statement = connection
+								.prepareStatement(buildInsert(tableName, columns, columnCount, to - from, ignore));
+					}
+					int parameterIndex = 1;
+					for (int i = from; i < to; i++) {
+						binder.bind(statement, parameterIndex, rows.get(i));
+						parameterIndex += columnCount;
+					}
+					statement.executeUpdate();
+					connection.commit();
+					if (statement != fullChunk) {
+						statement.close();
+					}
+				}
+			} finally {
+				if (fullChunk != null) {
+					fullChunk.close();
+				}
+			}
+			return true;
+		} catch (SQLException e) {
+			logger.error(tableName + " Bulk Insert Failed: " + e.getMessage(), e);
+		}
+		return false;
+	}
+
+	private String buildInsert(String tableName, String columns, int columnCount, int rowCount, boolean ignore) {
+		StringBuilder row = new StringBuilder("(");
+		for (int i = 0; i < columnCount; i++) {
+			row.append(i == 0 ? "?" : ",?");
+		}
+		row.append(")");
+		StringBuilder sql = new StringBuilder(ignore ? "INSERT IGNORE INTO " : "INSERT INTO ").append(tableName)
+				.append(" (").append(columns).append(") VALUES ");
+		for (int i = 0; i < rowCount; i++) {
+			if (i > 0) {
+				sql.append(",");
+			}
+			sql.append(row);
+		}
+		return sql.toString();
+	}
+
+}
@@ -5,29 +5,26 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.text.SimpleDateFormat;
 import java.time.LocalDate;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.stream.Collectors;
 
 import org.json.JSONArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hti.database.ConnectionPool.Workload;
 import com.hti.entity.EmailEntry;
 import com.hti.entity.ImapEntry;
 import com.hti.entity.RecipientsEntry;
+import com.hti.entity.RetryEntry;
 import com.hti.entity.ScheduleEntry;
 import com.hti.entity.SmtpEntry;
+import com.hti.exception.ProcessingException;
 import com.hti.model.BatchProcessFilterRequest;
 import com.hti.model.EmailProcessResponse;
 import com.hti.model.ScheduleFilterRequest;
@@ -37,10 +34,13 @@ import com.hti.util.GlobalVar;
 public class DBService {
 
 	private Logger logger = LoggerFactory.getLogger(DBService.class);
+	private BulkInsertService bulkInsertService = new BulkInsertService();
+	private RecipientStore recipientStore = new RecipientStore();
+	private BatchRegistry batchRegistry = new BatchRegistry();
 
 	public SmtpEntry loadSmtpEntry(String systemId, int smtpId) {
 		String sql = "SELECT * FROM smtp_config WHERE id = ? and system_id = ?";
-		try (Connection con = GlobalVar.connectionPool.getConnection();
+		try (Connection con = GlobalVar.connectionPool.getConnection(Workload.READ);
 				PreparedStatement stmt = con.prepareStatement(sql)) {
 			stmt.setInt(1, smtpId);
 			stmt.setString(2, systemId);
@@ -72,7 +72,7 @@ public class DBService {
 	public ImapEntry loadImapEntry(String systemId, int smtpId) {
 		String sql = "SELECT * FROM smtp_config WHERE id = ? and system_id = ?";
 		ImapEntry entry = null;
-		try (Connection con = GlobalVar.connectionPool.getConnection();
+		try (Connection con = GlobalVar.connectionPool.getConnection(Workload.READ);
 				PreparedStatement stmt = con.prepareStatement(sql)) {
 			stmt.setInt(1, smtpId);
 			stmt.setString(2, systemId);
@@ -95,7 +95,7 @@ public class DBService {
 	public List<SmtpEntry> loadSmtpEntries() {
 		List<SmtpEntry> list = new ArrayList<SmtpEntry>();
 		String sql = "SELECT * FROM smtp_config";
-		try (Connection con = GlobalVar.connectionPool.getConnection();
+		try (Connection con = GlobalVar.connectionPool.getConnection(Workload.READ);
 				PreparedStatement stmt = con.prepareStatement(sql)) {
 			ResultSet rs = stmt.executeQuery();
 			while (rs.next()) {
@@ -126,7 +126,7 @@ public class DBService {
 	public List<ImapEntry> loadImapEntries() {
 		List<ImapEntry> list = new ArrayList<ImapEntry>();
 		String sql = "SELECT * FROM smtp_config WHERE read_inbox = ? and verified = ? and imap_host IS NOT NULL and imap_port > 0";
-		try (Connection con = GlobalVar.connectionPool.getConnection();
+		try (Connection con = GlobalVar.connectionPool.getConnection(Workload.READ);
 				PreparedStatement stmt = con.prepareStatement(sql)) {
 			stmt.setBoolean(1, true);
 			stmt.setBoolean(2, true);
@@ -159,6 +159,7 @@ public class DBService {
 	}
 
 	public boolean createBatchEntry(EmailEntry entry) {
+		GlobalVar.connectionPool.written(entry.getSystemId());
 		String tableName = "batch_" + entry.getSystemId();
 
 		StringBuilder sb = new StringBuilder();
@@ -201,7 +202,12 @@ public class DBService {
 			insertStmt.setTimestamp(12, entry.getCreatedOn());
 			insertStmt.setString(13, entry.getBatchStatus().name());
 			insertStmt.setString(14, entry.getBatchType().name());
-			return insertStmt.executeUpdate() > 0;
+			if (insertStmt.executeUpdate() > 0) {
+				batchRegistry.register(BatchRegistry.BATCH, entry.getSystemId(), entry.getBatchId(),
+						entry.getBatchStatus().name(), entry.getCreatedOn(), entry.getTotalRecipients());
+				return true;
+			}
+			return false;
 
 		} catch (Exception e) {
 			logger.error("Error creating batch entry for system {}: {}", entry.getSystemId(), e.getMessage(), e);
@@ -213,112 +219,46 @@ public class DBService {
 		if (list == null || list.isEmpty()) {
 			return false;
 		}
-
-		String tableName = "recipient_" + systemId.toLowerCase() + "_" + batchId;
-
-		String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " (" + "msg_id BIGINT PRIMARY KEY, "
-				+ "recipient VARCHAR(100) NOT NULL, " + "flag CHAR(1) DEFAULT 'F')";
-
-		try (Connection con = GlobalVar.connectionPool.getConnection();
-				PreparedStatement createStmt = con.prepareStatement(createTableSQL)) {
-
-			createStmt.executeUpdate(); // Create table once
-
-		} catch (SQLException e) {
-			logger.error("Table creation failed for batch {}: {}", batchId, e.getMessage(), e);
-			return false;
-		}
-
-		// Thread pool for inserting entries
-		ExecutorService executor = Executors.newFixedThreadPool(10); // adjust thread count
-
-		// Prepare tasks
-		List<CompletableFuture<Boolean>> tasks = list.stream()
-				.map(entry -> CompletableFuture.supplyAsync(() -> insertRecipient(entry, tableName), executor))
-				.toList();
-
-		// Wait for ALL threads to finish
-		CompletableFuture<Void> allDone = CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0]));
-
-		try {
-			allDone.get(); // Blocking wait here
-		} catch (Exception e) {
-			executor.shutdown();
-			logger.error("Insertion error: {}", e.getMessage(), e);
-			return false;
-		}
-
-		executor.shutdown();
-
-		// Check if any task failed
-		boolean allSuccess = tasks.stream().allMatch(t -> t.join());
-
-		return allSuccess;
+		return recipientStore.saveRecipients(systemId, batchId, list);
 	}
 
-	private boolean insertRecipient(RecipientsEntry entry, String tableName) {
-		String insertSQL = "INSERT INTO " + tableName + " (msg_id, recipient) VALUES (?, ?)";
-
-		try (Connection con = GlobalVar.connectionPool.getConnection();
-				PreparedStatement stmt = con.prepareStatement(insertSQL)) {
-
-			stmt.setString(1, entry.getMsgId());
-			stmt.setString(2, entry.getRecipient());
-			stmt.executeUpdate();
-			return true;
-
-		} catch (SQLException e) {
-			logger.error("Insert failed for msg {}: {}", entry.getMsgId(), e.getMessage());
-			return false;
-		}
+	/**
+	 * Loads the next page of pending recipients ordered by msg_id, starting after
+	 * the given msg_id keyset position. Returns null if the page could not be read.
+	 */
+	public List<RecipientsEntry> listPendingRecipients(String systemId, String batchId, long afterMsgId, int limit) {
+		return listPendingRecipients(systemId, batchId, afterMsgId, Long.MAX_VALUE, limit);
 	}
 
-	public List<RecipientsEntry> listPendingRecipients(String systemId, String batchId) {
-		String table_name = "recipient_" + systemId + "_" + batchId;
-		logger.info(table_name + " listing pendings");
-		String sql = "SELECT msg_id,recipient FROM " + table_name + " where flag='F'";
-		List<RecipientsEntry> list = new ArrayList<>();
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql);
-				ResultSet rs = statement.executeQuery()) {
-			while (rs.next()) {
-				list.add(new RecipientsEntry(rs.getString("msg_id"), rs.getString("recipient")));
-			}
-			logger.info("{} Pendings: {}", table_name, list.size());
+	public List<RecipientsEntry> listPendingRecipients(String systemId, String batchId, long afterMsgId, long toMsgId,
+			int limit) {
+		return recipientStore.listPending(systemId, batchId, afterMsgId, toMsgId, limit);
+	}
 
-		} catch (SQLException e) {
-			logger.error("SQL error in {} pending list", table_name, e);
-		} catch (Exception e) {
-			logger.error("Unexpected error in {} pending list", table_name, e);
-		}
+	public void deleteRecipients(String systemId, String batchId) {
+		recipientStore.deleteBatch(systemId, batchId);
+	}
 
-		return list;
+	public boolean hasPendingRecipients(String systemId, String batchId) {
+		return recipientStore.hasPending(systemId, batchId);
 	}
 
 	public int countPendingRecipients(String systemId, String batchId) {
-		int returnCounter = 0;
-		String table_name = "recipient_" + systemId + "_" + batchId;
-		logger.info(table_name + " listing pendings");
-		String sql = "SELECT count(msg_id) as pending FROM " + table_name + " where flag='F'";
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql);
-				ResultSet rs = statement.executeQuery()) {
-			if (rs.next()) {
-				returnCounter = rs.getInt("pending");
-			}
-			logger.info("{} Pendings: {}", table_name, returnCounter);
+		return countPendingRecipients(systemId, batchId, 0);
+	}
 
-		} catch (SQLException e) {
-			logger.error("SQL error in {} pending list", table_name, e);
-		} catch (Exception e) {
-			logger.error("Unexpected error in {} pending list", table_name, e);
-		}
+	public int countPendingRecipients(String systemId, String batchId, long afterMsgId) {
+		return countPendingRecipients(systemId, batchId, afterMsgId, Long.MAX_VALUE);
+	}
 
-		return returnCounter;
+	public int countPendingRecipients(String systemId, String batchId, long afterMsgId, long toMsgId) {
+		int pending = recipientStore.countPending(systemId, batchId, afterMsgId, toMsgId);
+		logger.info(systemId + "[" + batchId + "] Pendings: " + pending);
+		return pending;
 	}
 
 	public void updateBatchStatus(String systemId, String batchId, String status) {
+		GlobalVar.connectionPool.written(systemId);
 		String table = "batch_" + systemId;
 
 		String sql = "UPDATE " + table + " SET status = ?, updated_on = NOW() WHERE batch_id = ?";
@@ -334,9 +274,11 @@ public class DBService {
 		} catch (SQLException e) {
 			logger.error("Error updating batch status for batch {}", batchId, e);
 		}
+		batchRegistry.updateStatus(BatchRegistry.BATCH, systemId, batchId, status);
 	}
 
 	public void updateBatch(EmailEntry entry) {
+		GlobalVar.connectionPool.written(entry.getSystemId());
 		String table = "batch_" + entry.getSystemId();
 
 		String sql = "UPDATE " + table + " SET " + "smtp_id = ?, subject = ?, body = ?, "
@@ -358,6 +300,8 @@ public class DBService {
 		} catch (SQLException e) {
 			logger.error("Error updating batch {}", entry.getBatchId(), e);
 		}
+		batchRegistry.updateStatus(BatchRegistry.BATCH, entry.getSystemId(), entry.getBatchId(),
+				entry.getBatchStatus().name());
 	}
 
 	public EmailEntry getEntry(String systemId, String batchId) {
@@ -365,7 +309,7 @@ public class DBService {
 
 		String sql = "SELECT * FROM " + table + " WHERE batch_id = ?";
 
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
 				PreparedStatement stmt = connection.prepareStatement(sql)) {
 			stmt.setString(1, batchId);
 			try (ResultSet rs = stmt.executeQuery()) {
@@ -386,184 +330,205 @@ public class DBService {
 	}
 
 	public List<EmailEntry> listPendingEntries() {
-		String sql = "SHOW TABLES LIKE 'batch_%'";
-		logger.info(" SQL: " + sql.toString());
-		Set<String> tables = new HashSet<String>();
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql.toString());
-				ResultSet rs = statement.executeQuery()) {
-			while (rs.next()) {
-				tables.add(rs.getString(1));
-			}
-			logger.info("Tables: {}", tables.size());
-		} catch (SQLException e) {
-			logger.error("SQL error in {} Tables list", e);
-		} catch (Exception e) {
-			logger.error("Unexpected error in {} Tables list", e);
-		}
 		List<EmailEntry> list = new ArrayList<>();
-
-		String query = "SELECT * FROM %s WHERE status = 'ACTIVE'";
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
-			for (String table : tables) {
-				String finalQuery = String.format(query, table);
-				try (PreparedStatement statement = connection.prepareStatement(finalQuery);
-						ResultSet rs = statement.executeQuery()) {
-
-					while (rs.next()) {
-						list.add(new EmailEntry(rs.getString("batch_id"), rs.getString("system_id"),
-								rs.getString("ip_address"), rs.getInt("smtp_id"), rs.getString("subject"),
-								rs.getString("body"), rs.getString("cc_recipients"), rs.getString("bcc_recipients"),
-								rs.getString("attachments"), rs.getDouble("delay"), rs.getInt("total_recipients"),
-								rs.getTimestamp("created_on"), EmailEntry.BatchStatus.valueOf(rs.getString("status")),
-								EmailEntry.BatchType.valueOf(rs.getString("type"))));
-					}
-
-				} catch (SQLException e) {
-					logger.error("Error reading table {}", table, e);
-				}
+		for (String[] key : batchRegistry.list(BatchRegistry.BATCH, EmailEntry.BatchStatus.ACTIVE.name(), null, null)) {
+			EmailEntry entry = getEntry(key[0], key[1]);
+			if (entry != null && entry.getBatchStatus() == EmailEntry.BatchStatus.ACTIVE) {
+				list.add(entry);
 			}
-
-			logger.info("ACTIVE entries collected: {}", list.size());
-
-		} catch (SQLException e) {
-			logger.error("SQL error when creating DB connection", e);
 		}
+		logger.info("ACTIVE entries collected: {}", list.size());
 		return list;
 	}
 
-	public List<EmailEntry> listEntries(String systemId, BatchProcessFilterRequest batchProcessFilterRequest) {
-		StringBuilder sql = new StringBuilder("SELECT * FROM batch_" + systemId);
-		if (batchProcessFilterRequest != null) {
-			List<String> conditions = new ArrayList<>();
-			if (batchProcessFilterRequest.getBatchId() > 0) {
-				conditions.add("batch_id = " + batchProcessFilterRequest.getBatchId());
-			} else {
-				if (batchProcessFilterRequest.getStatus() != null) {
-					Set<String> statusSet = new HashSet<>();
-					JSONArray arr = new JSONArray(batchProcessFilterRequest.getStatus());
-					for (int i = 0; i < arr.length(); i++) {
-						statusSet.add(arr.getString(i).trim());
-					}
-					if (!statusSet.isEmpty()) {
-						String inClause = statusSet.stream().map(s -> "'" + s + "'").collect(Collectors.joining(","));
-						conditions.add("status IN (" + inClause + ")");
-					}
+	/**
+	 * One page of the batches of a user, newest first, after the keyset position
+	 * {@link BatchProcessFilterRequest#getLastBatchId()}. Body and attachments are
+	 * not loaded. A user without a batch table has no batches, any other failure
+	 * is thrown so that a listing is not taken for complete.
+	 */
+	public List<EmailEntry> listEntries(String systemId, BatchProcessFilterRequest batchProcessFilterRequest,
+			int limit) {
+		StringBuilder sql = new StringBuilder("SELECT batch_id, system_id, ip_address, smtp_id, subject, "
+				+ "cc_recipients, bcc_recipients, delay, total_recipients, created_on, status, type FROM batch_"
+				+ systemId);
+		List<String> conditions = new ArrayList<>();
+		List<Object> params = new ArrayList<>();
+		if (batchProcessFilterRequest.getBatchId() > 0) {
+			conditions.add("batch_id = ?");
+			params.add(batchProcessFilterRequest.getBatchId());
+		} else {
+			if (batchProcessFilterRequest.getStatus() != null) {
+				Set<String> statusSet = new HashSet<>();
+				JSONArray arr = new JSONArray(batchProcessFilterRequest.getStatus());
+				for (int i = 0; i < arr.length(); i++) {
+					statusSet.add(arr.getString(i).trim());
 				}
-				if (batchProcessFilterRequest.getSmtpId() > 0) {
-					conditions.add("smtp_id = " + batchProcessFilterRequest.getSmtpId());
-				}
-				if (batchProcessFilterRequest.getStartTime() != null
-						&& batchProcessFilterRequest.getEndTime() != null) {
-					conditions.add("created_on BETWEEN '" + batchProcessFilterRequest.getStartTime() + "' AND '"
-							+ batchProcessFilterRequest.getEndTime() + "'");
+				if (!statusSet.isEmpty()) {
+					conditions.add("status IN (" + String.join(",", Collections.nCopies(statusSet.size(), "?")) + ")");
+					params.addAll(statusSet);
 				}
 			}
-			if (!conditions.isEmpty()) {
-				sql.append(" WHERE ").append(String.join(" AND ", conditions));
+			if (batchProcessFilterRequest.getSmtpId() > 0) {
+				conditions.add("smtp_id = ?");
+				params.add(batchProcessFilterRequest.getSmtpId());
+			}
+			if (batchProcessFilterRequest.getStartTime() != null && batchProcessFilterRequest.getEndTime() != null) {
+				conditions.add("created_on BETWEEN ? AND ?");
+				params.add(Timestamp.valueOf(batchProcessFilterRequest.getStartTime()));
+				params.add(Timestamp.valueOf(batchProcessFilterRequest.getEndTime()));
+			}
+			if (batchProcessFilterRequest.getLastBatchId() > 0) {
+				conditions.add("batch_id < ?");
+				params.add(batchProcessFilterRequest.getLastBatchId());
 			}
-
 		}
-		logger.info(systemId + " SQL: " + sql.toString());
+		if (!conditions.isEmpty()) {
+			sql.append(" WHERE ").append(String.join(" AND ", conditions));
+		}
+		sql.append(" ORDER BY batch_id DESC LIMIT ?");
+		params.add(limit);
+		logger.debug(systemId + " SQL: " + sql.toString());
 		List<EmailEntry> list = new ArrayList<EmailEntry>();
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql.toString());
-				ResultSet rs = statement.executeQuery()) {
-			while (rs.next()) {
-				list.add(new EmailEntry(rs.getString("batch_id"), rs.getString("system_id"), rs.getString("ip_address"),
-						rs.getInt("smtp_id"), rs.getString("subject"), rs.getString("body"),
-						rs.getString("cc_recipients"), rs.getString("bcc_recipients"), rs.getString("attachments"),
-						rs.getDouble("delay"), rs.getInt("total_recipients"), rs.getTimestamp("created_on"),
-						EmailEntry.BatchStatus.valueOf(rs.getString("status")),
-						EmailEntry.BatchType.valueOf(rs.getString("type"))));
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
+				PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			for (int i = 0; i < params.size(); i++) {
+				statement.setObject(i + 1, params.get(i));
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					list.add(new EmailEntry(rs.getString("batch_id"), rs.getString("system_id"),
+							rs.getString("ip_address"), rs.getInt("smtp_id"), rs.getString("subject"), null,
+							rs.getString("cc_recipients"), rs.getString("bcc_recipients"), null, rs.getDouble("delay"),
+							rs.getInt("total_recipients"), rs.getTimestamp("created_on"),
+							EmailEntry.BatchStatus.valueOf(rs.getString("status")),
+							EmailEntry.BatchType.valueOf(rs.getString("type"))));
+				}
 			}
 			logger.info("{} Batches: {}", systemId, list.size());
 		} catch (SQLException e) {
+			if ("42S02".equals(e.getSQLState())) {
+				return list; // no batch created yet
+			}
 			logger.error("SQL error in {} Batches list", systemId, e);
-		} catch (Exception e) {
-			logger.error("Unexpected error in {} Batches list", systemId, e);
+			throw new ProcessingException("Batches Could Not Be Listed");
 		}
 		return list;
 	}
 
-	public void addUserReportPartition() {
-		String sql = "SHOW TABLES LIKE 'report_%'";
-		logger.info("SQL: {}", sql);
+	public void createRetryTable() {
+		String sql = "CREATE TABLE IF NOT EXISTS retry_schedule (system_id varchar(30) NOT NULL, "
+				+ "batch_id bigint NOT NULL, msg_id bigint NOT NULL, recipient varchar(100) DEFAULT NULL, "
+				+ "attempts int DEFAULT 0, due_time bigint NOT NULL, PRIMARY KEY (system_id, batch_id, msg_id), "
+				+ "KEY idx_due_time (due_time)) ENGINE=InnoDB";
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			logger.error("SQL error creating retry_schedule", e);
+		}
+	}
 
-		Set<String> tables = new HashSet<>();
+	/**
+	 * @return false if the retries were not written, the caller keeps them.
+	 */
+	public boolean saveRetries(List<RetryEntry> list) {
+		String sql = "INSERT INTO retry_schedule (system_id, batch_id, msg_id, recipient, attempts, due_time) "
+				+ "VALUES (?, ?, ?, ?, ?, ?) ON DUPLICATE KEY UPDATE attempts=VALUES(attempts), due_time=VALUES(due_time)";
 		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql);
-				ResultSet rs = statement.executeQuery()) {
-
-			while (rs.next()) {
-				tables.add(rs.getString(1));
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			connection.setAutoCommit(false);
+			for (RetryEntry entry : list) {
+				statement.setString(1, entry.getSystemId());
+				statement.setString(2, entry.getBatchId());
+				statement.setString(3, entry.getMsgId());
+				statement.setString(4, entry.getRecipient());
+				statement.setInt(5, entry.getAttempts());
+				statement.setLong(6, entry.getDueTime());
+				statement.addBatch();
 			}
-			logger.info("Tables found: {}", tables.size());
+			statement.executeBatch();
+			connection.commit();
+			return true;
 		} catch (SQLException e) {
-			logger.error("SQL error in Tables list", e);
-			return;
+			logger.error("SQL error saving {} retries", list.size(), e);
 		}
+		return false;
+	}
 
-		// Tomorrow partition parameters
-		String nextPartitionName = "p" + LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("yyMMdd"));
-
-		String nextPartitionValue = LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("yyMMdd"));
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
-			for (String table : tables) {
-
-				// 1) Check if the partition already exists
-				String checkSql = "SELECT PARTITION_NAME FROM INFORMATION_SCHEMA.PARTITIONS "
-						+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME = ?";
-				try (PreparedStatement ps = connection.prepareStatement(checkSql)) {
-					ps.setString(1, table);
-					ps.setString(2, nextPartitionName);
-
-					try (ResultSet rs = ps.executeQuery()) {
-						if (rs.next()) {
-							logger.info("Partition {} already exists on {}", nextPartitionName, table);
-							continue; // skip
-						}
-					}
-				}
-
-				// 2) Drop pmax partition (needed before adding new partition)
-				String dropMax = "ALTER TABLE " + table + " DROP PARTITION pmax";
-				logger.info("Dropping pmax on {}", table);
-
-				try (PreparedStatement ps = connection.prepareStatement(dropMax)) {
-					ps.execute();
-				} catch (SQLException e) {
-					logger.warn("pmax drop failed on {} (maybe already dropped)", table);
-				}
-
-				// 3) Add new next-day partition
-				String addPartitionSql = "ALTER TABLE " + table + " ADD PARTITION (PARTITION " + nextPartitionName
-						+ " VALUES LESS THAN (" + nextPartitionValue + "))";
-
-				logger.info("Adding partition {} to {}", nextPartitionName, table);
-				try (PreparedStatement ps = connection.prepareStatement(addPartitionSql)) {
-					ps.execute();
-				}
+	public boolean deleteRetries(List<RetryEntry> list) {
+		String sql = "DELETE FROM retry_schedule WHERE system_id = ? AND batch_id = ? AND msg_id = ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			connection.setAutoCommit(false);
+			for (RetryEntry entry : list) {
+				statement.setString(1, entry.getSystemId());
+				statement.setString(2, entry.getBatchId());
+				statement.setString(3, entry.getMsgId());
+				statement.addBatch();
+			}
+			statement.executeBatch();
+			connection.commit();
+			return true;
+		} catch (SQLException e) {
+			logger.error("SQL error deleting {} retries", list.size(), e);
+		}
+		return false;
+	}
 
-				// 4) Re-add pmax partition
-				String addMaxSql = "ALTER TABLE " + table
-						+ " ADD PARTITION (PARTITION pmax VALUES LESS THAN (MAXVALUE))";
+	public void deleteRetries(String systemId, String batchId) {
+		String sql = "DELETE FROM retry_schedule WHERE system_id = ? AND batch_id = ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			int rows = statement.executeUpdate();
+			logger.info("{}[{}] Retries Deleted: {}", systemId, batchId, rows);
+		} catch (SQLException e) {
+			logger.error("SQL error deleting retries of {}[{}]", systemId, batchId, e);
+		}
+	}
 
-				logger.info("Re-adding pmax on {}", table);
-				try (PreparedStatement ps = connection.prepareStatement(addMaxSql)) {
-					ps.execute();
+	public List<RetryEntry> listRetries(String systemId, String batchId) {
+		String sql = "SELECT msg_id, recipient, attempts, due_time FROM retry_schedule WHERE system_id = ? AND batch_id = ?";
+		List<RetryEntry> list = new ArrayList<RetryEntry>();
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					list.add(new RetryEntry(systemId, batchId, rs.getString("msg_id"), rs.getString("recipient"),
+							rs.getInt("attempts"), rs.getLong("due_time")));
 				}
+			}
+		} catch (SQLException e) {
+			logger.error("SQL error listing retries of {}[{}]", systemId, batchId, e);
+		}
+		return list;
+	}
 
-				logger.info("Partition {} added successfully to {}", nextPartitionName, table);
+	/**
+	 * If the batch has persisted retries, read on the primary as they are
+	 * written just before.
+	 */
+	public boolean hasRetries(String systemId, String batchId) {
+		String sql = "SELECT EXISTS (SELECT 1 FROM retry_schedule WHERE system_id = ? AND batch_id = ?)";
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.READ);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			try (ResultSet rs = statement.executeQuery()) {
+				return rs.next() && rs.getBoolean(1);
 			}
 		} catch (SQLException e) {
-			logger.error("SQL error when adding partition", e);
+			logger.error("SQL error checking retries of {}[{}]", systemId, batchId, e);
 		}
+		return false;
 	}
 
 	public boolean createScheduleEntry(ScheduleEntry entry) {
+		GlobalVar.connectionPool.written(entry.getSystemId());
 		String tableName = "schedule_" + entry.getSystemId();
 
 		StringBuilder sb = new StringBuilder();
@@ -602,7 +567,13 @@ public class DBService {
 			insertStmt.setString(13, entry.getGmt());
 			insertStmt.setTimestamp(14, Timestamp.valueOf(entry.getScheduledOn()));
 			insertStmt.setTimestamp(15, Timestamp.valueOf(entry.getServerTime()));
-			return insertStmt.executeUpdate() > 0;
+			if (insertStmt.executeUpdate() > 0) {
+				batchRegistry.register(BatchRegistry.SCHEDULE, entry.getSystemId(), entry.getBatchId(),
+						EmailEntry.BatchStatus.PENDING.name(), Timestamp.valueOf(entry.getServerTime()),
+						entry.getTotalRecipients());
+				return true;
+			}
+			return false;
 
 		} catch (SQLException e) {
 			logger.error("Error creating Schedule entry for systemId {}: {}", entry.getSystemId(), e.getMessage(), e);
@@ -614,102 +585,20 @@ public class DBService {
 		if (list == null || list.isEmpty()) {
 			return false;
 		}
-		String tableName = "sch_recipient_" + systemId.toLowerCase() + "_" + batchId;
-		String createTableSQL = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
-				+ "recipient VARCHAR(50) NOT NULL PRIMARY KEY" + ") ENGINE=MyISAM";
-
-		// Create table only once
-		try (Connection con = GlobalVar.connectionPool.getConnection();
-				PreparedStatement createStmt = con.prepareStatement(createTableSQL)) {
-			createStmt.executeUpdate();
-		} catch (SQLException e) {
-			logger.error("Table creation failed for Schedule {}: {}", batchId, e.getMessage(), e);
-			return false;
-		}
-
-		ExecutorService executor = Executors.newFixedThreadPool(10);
-
-		List<CompletableFuture<Boolean>> tasks = list.stream()
-				.map(entry -> CompletableFuture.supplyAsync(() -> insertScheduleRecipient(entry, tableName), executor))
-				.toList();
-
-		try {
-			CompletableFuture.allOf(tasks.toArray(new CompletableFuture[0])).get();
-		} catch (Exception e) {
-			logger.error("Insertion error: {}", e.getMessage(), e);
-			executor.shutdown();
-			return false;
-		}
-
-		executor.shutdown();
-
-		// Final success check
-		return tasks.stream().allMatch(CompletableFuture::join);
-	}
-
-	private boolean insertScheduleRecipient(String recipient, String tableName) {
-		String insertSQL = "INSERT IGNORE INTO " + tableName + " (recipient) VALUES (?)";
-		// INSERT IGNORE prevents duplicate key failure
-
-		try (Connection con = GlobalVar.connectionPool.getConnection();
-				PreparedStatement stmt = con.prepareStatement(insertSQL)) {
-			stmt.setString(1, recipient);
-			stmt.executeUpdate();
-			return true;
-
-		} catch (SQLException e) {
-			logger.error("Insert failed for recipient {}: {}", recipient, e.getMessage());
-			return false;
-		}
+		return recipientStore.saveScheduled(systemId, batchId, list);
 	}
 
 	public List<ScheduleEntry> loadTodaySchedules() {
-		String sql = "SHOW TABLES LIKE 'schedule_%'";
-		logger.info(" SQL: " + sql.toString());
-		Set<String> tables = new HashSet<String>();
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql.toString());
-				ResultSet rs = statement.executeQuery()) {
-			while (rs.next()) {
-				tables.add(rs.getString(1));
-			}
-			logger.info("Tables: {}", tables.size());
-		} catch (SQLException e) {
-			logger.error("SQL error in {} Tables list", e);
-		} catch (Exception e) {
-			logger.error("Unexpected error in {} Tables list", e);
-		}
 		List<ScheduleEntry> list = new ArrayList<>();
-
-		String query = "SELECT * FROM %s WHERE DATE(server_time) = '"
-				+ new SimpleDateFormat("yyyy-MM-dd").format(new Date()) + "' and status = 'PENDING'";
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
-			for (String table : tables) {
-				String finalQuery = String.format(query, table);
-				logger.info(finalQuery);
-				try (PreparedStatement statement = connection.prepareStatement(finalQuery);
-						ResultSet rs = statement.executeQuery()) {
-					while (rs.next()) {
-						list.add(new ScheduleEntry(rs.getString("batch_id"), rs.getString("system_id"),
-								rs.getString("ip_address"), rs.getInt("smtp_id"), rs.getString("subject"),
-								rs.getString("body"), rs.getString("cc_recipients"), rs.getString("bcc_recipients"),
-								rs.getString("attachments"), rs.getDouble("delay"), rs.getInt("total_recipients"),
-								rs.getTimestamp("created_on"), rs.getTimestamp("server_time").toLocalDateTime(),
-								rs.getString("gmt"), rs.getTimestamp("schedule_on").toLocalDateTime(),
-								EmailEntry.BatchStatus.valueOf(rs.getString("status"))));
-					}
-
-				} catch (SQLException e) {
-					logger.error("Error reading table {}", table, e);
-				}
+		LocalDate today = LocalDate.now();
+		for (String[] key : batchRegistry.list(BatchRegistry.SCHEDULE, EmailEntry.BatchStatus.PENDING.name(),
+				BatchRegistry.startOfDay(today), BatchRegistry.startOfDay(today.plusDays(1)))) {
+			ScheduleEntry entry = getScheduleEntry(key[0], key[1]);
+			if (entry != null) {
+				list.add(entry);
 			}
-
-			logger.info("Today Scheduled entries collected: {}", list.size());
-
-		} catch (SQLException e) {
-			logger.error("SQL error when creating DB connection", e);
 		}
+		logger.info("Today Scheduled entries collected: {}", list.size());
 		return list;
 	}
 
@@ -718,7 +607,7 @@ public class DBService {
 		String query = "SELECT * FROM schedule_" + systemId + " WHERE batch_id = ?";
 		logger.info("Executing: {}", query);
 
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
 				PreparedStatement statement = connection.prepareStatement(query)) {
 			statement.setString(1, batchId);
 			try (ResultSet rs = statement.executeQuery()) {
@@ -741,6 +630,7 @@ public class DBService {
 	}
 
 	public boolean abortSchedule(String systemId, String batchId) {
+		GlobalVar.connectionPool.written(systemId);
 		String table = "schedule_" + systemId;
 		String sql = "update " + table + " set status = ? WHERE batch_id = ?";
 		try (Connection connection = GlobalVar.connectionPool.getConnection();
@@ -750,6 +640,8 @@ public class DBService {
 			int rows = stmt.executeUpdate();
 			if (rows > 0) {
 				logger.info("Schedule entry aborted from DB for batch {}", batchId);
+				batchRegistry.updateStatus(BatchRegistry.SCHEDULE, systemId, batchId, "ABORTED");
+				recipientStore.deleteScheduled(systemId, batchId);
 				return true;
 			}
 		} catch (SQLException e) {
@@ -760,6 +652,7 @@ public class DBService {
 	}
 
 	public boolean updateScheduleEntry(ScheduleEntry entry) {
+		GlobalVar.connectionPool.written(entry.getSystemId());
 		String table = "schedule_" + entry.getSystemId();
 
 		String sql = "UPDATE " + table + " SET " + "smtp_id = ?, subject = ?, body = ?, "
@@ -781,6 +674,8 @@ public class DBService {
 			int rows = stmt.executeUpdate();
 			if (rows > 0) {
 				logger.info("Schedule entry Updated for batch {}", entry.getBatchId());
+				batchRegistry.updateServerTime(BatchRegistry.SCHEDULE, entry.getSystemId(), entry.getBatchId(),
+						Timestamp.valueOf(entry.getServerTime()));
 				return true;
 			}
 		} catch (SQLException e) {
@@ -812,7 +707,7 @@ public class DBService {
 		}
 		logger.info(systemId + " SQL: " + sql.toString());
 		List<ScheduleEntry> list = new ArrayList<ScheduleEntry>();
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
 				PreparedStatement statement = connection.prepareStatement(sql.toString())) {
 			try (ResultSet rs = statement.executeQuery()) {
 				while (rs.next()) {
@@ -833,130 +728,24 @@ public class DBService {
 	}
 
 	public List<String> listScheduledRecipients(String systemId, String batchId) {
-		String tableName = "sch_recipient_" + systemId.toLowerCase() + "_" + batchId;
-		List<String> list = new ArrayList<String>();
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement("select recipient from " + tableName)) {
-			try (ResultSet rs = statement.executeQuery()) {
-				while (rs.next()) {
-					list.add(rs.getString("recipient"));
-				}
-			}
-			logger.info(tableName + " Scheduled Recipients collected: {}", list.size());
-		} catch (SQLException e) {
-			logger.error(tableName + " SQL error while fetching Scheduled Recipients", e);
-		}
-		return list;
+		return recipientStore.listScheduled(systemId, batchId);
 	}
 
 	public void clearScheduleEntry(String systemId, String batchId) {
+		GlobalVar.connectionPool.written(systemId);
 		String scheduleTable = "schedule_" + systemId;
-		String recipientTable = "sch_recipient_" + systemId.toLowerCase() + "_" + batchId;
-
-		// 1. Mark schedule entry as finished (recommended) OR delete it
+		// Mark schedule entry as finished
 		String updateSql = "UPDATE " + scheduleTable + " SET status = 'FINISHED' WHERE batch_id = ?";
-
-		// 2. Drop recipient table if exists
-		String dropSql = "DROP TABLE IF EXISTS " + recipientTable;
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
-
-			// ---------- Update Schedule Table ----------
-			try (PreparedStatement ps = connection.prepareStatement(updateSql)) {
-				ps.setString(1, batchId);
-				int rows = ps.executeUpdate();
-				logger.info("Updated schedule entry, affected rows: {}", rows);
-			} catch (SQLException e) {
-				logger.error("Error updating schedule entry for table {}", scheduleTable, e);
-			}
-
-			// ---------- Drop Recipient Table ----------
-			try (PreparedStatement ps = connection.prepareStatement(dropSql)) {
-				ps.executeUpdate();
-				logger.info("Dropped recipient table: {}", recipientTable);
-			} catch (SQLException e) {
-				logger.error("Error dropping recipient table {}", recipientTable, e);
-			}
-
-		} catch (SQLException e) {
-			logger.error("SQL error creating DB connection", e);
-		}
-	}
-
-	public void addUserInboxPartition() {
-		String sql = "SHOW TABLES LIKE 'inbox_%'";
-		logger.info("SQL: {}", sql);
-
-		Set<String> tables = new HashSet<>();
 		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement(sql);
-				ResultSet rs = statement.executeQuery()) {
-
-			while (rs.next()) {
-				tables.add(rs.getString(1));
-			}
-			logger.info("Tables found: {}", tables.size());
-		} catch (SQLException e) {
-			logger.error("SQL error in Tables list", e);
-			return;
-		}
-
-		// Tomorrow partition parameters
-		String nextPartitionName = "p" + LocalDate.now().plusDays(1).format(DateTimeFormatter.ofPattern("yyMMdd"));
-
-		String nextPartitionValue = LocalDate.now().plusDays(2).format(DateTimeFormatter.ofPattern("yyMMdd"));
-
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
-			for (String table : tables) {
-
-				// 1) Check if the partition already exists
-				String checkSql = "SELECT PARTITION_NAME FROM INFORMATION_SCHEMA.PARTITIONS "
-						+ "WHERE TABLE_SCHEMA = DATABASE() AND TABLE_NAME = ? AND PARTITION_NAME = ?";
-				try (PreparedStatement ps = connection.prepareStatement(checkSql)) {
-					ps.setString(1, table);
-					ps.setString(2, nextPartitionName);
-
-					try (ResultSet rs = ps.executeQuery()) {
-						if (rs.next()) {
-							logger.info("Partition {} already exists on {}", nextPartitionName, table);
-							continue; // skip
-						}
-					}
-				}
-
-				// 2) Drop pmax partition (needed before adding new partition)
-				String dropMax = "ALTER TABLE " + table + " DROP PARTITION pmax";
-				logger.info("Dropping pmax on {}", table);
-
-				try (PreparedStatement ps = connection.prepareStatement(dropMax)) {
-					ps.execute();
-				} catch (SQLException e) {
-					logger.warn("pmax drop failed on {} (maybe already dropped)", table);
-				}
-
-				// 3) Add new next-day partition
-				String addPartitionSql = "ALTER TABLE " + table + " ADD PARTITION (PARTITION " + nextPartitionName
-						+ " VALUES LESS THAN (" + nextPartitionValue + "))";
-
-				logger.info("Adding partition {} to {}", nextPartitionName, table);
-				try (PreparedStatement ps = connection.prepareStatement(addPartitionSql)) {
-					ps.execute();
-				}
-
-				// 4) Re-add pmax partition
-				String addMaxSql = "ALTER TABLE " + table
-						+ " ADD PARTITION (PARTITION pmax VALUES LESS THAN (MAXVALUE))";
-
-				logger.info("Re-adding pmax on {}", table);
-				try (PreparedStatement ps = connection.prepareStatement(addMaxSql)) {
-					ps.execute();
-				}
-
-				logger.info("Partition {} added successfully to {}", nextPartitionName, table);
-			}
+				PreparedStatement ps = connection.prepareStatement(updateSql)) {
+			ps.setString(1, batchId);
+			int rows = ps.executeUpdate();
+			logger.info("Updated schedule entry, affected rows: {}", rows);
 		} catch (SQLException e) {
-			logger.error("SQL error when adding partition", e);
+			logger.error("Error updating schedule entry for table {}", scheduleTable, e);
 		}
+		batchRegistry.updateStatus(BatchRegistry.SCHEDULE, systemId, batchId, "FINISHED");
+		recipientStore.deleteScheduled(systemId, batchId);
 	}
 
 }
@@ -8,113 +8,70 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
+import java.util.List;
 
-import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import com.hti.entity.ReportEntry;
+import com.hti.database.ConnectionPool.Workload;
 import com.hti.service.SingletonService;
 import com.hti.util.GlobalVar;
-import com.hti.util.Queue;
+import com.hti.util.MpscQueue.OverflowPolicy;
+import com.hti.util.QueueWriter;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
 
-public class InboxService implements Runnable {
+public class InboxService extends QueueWriter<InboxService.InboxEntry> {
 
-	private Logger logger = LoggerFactory.getLogger(InboxService.class);
-	private boolean stop;
-	private Queue processQueue;
 	private String systemId;
 	private String table_name = null;
-	// private long lastActiveTime;
-	// private static final long IDLE_TIMEOUT = 600_000; // 10 minutes
+	private boolean tablePrepared;
 
 	public InboxService(String systemId) {
-		logger.info(systemId + "_InboxInsert thread starting");
+		super(systemId + "_InboxInsert", OverflowPolicy.BLOCK, 0);
+		this.logger = LoggerFactory.getLogger(InboxService.class);
 		this.systemId = systemId;
-		this.processQueue = new Queue();
-		// this.lastActiveTime = System.currentTimeMillis(); // reset idle timer
 		this.table_name = "inbox_" + systemId;
-		new Thread(this, systemId + "_InboxInsert").start();
-	}
-
-	public void submit(ReportEntry entry) {
-		processQueue.enqueue(entry);
 	}
 
 	@Override
-	public void run() {
-		checkTable();
-		while (!stop) {
-			if (processQueue.isEmpty()) {
-				/*
-				 * long idleFor = System.currentTimeMillis() - lastActiveTime; if (idleFor >
-				 * IDLE_TIMEOUT) { logger.info(systemId +
-				 * "_InboxInsert Idle timeout. Auto-stopping.");
-				 * SingletonService.removeUserInboxService(systemId); // remove from cache
-				 * break; }
-				 */
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-				}
-				continue;
-			}
-			// lastActiveTime = System.currentTimeMillis();
-			logger.info("processQueue: " + processQueue.size());
-			InboxEntry entry = null;
-			try (Connection connection = GlobalVar.connectionPool.getConnection();
-					PreparedStatement statement = connection.prepareStatement("INSERT IGNORE INTO " + table_name
-							+ " (msg_id, smtp_id,uid, email_user, from_email, subject, body, attachments, received_on) "
-							+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
-
-				connection.setAutoCommit(false);
-				int count = 0;
-
-				while (!processQueue.isEmpty()) {
-					entry = (InboxEntry) processQueue.dequeue();
-
-					statement.setString(1, entry.getMessageId());
-					statement.setInt(2, entry.getSmtpId());
-					statement.setLong(3, entry.getUid());
-					statement.setString(4, entry.getEmailUser());
-					statement.setString(5, entry.getFrom());
-					statement.setString(6, entry.getSubject());
-					statement.setString(7, entry.getBody());
-					statement.setString(8, entry.getAttachments());
-					statement.setTimestamp(9, entry.getReceivedOn());
-					statement.addBatch();
-					if (++count > GlobalVar.JDBC_BATCH_SIZE) {
-						break;
-					}
-				}
-
-				if (count > 0) {
-					int[] executed = statement.executeBatch();
-					connection.commit();
-					logger.info("Executed: " + executed.length);
-				}
-
-			} catch (SQLException e) {
-				logger.error(systemId, e);
-			} catch (Exception e) {
-				logger.error(systemId, e);
+	protected void write(List<InboxEntry> batch) {
+		if (!tablePrepared) {
+			// on the writer thread, the listener creating this service does not wait on DDL
+			tablePrepared = checkTable() && new PartitionManager().ensure(table_name);
+		}
+		logger.info("processQueue: " + processQueue.size());
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement("INSERT IGNORE INTO " + table_name
+						+ " (msg_id, smtp_id,uid, email_user, from_email, subject, body, attachments, received_on) "
+						+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+			connection.setAutoCommit(false);
+			for (InboxEntry entry : batch) {
+				statement.setString(1, entry.getMessageId());
+				statement.setInt(2, entry.getSmtpId());
+				statement.setLong(3, entry.getUid());
+				statement.setString(4, entry.getEmailUser());
+				statement.setString(5, entry.getFrom());
+				statement.setString(6, entry.getSubject());
+				statement.setString(7, entry.getBody());
+				statement.setString(8, entry.getAttachments());
+				statement.setTimestamp(9, entry.getReceivedOn());
+				statement.addBatch();
 			}
-
+			int[] executed = statement.executeBatch();
+			connection.commit();
+			logger.info("Executed: " + executed.length);
+		} catch (SQLException e) {
+			logger.error(systemId, e);
+		} catch (Exception e) {
+			logger.error(systemId, e);
 		}
-		logger.info(systemId + "_InboxInsert Stopped.Queue:" + processQueue.size());
-	}
-
-	public void stop() {
-		logger.info(systemId + "_InboxInsert Stopping.Queue:" + processQueue.size());
-		stop = true;
 	}
 
 	private boolean checkTable() {
 		boolean tableExists = false;
 
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE)) {
 			DatabaseMetaData meta = connection.getMetaData();
 			try (ResultSet rs = meta.getTables(null, null, table_name, null)) {
 				if (rs.next()) {
@@ -182,15 +139,14 @@ public class InboxService implements Runnable {
 
 	public void insertEmail(int smtpId, long uid, String emailUser, String messageId, String from, String subject,
 			String body, Timestamp timestamp, String jsonFileNames) {
-		processQueue.enqueue(
-				new InboxEntry(smtpId, uid, emailUser, messageId, from, subject, body, timestamp, jsonFileNames));
+		submit(new InboxEntry(smtpId, uid, emailUser, messageId, from, subject, body, timestamp, jsonFileNames));
 
 	}
 
 	public long getLastUid(int smtpId) {
 		long lastUid = 0;
 		String sql = "SELECT uid FROM " + table_name + " WHERE smtp_id = ? " + " ORDER BY received_on DESC LIMIT 1";
-		try (Connection conn = GlobalVar.connectionPool.getConnection();
+		try (Connection conn = GlobalVar.connectionPool.getConnection(Workload.READ);
 				PreparedStatement ps = conn.prepareStatement(sql)) {
 
 			ps.setInt(1, smtpId);
@@ -210,7 +166,7 @@ public class InboxService implements Runnable {
 
 	@Data
 	@AllArgsConstructor
-	private class InboxEntry {
+	static class InboxEntry {
 		private int smtpId;
 		private long uid;
 		private String emailUser;
@@ -0,0 +1,271 @@
+package com.hti.database.service;
+
+import java.io.File;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.mapdb.Atomic;
+import org.mapdb.BTreeMap;
+import org.mapdb.DB;
+import org.mapdb.DBMaker;
+import org.mapdb.Serializer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.entity.RecipientsEntry;
+import com.hti.process.DlrForwarder;
+import com.hti.util.GlobalVar;
+
+/**
+ * Local MapDB spool between the senders and the database and webhook writers,
+ * kept in {@link GlobalVar#SPOOL_DIR}. It holds:
+ * <ul>
+ * <li>the sent-ledger, flags of recipients that are not yet written to the
+ * recipient store. A cursor skips recipients found here, so a batch resumed
+ * after a crash or a database outage does not send them again.</li>
+ * <li>a journal per kind of record (reports, webhooks) removed once the record
+ * is written. Records whose write failed are replayed every
+ * {@link GlobalVar#SPOOL_REPLAY_INTERVAL} and at startup.</li>
+ * </ul>
+ * Changes are made durable by one commit every
+ * {@link GlobalVar#SPOOL_COMMIT_INTERVAL}, the send path never waits for it.
+ */
+public class LocalSpool implements Runnable {
+
+	public enum Kind {
+		REPORT, WEBHOOK
+	}
+
+	private static LocalSpool instance;
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+	private DB db;
+	// "systemId batchId msgId" -> flag
+	private BTreeMap<String, String> ledger;
+	private Map<Kind, BTreeMap<Long, String>> journals = new LinkedHashMap<Kind, BTreeMap<Long, String>>();
+	private Atomic.Long sequence;
+	// journal records queued to a writer, not to be replayed
+	private Set<Long> inFlight = ConcurrentHashMap.newKeySet();
+	private volatile boolean ledgerFailed;
+	private RecipientStore recipientStore = new RecipientStore();
+	private volatile boolean stop;
+	private Thread thread;
+
+	private LocalSpool() {
+		File dir = new File(GlobalVar.SPOOL_DIR);
+		if (!dir.exists()) {
+			dir.mkdirs();
+		}
+		this.db = DBMaker.fileDB(new File(dir, "spool.db")).fileMmapEnableIfSupported().transactionEnable().make();
+		this.ledger = db.treeMap("sent_ledger", Serializer.STRING, Serializer.STRING).createOrOpen();
+		for (Kind kind : Kind.values()) {
+			journals.put(kind, db.treeMap("journal_" + kind.name().toLowerCase(), Serializer.LONG, Serializer.STRING)
+					.createOrOpen());
+		}
+		this.sequence = db.atomicLong("sequence").createOrOpen();
+		this.ledgerFailed = !ledger.isEmpty();
+		logger.info("Local Spool Opened. Ledger: " + ledger.size() + " Reports: " + journals.get(Kind.REPORT).size()
+				+ " Webhooks: " + journals.get(Kind.WEBHOOK).size());
+		this.thread = new Thread(this, "LocalSpool");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public static synchronized LocalSpool getInstance() {
+		if (instance == null) {
+			instance = new LocalSpool();
+		}
+		return instance;
+	}
+
+	/**
+	 * Commits and closes the spool, called after the writers have stopped.
+	 */
+	public static void shutdown() {
+		LocalSpool spool;
+		synchronized (LocalSpool.class) {
+			spool = instance;
+			instance = null;
+		}
+		if (spool != null) {
+			spool.stop = true;
+			spool.thread.interrupt();
+			try {
+				spool.thread.join(5000);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			spool.db.commit();
+			spool.db.close();
+			spool.logger.info("Local Spool Closed");
+		}
+	}
+
+	/**
+	 * Writes the flags left in the ledger by the previous run before pending
+	 * batches are loaded, and queues the journal records for replay.
+	 */
+	public void recover() {
+		replayLedger();
+		replayJournals();
+	}
+
+	private static String key(String systemId, String batchId, String msgId) {
+		return systemId + " " + batchId + " " + msgId;
+	}
+
+	public void flagged(String systemId, String batchId, RecipientsEntry entry) {
+		ledger.put(key(systemId, batchId, entry.getMsgId()), entry.getFlag());
+	}
+
+	/**
+	 * Flags written to the recipient store. A flag changed again meanwhile is
+	 * kept.
+	 */
+	public void flagsWritten(String systemId, String batchId, Collection<RecipientsEntry> entries) {
+		for (RecipientsEntry entry : entries) {
+			ledger.remove(key(systemId, batchId, entry.getMsgId()), entry.getFlag());
+		}
+	}
+
+	/**
+	 * Flags could not be written, the ledger is written by the next replay.
+	 */
+	public void flagsFailed() {
+		ledgerFailed = true;
+	}
+
+	/**
+	 * If the recipient was handled and its flag is not written yet.
+	 */
+	public boolean isFlagged(String systemId, String batchId, String msgId) {
+		return ledger.containsKey(key(systemId, batchId, msgId));
+	}
+
+	/**
+	 * Adds a record to the journal of its kind.
+	 *
+	 * @return sequence of the record, passed to {@link #done(Kind, long)} once it
+	 *         is written.
+	 */
+	public long append(Kind kind, String record) {
+		long seq = sequence.incrementAndGet();
+		inFlight.add(seq);
+		journals.get(kind).put(seq, record);
+		return seq;
+	}
+
+	public void done(Kind kind, long seq) {
+		journals.get(kind).remove(seq);
+		inFlight.remove(seq);
+	}
+
+	public void done(Kind kind, Collection<Long> seqs) {
+		for (Long seq : seqs) {
+			done(kind, seq);
+		}
+	}
+
+	/**
+	 * The record was not written, it is replayed later.
+	 */
+	public void failed(long seq) {
+		inFlight.remove(seq);
+	}
+
+	/**
+	 * The record was not written, it is replayed later with the given content.
+	 */
+	public void failed(Kind kind, long seq, String record) {
+		journals.get(kind).replace(seq, record);
+		inFlight.remove(seq);
+	}
+
+	public void failed(Collection<Long> seqs) {
+		inFlight.removeAll(seqs);
+	}
+
+	@Override
+	public void run() {
+		logger.info("Local Spool Started");
+		long replayOn = System.currentTimeMillis() + GlobalVar.SPOOL_REPLAY_INTERVAL;
+		while (!stop) {
+			try {
+				Thread.sleep(GlobalVar.SPOOL_COMMIT_INTERVAL);
+			} catch (InterruptedException e) {
+				// stop requested
+			}
+			try {
+				db.commit();
+				if (!stop && System.currentTimeMillis() >= replayOn) {
+					replayOn = System.currentTimeMillis() + GlobalVar.SPOOL_REPLAY_INTERVAL;
+					if (ledgerFailed) {
+						replayLedger();
+					}
+					replayJournals();
+				}
+			} catch (Exception e) {
+				logger.error("Local Spool Error", e);
+			}
+		}
+		logger.info("Local Spool Stopped");
+	}
+
+	private void replayLedger() {
+		ledgerFailed = false;
+		Map<String, List<RecipientsEntry>> batches = new LinkedHashMap<String, List<RecipientsEntry>>();
+		for (Map.Entry<String, String> entry : ledger.entrySet()) {
+			String[] key = entry.getKey().split(" ");
+			batches.computeIfAbsent(key[0] + " " + key[1], k -> new ArrayList<RecipientsEntry>())
+					.add(new RecipientsEntry(key[2], null, entry.getValue()));
+		}
+		for (Map.Entry<String, List<RecipientsEntry>> batch : batches.entrySet()) {
+			String[] key = batch.getKey().split(" ");
+			try {
+				recipientStore.updateFlags(key[0], key[1], batch.getValue());
+				flagsWritten(key[0], key[1], batch.getValue());
+				logger.info(key[0] + "[" + key[1] + "] Spooled Flags Written: " + batch.getValue().size());
+			} catch (SQLException e) {
+				logger.error(key[0] + "[" + key[1] + "] Spooled Flags Not Written: " + batch.getValue().size(), e);
+				ledgerFailed = true;
+			}
+		}
+	}
+
+	private void replayJournals() {
+		int replayed = 0;
+		for (Map.Entry<Kind, BTreeMap<Long, String>> journal : journals.entrySet()) {
+			for (Map.Entry<Long, String> record : journal.getValue().entrySet()) {
+				if (inFlight.add(record.getKey())) {
+					replay(journal.getKey(), record.getKey(), record.getValue());
+					replayed++;
+				}
+			}
+		}
+		if (replayed > 0) {
+			logger.info("Spooled Records Replayed: " + replayed);
+		}
+	}
+
+	private void replay(Kind kind, long seq, String record) {
+		try {
+			switch (kind) {
+			case REPORT:
+				ReportService.replay(seq, record);
+				break;
+			case WEBHOOK:
+				DlrForwarder.replay(seq, record);
+				break;
+			}
+		} catch (Exception e) {
+			logger.error("Invalid Spooled " + kind + " Record Dropped: " + record, e);
+			done(kind, seq);
+		}
+	}
+
+}
@@ -0,0 +1,253 @@
+package com.hti.database.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.database.ConnectionPool.Workload;
+import com.hti.util.GlobalVar;
+
+/**
+ * Daily range partitions (p&lt;yyMMdd&gt; VALUES LESS THAN next day) of the
+ * report_* and inbox_* tables. Partitions for today and the next
+ * {@link GlobalVar#PARTITION_DAYS_AHEAD} days are split out of pmax with one
+ * REORGANIZE PARTITION, so there is no moment without a partition for new rows.
+ * Partitions older than the retention of the user are dropped, after being
+ * exchanged into an archive_&lt;table&gt;_&lt;partition&gt; table if
+ * {@link GlobalVar#PARTITION_ARCHIVE} is set. Tables are processed on up to
+ * {@link GlobalVar#PARTITION_THREADS} threads.
+ */
+public class PartitionManager {
+
+	private static final DateTimeFormatter PARTITION_FORMAT = DateTimeFormatter.ofPattern("yyMMdd");
+	private static final String MAX_PARTITION = "pmax";
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+
+	/**
+	 * Creates the partitions ahead and drops the expired ones on all report and
+	 * inbox tables.
+	 */
+	public void maintain() {
+		Map<String, List<String[]>> tables = listPartitions(null);
+		if (tables.isEmpty()) {
+			return;
+		}
+		logger.info("Partition Maintenance Of " + tables.size() + " Tables");
+		long start = System.currentTimeMillis();
+		AtomicInteger failed = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(GlobalVar.PARTITION_THREADS, tables.size())), r -> {
+					Thread thread = new Thread(r, "PartitionManager");
+					thread.setDaemon(true);
+					return thread;
+				});
+		for (Map.Entry<String, List<String[]>> table : tables.entrySet()) {
+			executor.submit(() -> {
+				if (!maintain(table.getKey(), table.getValue(), true)) {
+					failed.incrementAndGet();
+				}
+			});
+		}
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(1, TimeUnit.HOURS)) {
+				executor.shutdownNow();
+			}
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+		logger.info("Partition Maintenance Finished In " + (System.currentTimeMillis() - start) + " ms. Failed Tables: "
+				+ failed.get());
+	}
+
+	/**
+	 * Makes sure the table has partitions for today and the days ahead, called
+	 * when a writer of the table starts.
+	 */
+	public boolean ensure(String table) {
+		List<String[]> partitions = listPartitions(table).get(table);
+		return partitions == null || maintain(table, partitions, false);
+	}
+
+	/**
+	 * @param partitions [name, upper bound] in partition order.
+	 */
+	private boolean maintain(String table, List<String[]> partitions, boolean retention) {
+		if (!MAX_PARTITION.equals(partitions.get(partitions.size() - 1)[0])) {
+			logger.warn(table + " Has No " + MAX_PARTITION + " Partition, Skipped");
+			return true;
+		}
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE)) {
+			addAhead(connection, table, partitions);
+			if (retention) {
+				dropExpired(connection, table, partitions);
+			}
+			return true;
+		} catch (SQLException e) {
+			logger.error(table + " Partition Maintenance Failed", e);
+			return false;
+		}
+	}
+
+	private void addAhead(Connection connection, String table, List<String[]> partitions) throws SQLException {
+		LocalDate last = LocalDate.now().plusDays(Math.max(0, GlobalVar.PARTITION_DAYS_AHEAD));
+		LocalDate day = LocalDate.now();
+		if (partitions.size() > 1) {
+			// the day after the last daily partition, even if runs were missed
+			LocalDate next = LocalDate.parse(partitions.get(partitions.size() - 2)[1], PARTITION_FORMAT);
+			if (next.isAfter(day)) {
+				day = next;
+			}
+		}
+		if (day.isAfter(last)) {
+			return;
+		}
+		StringBuilder sql = new StringBuilder("ALTER TABLE " + table + " REORGANIZE PARTITION " + MAX_PARTITION
+				+ " INTO (");
+		int added = 0;
+		for (; !day.isAfter(last); day = day.plusDays(1)) {
+			sql.append("PARTITION p").append(day.format(PARTITION_FORMAT)).append(" VALUES LESS THAN (")
+					.append(day.plusDays(1).format(PARTITION_FORMAT)).append("), ");
+			added++;
+		}
+		sql.append("PARTITION " + MAX_PARTITION + " VALUES LESS THAN MAXVALUE)");
+		try (PreparedStatement statement = connection.prepareStatement(sql.toString())) {
+			statement.execute();
+		}
+		logger.info(table + " Partitions Added: " + added + " Up To p" + last.format(PARTITION_FORMAT));
+	}
+
+	private void dropExpired(Connection connection, String table, List<String[]> partitions) throws SQLException {
+		int retentionDays = getRetentionDays(table);
+		if (retentionDays <= 0) {
+			return; // kept forever
+		}
+		String cutoff = LocalDate.now().minusDays(retentionDays).format(PARTITION_FORMAT);
+		List<String> expired = new ArrayList<String>();
+		// pmax is last and never expires
+		for (int i = 0; i < partitions.size() - 1; i++) {
+			if (partitions.get(i)[1].compareTo(cutoff) <= 0) {
+				expired.add(partitions.get(i)[0]);
+			}
+		}
+		if (expired.isEmpty()) {
+			return;
+		}
+		if (GlobalVar.PARTITION_ARCHIVE) {
+			for (String partition : expired) {
+				archive(connection, table, partition);
+			}
+		}
+		try (PreparedStatement statement = connection
+				.prepareStatement("ALTER TABLE " + table + " DROP PARTITION " + String.join(", ", expired))) {
+			statement.execute();
+		}
+		logger.info(table + " Expired Partitions Dropped: " + expired + " Retention: " + retentionDays + " Days");
+	}
+
+	/**
+	 * Moves the rows of a partition into a table of their own with EXCHANGE
+	 * PARTITION, leaving the partition empty. Each step checks the state left by
+	 * an earlier run that failed halfway, so it can be repeated.
+	 */
+	private void archive(Connection connection, String table, String partition) throws SQLException {
+		String archive = "archive_" + table + "_" + partition;
+		if (!tableExists(connection, archive)) {
+			execute(connection, "CREATE TABLE " + archive + " LIKE " + table);
+		}
+		if (isPartitioned(connection, archive)) {
+			execute(connection, "ALTER TABLE " + archive + " REMOVE PARTITIONING");
+		}
+		if (!hasRows(connection, table + " PARTITION (" + partition + ")")) {
+			// already exchanged by a run whose drop failed, exchanging again would bring the rows back
+			logger.info(table + " Partition " + partition + " Empty, Already Archived To " + archive);
+			return;
+		}
+		if (hasRows(connection, archive)) {
+			throw new SQLException(archive + " Is Not Empty, " + table + " Partition " + partition + " Kept");
+		}
+		execute(connection, "ALTER TABLE " + table + " EXCHANGE PARTITION " + partition + " WITH TABLE " + archive);
+		logger.info(table + " Partition " + partition + " Archived To " + archive);
+	}
+
+	private boolean hasRows(Connection connection, String source) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement("SELECT 1 FROM " + source + " LIMIT 1");
+				ResultSet rs = statement.executeQuery()) {
+			return rs.next();
+		}
+	}
+
+	private boolean tableExists(Connection connection, String table) throws SQLException {
+		return exists(connection, "SELECT 1 FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() "
+				+ "AND TABLE_NAME = ?", table);
+	}
+
+	private boolean isPartitioned(Connection connection, String table) throws SQLException {
+		return exists(connection, "SELECT 1 FROM INFORMATION_SCHEMA.PARTITIONS WHERE TABLE_SCHEMA = DATABASE() "
+				+ "AND TABLE_NAME = ? AND PARTITION_NAME IS NOT NULL", table);
+	}
+
+	private boolean exists(Connection connection, String sql, String table) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, table);
+			try (ResultSet rs = statement.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private void execute(Connection connection, String sql) throws SQLException {
+		try (PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.execute();
+		}
+	}
+
+	private int getRetentionDays(String table) {
+		String systemId = table.substring(table.indexOf('_') + 1);
+		return GlobalVar.PARTITION_RETENTION_DAYS_BY_USER.getOrDefault(systemId.toLowerCase(),
+				GlobalVar.PARTITION_RETENTION_DAYS);
+	}
+
+	/**
+	 * Partitions [name, upper bound] of the given table, or of all report and
+	 * inbox tables if null, keyed by table in partition order.
+	 */
+	private Map<String, List<String[]>> listPartitions(String table) {
+		Map<String, List<String[]>> tables = new LinkedHashMap<String, List<String[]>>();
+		String sql = "SELECT TABLE_NAME, PARTITION_NAME, PARTITION_DESCRIPTION FROM INFORMATION_SCHEMA.PARTITIONS "
+				+ "WHERE TABLE_SCHEMA = DATABASE() AND PARTITION_NAME IS NOT NULL AND "
+				+ (table != null ? "TABLE_NAME = ?" : "(TABLE_NAME LIKE 'report\\_%' OR TABLE_NAME LIKE 'inbox\\_%')")
+				+ " ORDER BY TABLE_NAME, PARTITION_ORDINAL_POSITION";
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			if (table != null) {
+				statement.setString(1, table);
+			}
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					tables.computeIfAbsent(rs.getString(1), k -> new ArrayList<String[]>())
+							.add(new String[] { rs.getString(2), rs.getString(3) });
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("SQL error listing partitions", e);
+		}
+		return tables;
+	}
+
+}
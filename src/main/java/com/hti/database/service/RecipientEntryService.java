@@ -1,99 +1,85 @@
 package com.hti.database.service;
 
-import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
 import java.util.List;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
 import com.hti.entity.RecipientsEntry;
-import com.hti.entity.ReportEntry;
-import com.hti.util.GlobalVar;
-import com.hti.util.Queue;
+import com.hti.util.MpscQueue.OverflowPolicy;
+import com.hti.util.QueueWriter;
 
-public class RecipientEntryService implements Runnable {
+public class RecipientEntryService extends QueueWriter<RecipientsEntry> {
 
-	private Logger logger = LoggerFactory.getLogger("dbLogger");
-	private boolean stop;
-	private Queue processQueue;
 	private String systemId;
-	private String table_name = null;
-	private boolean drop;
+	private String batchId;
+	private RecipientStore recipientStore = new RecipientStore();
+	private volatile boolean drop;
 
-	public RecipientEntryService(String systemId, String batchId, Queue processQueue) {
-		this.table_name = "recipient_" + systemId + "_" + batchId;
-		logger.info(table_name + "_RecipientEntryService thread starting");
+	public RecipientEntryService(String systemId, String batchId) {
+		super("recipient_" + systemId + "_" + batchId + "_RecipientEntryService", OverflowPolicy.BLOCK, 0);
 		this.systemId = systemId;
-		this.processQueue = processQueue;
-		new Thread(this, table_name + "_RecipientEntryService").start();
+		this.batchId = batchId;
 	}
 
+	/**
+	 * Queues the flag of a recipient, noted in the sent-ledger of the
+	 * {@link LocalSpool} until it is written.
+	 */
 	@Override
-	public void run() {
-		while (!stop) {
-			if (processQueue.isEmpty()) {
-				try {
-					Thread.sleep(GlobalVar.QUEUE_WAIT_TIME);
-				} catch (InterruptedException e) {
-				}
-				continue;
-			}
-			logger.info("processQueue: " + processQueue.size());
-			try (Connection connection = GlobalVar.connectionPool.getConnection();
-					PreparedStatement statement = connection
-							.prepareStatement("UPDATE " + table_name + " set flag=? where msg_id = ?")) {
-				connection.setAutoCommit(false);
-				int count = 0;
-
-				while (!processQueue.isEmpty()) {
-					RecipientsEntry entry = (RecipientsEntry) processQueue.dequeue();
-					statement.setString(1, entry.getFlag());
-					statement.setString(2, entry.getMsgId());
-					statement.addBatch();
-					if (++count > GlobalVar.JDBC_BATCH_SIZE) {
-						break;
-					}
-				}
-				if (count > 0) {
-					int[] executed = statement.executeBatch();
-					connection.commit();
-					logger.info("Executed: " + executed.length);
-				}
-
-			} catch (SQLException e) {
-				logger.error(systemId, e);
-			} catch (Exception e) {
-				logger.error(systemId, e);
-			}
+	public boolean submit(RecipientsEntry entry) {
+		LocalSpool.getInstance().flagged(systemId, batchId, entry);
+		return super.submit(entry);
+	}
 
+	/**
+	 * Queues the R flag of a recipient whose retry row is saved, which may happen
+	 * after the batch stopped. The flag is then written by the spool replay.
+	 */
+	public void submitRetry(RecipientsEntry entry) {
+		submit(entry);
+		if (isStopped()) {
+			LocalSpool.getInstance().flagsFailed();
 		}
-		if (drop) {
-			dropTable();
-		}
-		logger.info(table_name + "_RecipientEntryService Stopped.Queue:" + processQueue.size());
 	}
 
-	private void dropTable() {
-		logger.info(table_name + " Drop Command Received");
-		try (Connection connection = GlobalVar.connectionPool.getConnection();
-				PreparedStatement statement = connection.prepareStatement("DROP TABLE IF EXISTS " + table_name)) {
-			statement.execute();
-			logger.info(table_name + " Table Drop Success.");
+	@Override
+	protected void write(List<RecipientsEntry> batch) {
+		logger.info("processQueue: " + processQueue.size());
+		try {
+			recipientStore.updateFlags(systemId, batchId, batch);
+			LocalSpool.getInstance().flagsWritten(systemId, batchId, batch);
+			logger.info("Executed: " + batch.size());
+			BatchProgress.Counter progress = BatchProgress.getInstance().get(systemId, batchId);
+			if (progress != null) {
+				for (RecipientsEntry entry : batch) {
+					if ("T".equals(entry.getFlag())) {
+						progress.sent();
+					} else if ("E".equals(entry.getFlag())) {
+						progress.failed();
+					}
+				}
+			}
 		} catch (SQLException e) {
-			logger.error(systemId, e);
+			logger.error(systemId + "[" + batchId + "] " + batch.size() + " Flags Left In Spool", e);
+			LocalSpool.getInstance().flagsFailed();
 		} catch (Exception e) {
 			logger.error(systemId, e);
 		}
 	}
 
+	@Override
+	protected void onStopped() {
+		// flags queued before the processor stopped are written by now
+		if (drop) {
+			logger.info(systemId + "[" + batchId + "] Delete Command Received");
+			recipientStore.deleteBatch(systemId, batchId);
+		}
+		BatchProgress.getInstance().close(systemId, batchId);
+		super.onStopped();
+	}
+
 	public void stop(boolean drop) {
-		logger.info(table_name + "_RecipientEntryService Stopping.Queue:" + processQueue.size());
 		this.drop = drop;
-		stop = true;
+		stop();
 	}
 
 }
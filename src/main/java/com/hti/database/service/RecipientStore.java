@@ -0,0 +1,378 @@
+package com.hti.database.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.database.ConnectionPool.Workload;
+import com.hti.entity.RecipientsEntry;
+import com.hti.util.GlobalVar;
+
+/**
+ * Data access to the recipient_store table holding the recipients of all
+ * batches and schedules, keyed by (system_id, batch_id, msg_id). Flags are F
+ * (pending), T (sent), E (failed), R (waiting for retry) and S (scheduled, not
+ * yet given a msg_id). Batches no longer create and drop tables: their rows are
+ * inserted and removed with chunked deletes. Recipient tables of batches created
+ * before the store are copied into it once at startup.
+ */
+public class RecipientStore {
+
+	private static final String TABLE = "recipient_store";
+	private static final int DELETE_CHUNK_SIZE = 10000;
+	private static FlagStats flagStats = new FlagStats();
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+	private BulkInsertService bulkInsertService = new BulkInsertService();
+
+	public void createTable() {
+		String sql = "CREATE TABLE IF NOT EXISTS " + TABLE + " (system_id varchar(15) NOT NULL, "
+				+ "batch_id bigint NOT NULL, msg_id bigint NOT NULL, recipient varchar(100) NOT NULL, "
+				+ "flag char(1) NOT NULL DEFAULT 'F', PRIMARY KEY (system_id, batch_id, msg_id), "
+				+ "KEY idx_pending (system_id, batch_id, flag, msg_id)) ENGINE=InnoDB";
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.executeUpdate();
+		} catch (SQLException e) {
+			logger.error("SQL error creating " + TABLE, e);
+		}
+	}
+
+	public boolean saveRecipients(String systemId, String batchId, List<RecipientsEntry> list) {
+		return bulkInsertService.insert(TABLE, "system_id, batch_id, msg_id, recipient", 4, list,
+				(stmt, index, entry) -> {
+					stmt.setString(index, systemId);
+					stmt.setString(index + 1, batchId);
+					stmt.setString(index + 2, entry.getMsgId());
+					stmt.setString(index + 3, entry.getRecipient());
+				}, false);
+	}
+
+	/**
+	 * Next page of pending recipients ordered by msg_id after the keyset position
+	 * up to toMsgId. Returns null if the page could not be read.
+	 */
+	public List<RecipientsEntry> listPending(String systemId, String batchId, long afterMsgId, long toMsgId,
+			int limit) {
+		String sql = "SELECT msg_id, recipient FROM " + TABLE + " WHERE system_id = ? AND batch_id = ? AND flag = 'F'"
+				+ " AND msg_id > ? AND msg_id <= ? ORDER BY msg_id LIMIT ?";
+		List<RecipientsEntry> list = new ArrayList<RecipientsEntry>();
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			statement.setLong(3, afterMsgId);
+			statement.setLong(4, toMsgId);
+			statement.setInt(5, limit);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					list.add(new RecipientsEntry(rs.getString("msg_id"), rs.getString("recipient")));
+				}
+			}
+			logger.debug("{}[{}] Page after {}: {}", systemId, batchId, afterMsgId, list.size());
+			return list;
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error in pending page", e);
+		}
+		return null;
+	}
+
+	public boolean hasPending(String systemId, String batchId) {
+		String sql = "SELECT EXISTS (SELECT 1 FROM " + TABLE + " WHERE system_id = ? AND batch_id = ? AND flag = 'F')";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			try (ResultSet rs = statement.executeQuery()) {
+				return rs.next() && rs.getBoolean(1);
+			}
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error checking pending recipients", e);
+		}
+		return false;
+	}
+
+	public int countPending(String systemId, String batchId, long afterMsgId, long toMsgId) {
+		String sql = "SELECT count(*) FROM " + TABLE
+				+ " WHERE system_id = ? AND batch_id = ? AND flag = 'F' AND msg_id > ? AND msg_id <= ?";
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			statement.setLong(3, afterMsgId);
+			statement.setLong(4, toMsgId);
+			try (ResultSet rs = statement.executeQuery()) {
+				if (rs.next()) {
+					return rs.getInt(1);
+				}
+			}
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error in pending count", e);
+		}
+		return 0;
+	}
+
+	/**
+	 * [total, sent, failed] counted from the flags of a batch. S rows of a
+	 * schedule left with the same batch_id are not part of the batch.
+	 */
+	public int[] countByFlag(String systemId, String batchId) {
+		int[] counts = new int[3];
+		String sql = "SELECT flag, count(*) FROM " + TABLE
+				+ " WHERE system_id = ? AND batch_id = ? AND flag <> 'S' GROUP BY flag";
+		try (Connection connection = GlobalVar.connectionPool.getReadConnection(systemId);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					int count = rs.getInt(2);
+					counts[0] += count;
+					if ("T".equals(rs.getString(1))) {
+						counts[1] = count;
+					} else if ("E".equals(rs.getString(1))) {
+						counts[2] = count;
+					}
+				}
+			}
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error counting flags", e);
+		}
+		return counts;
+	}
+
+	/**
+	 * Writes the flags of recipients with one UPDATE ... IN statement per flag
+	 * and chunk of {@link GlobalVar#FLAG_UPDATE_CHUNK_SIZE} msg_ids instead of a
+	 * statement per row. Repeated updates of a msg_id are collapsed to the last
+	 * one.
+	 */
+	public void updateFlags(String systemId, String batchId, List<RecipientsEntry> list) throws SQLException {
+		Map<String, String> latest = new LinkedHashMap<String, String>();
+		for (RecipientsEntry entry : list) {
+			latest.put(entry.getMsgId(), entry.getFlag());
+		}
+		Map<String, List<String>> byFlag = new LinkedHashMap<String, List<String>>();
+		latest.forEach((msgId, flag) -> byFlag.computeIfAbsent(flag, k -> new ArrayList<String>()).add(msgId));
+		int chunkSize = Math.max(1, GlobalVar.FLAG_UPDATE_CHUNK_SIZE);
+		long start = System.nanoTime();
+		int statements = 0;
+		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
+			connection.setAutoCommit(false);
+			PreparedStatement full = null;
+			try {
+				for (Map.Entry<String, List<String>> flag : byFlag.entrySet()) {
+					List<String> msgIds = flag.getValue();
+					for (int from = 0; from < msgIds.size(); from += chunkSize) {
+						List<String> chunk = msgIds.subList(from, Math.min(msgIds.size(), from + chunkSize));
+						if (chunk.size() == chunkSize) {
+							if (full == null) {
+								full = connection.prepareStatement(flagUpdateSql(chunkSize));
+							}
+							executeFlagUpdate(full, systemId, batchId, flag.getKey(), chunk);
+						} else {
+							try (PreparedStatement statement = connection
+									.prepareStatement(flagUpdateSql(chunk.size()))) {
+								executeFlagUpdate(statement, systemId, batchId, flag.getKey(), chunk);
+							}
+						}
+						statements++;
+					}
+				}
+			} finally {
+				if (full != null) {
+					full.close();
+				}
+			}
+			connection.commit();
+		}
+		flagStats.record(latest.size(), statements, System.nanoTime() - start);
+	}
+
+	private static String flagUpdateSql(int size) {
+		StringBuilder sql = new StringBuilder("UPDATE " + TABLE
+				+ " SET flag = ? WHERE system_id = ? AND batch_id = ? AND msg_id IN (?");
+		for (int i = 1; i < size; i++) {
+			sql.append(",?");
+		}
+		return sql.append(")").toString();
+	}
+
+	private static void executeFlagUpdate(PreparedStatement statement, String systemId, String batchId,
+			String flag, List<String> msgIds) throws SQLException {
+		statement.setString(1, flag);
+		statement.setString(2, systemId);
+		statement.setString(3, batchId);
+		int index = 4;
+		for (String msgId : msgIds) {
+			statement.setString(index++, msgId);
+		}
+		statement.executeUpdate();
+	}
+
+	/**
+	 * Removes all rows of a batch or schedule in chunks, so that a large batch
+	 * does not hold locks for the whole delete.
+	 */
+	public void deleteBatch(String systemId, String batchId) {
+		deleteRows(systemId, batchId, "");
+	}
+
+	private void deleteRows(String systemId, String batchId, String condition) {
+		String sql = "DELETE FROM " + TABLE + " WHERE system_id = ? AND batch_id = ?" + condition + " LIMIT "
+				+ DELETE_CHUNK_SIZE;
+		int total = 0;
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			int rows;
+			do {
+				rows = statement.executeUpdate();
+				total += rows;
+			} while (rows >= DELETE_CHUNK_SIZE);
+			logger.info(systemId + "[" + batchId + "] Recipients Deleted: " + total);
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error deleting recipients", e);
+		}
+	}
+
+	/**
+	 * Stores the distinct recipients of a schedule with flag S. They get their
+	 * msg_id when the schedule is executed.
+	 */
+	public boolean saveScheduled(String systemId, String batchId, List<String> recipients) {
+		List<String> distinct = new ArrayList<String>(new LinkedHashSet<String>(recipients));
+		List<Integer> positions = new ArrayList<Integer>(distinct.size());
+		for (int i = 1; i <= distinct.size(); i++) {
+			positions.add(i);
+		}
+		deleteRows(systemId, batchId, " AND flag = 'S'"); // replaces an earlier list
+		return bulkInsertService.insert(TABLE, "system_id, batch_id, msg_id, recipient, flag", 5, positions,
+				(stmt, index, position) -> {
+					stmt.setString(index, systemId);
+					stmt.setString(index + 1, batchId);
+					stmt.setLong(index + 2, position);
+					stmt.setString(index + 3, distinct.get(position - 1));
+					stmt.setString(index + 4, "S");
+				}, false);
+	}
+
+	public List<String> listScheduled(String systemId, String batchId) {
+		List<String> list = new ArrayList<String>();
+		try (Connection connection = GlobalVar.connectionPool.getConnection();
+				PreparedStatement statement = connection.prepareStatement("SELECT recipient FROM " + TABLE
+						+ " WHERE system_id = ? AND batch_id = ? AND flag = 'S' ORDER BY msg_id")) {
+			statement.setString(1, systemId);
+			statement.setString(2, batchId);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					list.add(rs.getString("recipient"));
+				}
+			}
+			logger.info(systemId + "[" + batchId + "] Scheduled Recipients collected: " + list.size());
+		} catch (SQLException e) {
+			logger.error(systemId + "[" + batchId + "] SQL error while fetching Scheduled Recipients", e);
+		}
+		return list;
+	}
+
+	public void deleteScheduled(String systemId, String batchId) {
+		deleteRows(systemId, batchId, " AND flag = 'S'");
+	}
+
+	/**
+	 * Copies the recipient_<system>_<batch> and sch_recipient_<system>_<batch>
+	 * tables created before the store into it and drops them. Run once at
+	 * startup, before pending batches are loaded.
+	 */
+	public void migrateLegacy() {
+		String sql = "SELECT TABLE_NAME FROM INFORMATION_SCHEMA.TABLES WHERE TABLE_SCHEMA = DATABASE() AND "
+				+ "(TABLE_NAME LIKE 'recipient\\_%' OR TABLE_NAME LIKE 'sch\\_recipient\\_%') AND TABLE_NAME <> ?";
+		List<String> legacyTables = new ArrayList<String>();
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE);
+				PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.setString(1, TABLE);
+			try (ResultSet rs = statement.executeQuery()) {
+				while (rs.next()) {
+					legacyTables.add(rs.getString(1));
+				}
+			}
+		} catch (SQLException e) {
+			logger.error("SQL error listing legacy recipient tables", e);
+			return;
+		}
+		for (String legacy : legacyTables) {
+			boolean schedule = legacy.startsWith("sch_");
+			String name = legacy.substring(schedule ? "sch_recipient_".length() : "recipient_".length());
+			int separator = name.lastIndexOf('_');
+			if (separator <= 0) {
+				continue; // not a batch table
+			}
+			String systemId = name.substring(0, separator);
+			String batchId = name.substring(separator + 1);
+			if (!batchId.chars().allMatch(Character::isDigit)) {
+				continue;
+			}
+			if (schedule) {
+				migrate(legacy, "SELECT ?, ?, ROW_NUMBER() OVER (), recipient, 'S' FROM " + legacy, systemId, batchId);
+			} else {
+				migrate(legacy, "SELECT ?, ?, msg_id, recipient, flag FROM " + legacy, systemId, batchId);
+			}
+		}
+	}
+
+	private void migrate(String legacy, String select, String systemId, String batchId) {
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE)) {
+			try (PreparedStatement statement = connection.prepareStatement(
+					"INSERT IGNORE INTO " + TABLE + " (system_id, batch_id, msg_id, recipient, flag) " + select)) {
+				statement.setString(1, systemId);
+				statement.setString(2, batchId);
+				int rows = statement.executeUpdate();
+				logger.info(legacy + " Migrated To " + TABLE + ": " + rows);
+			}
+			try (PreparedStatement statement = connection.prepareStatement("DROP TABLE IF EXISTS " + legacy)) {
+				statement.execute();
+			}
+		} catch (SQLException e) {
+			logger.error(legacy + " Migration Failed", e);
+		}
+	}
+
+	/**
+	 * Rows and statements of flag updates, logged every STATS_INTERVAL with the
+	 * achieved rows/sec.
+	 */
+	private static class FlagStats {
+		private static final long STATS_INTERVAL = 10_000;
+		private final Logger logger = LoggerFactory.getLogger("dbLogger");
+		private long start = System.currentTimeMillis();
+		private long rows;
+		private long statements;
+		private long nanos;
+
+		private synchronized void record(int rows, int statements, long nanos) {
+			this.rows += rows;
+			this.statements += statements;
+			this.nanos += nanos;
+			long now = System.currentTimeMillis();
+			if (now - start >= STATS_INTERVAL) {
+				logger.info("Flag Update: " + (this.rows * 1000 / (now - start)) + " rows/sec, "
+						+ this.statements + " Statements, " + (this.nanos / 1_000_000) + " ms In Database");
+				start = now;
+				this.rows = 0;
+				this.statements = 0;
+				this.nanos = 0;
+			}
+		}
+	}
+
+}
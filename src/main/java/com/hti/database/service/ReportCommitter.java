@@ -0,0 +1,273 @@
+package com.hti.database.service;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.entity.ReportEntry;
+import com.hti.util.GlobalVar;
+import com.hti.util.MpscQueue;
+import com.hti.util.MpscQueue.OverflowPolicy;
+
+/**
+ * Group commit of the report rows of all users. Rows are accumulated across
+ * report tables until the current batch size is reached or
+ * {@link GlobalVar#REPORT_LINGER_TIME} has passed since the first row, then
+ * written on one connection, with a prepared statement kept open per table,
+ * and committed together. The batch size grows while commits stay under
+ * {@link GlobalVar#REPORT_TARGET_LATENCY} and is halved when they exceed it.
+ * The connection and statements are kept across idle polls and only released
+ * after {@link #CONNECTION_IDLE_TIME} without rows or {@link #CONNECTION_MAX_AGE}.
+ * A report table is created and partitioned by the committer before its first
+ * rows are written.
+ */
+public class ReportCommitter implements Runnable {
+
+	private static final long CONNECTION_MAX_AGE = 300_000;
+	private static final long CONNECTION_IDLE_TIME = 60_000;
+	private static final long STATS_INTERVAL = 10_000;
+	private static ReportCommitter instance;
+	private Logger logger = LoggerFactory.getLogger("dbLogger");
+	private MpscQueue<PendingReport> processQueue;
+	private volatile boolean stop;
+	private Thread thread;
+	private int batchSize;
+	private Connection connection;
+	private long connectedOn;
+	private long flushedOn;
+	private Set<String> preparedTables = new HashSet<String>();
+	private Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+	// stats since last log
+	private long statsStart = System.currentTimeMillis();
+	private long statsRows;
+	private long statsFlushes;
+	private long statsLatency;
+
+	private ReportCommitter() {
+		this.processQueue = new MpscQueue<PendingReport>(GlobalVar.QUEUE_CAPACITY, OverflowPolicy.SPILL);
+		this.batchSize = GlobalVar.REPORT_BATCH_MIN;
+		this.thread = new Thread(this, "ReportCommitter");
+		thread.start();
+	}
+
+	public static synchronized ReportCommitter getInstance() {
+		if (instance == null) {
+			instance = new ReportCommitter();
+		}
+		return instance;
+	}
+
+	/**
+	 * Writes the rows still queued and stops the committer.
+	 */
+	public static void shutdown(long timeout, TimeUnit unit) {
+		ReportCommitter committer;
+		synchronized (ReportCommitter.class) {
+			committer = instance;
+			instance = null;
+		}
+		if (committer != null) {
+			committer.stop = true;
+			committer.processQueue.wakeup();
+			try {
+				committer.thread.join(unit.toMillis(timeout));
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * @param seq spool sequence of the row, marked done once committed.
+	 */
+	public void submit(String tableName, ReportEntry entry, long seq) {
+		processQueue.put(new PendingReport(tableName, entry, seq));
+	}
+
+	@Override
+	public void run() {
+		logger.info("Report Committer Started");
+		List<PendingReport> batch = new ArrayList<PendingReport>();
+		while (!stop) {
+			try {
+				if (processQueue.drainTo(batch, batchSize, GlobalVar.QUEUE_WAIT_TIME, TimeUnit.MILLISECONDS) == 0) {
+					if (connection != null && System.currentTimeMillis() - flushedOn > CONNECTION_IDLE_TIME) {
+						release(); // idle
+					}
+					continue;
+				}
+				long lingerUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(GlobalVar.REPORT_LINGER_TIME);
+				long remaining;
+				while (batch.size() < batchSize && (remaining = lingerUntil - System.nanoTime()) > 0) {
+					processQueue.drainTo(batch, batchSize - batch.size(), remaining, TimeUnit.NANOSECONDS);
+				}
+			} catch (InterruptedException e) {
+				break;
+			}
+			flush(batch);
+			batch.clear();
+		}
+		while (processQueue.drainTo(batch, GlobalVar.REPORT_BATCH_MAX) > 0) {
+			flush(batch);
+			batch.clear();
+		}
+		release();
+		logger.info("Report Committer Stopped");
+	}
+
+	private void flush(List<PendingReport> batch) {
+		Map<String, List<PendingReport>> tables = new LinkedHashMap<String, List<PendingReport>>();
+		for (PendingReport pending : batch) {
+			tables.computeIfAbsent(pending.tableName, k -> new ArrayList<PendingReport>()).add(pending);
+		}
+		for (String tableName : tables.keySet()) {
+			if (!preparedTables.contains(tableName) && ReportService.prepareTable(tableName)) {
+				preparedTables.add(tableName);
+			}
+		}
+		flushedOn = System.currentTimeMillis();
+		long start = System.nanoTime();
+		try {
+			for (Map.Entry<String, List<PendingReport>> table : tables.entrySet()) {
+				addBatch(table.getKey(), table.getValue()).executeBatch();
+			}
+			connection.commit();
+			LocalSpool.getInstance().done(LocalSpool.Kind.REPORT, seqs(batch));
+		} catch (SQLException e) {
+			logger.error("Report Group Commit Of " + batch.size() + " Rows Failed, Committing Per Table", e);
+			release();
+			flushPerTable(tables);
+		}
+		long latency = (System.nanoTime() - start) / 1_000_000;
+		adapt(batch.size(), latency);
+	}
+
+	/**
+	 * Fallback after a failed group commit so that one bad table does not lose
+	 * the rows of the others. Rows of a failed table stay spooled and are replayed
+	 * later.
+	 */
+	private void flushPerTable(Map<String, List<PendingReport>> tables) {
+		for (Map.Entry<String, List<PendingReport>> table : tables.entrySet()) {
+			try {
+				addBatch(table.getKey(), table.getValue()).executeBatch();
+				connection.commit();
+				LocalSpool.getInstance().done(LocalSpool.Kind.REPORT, seqs(table.getValue()));
+			} catch (SQLException e) {
+				logger.error(table.getKey() + " Report Insert Of " + table.getValue().size() + " Rows Failed", e);
+				release();
+				LocalSpool.getInstance().failed(seqs(table.getValue()));
+			}
+		}
+	}
+
+	private static List<Long> seqs(List<PendingReport> reports) {
+		List<Long> seqs = new ArrayList<Long>(reports.size());
+		for (PendingReport pending : reports) {
+			seqs.add(pending.seq);
+		}
+		return seqs;
+	}
+
+	private PreparedStatement addBatch(String tableName, List<PendingReport> reports) throws SQLException {
+		PreparedStatement statement = getStatement(tableName);
+		for (PendingReport pending : reports) {
+			ReportEntry entry = pending.entry;
+			statement.setString(1, entry.getMsgId());
+			statement.setString(2, entry.getBatchId());
+			statement.setString(3, entry.getRecipient());
+			statement.setTimestamp(4, entry.getReceivedOn());
+			statement.setTimestamp(5, entry.getSubmitOn());
+			statement.setString(6, entry.getStatus());
+			statement.setInt(7, entry.getStatusCode());
+			statement.setString(8, entry.getRemarks());
+			statement.setInt(9, entry.getAttempts());
+			statement.addBatch();
+		}
+		return statement;
+	}
+
+	private PreparedStatement getStatement(String tableName) throws SQLException {
+		if (connection != null && System.currentTimeMillis() - connectedOn > CONNECTION_MAX_AGE) {
+			release(); // let the pool recycle it
+		}
+		if (connection == null) {
+			connection = GlobalVar.connectionPool.getConnection();
+			connection.setAutoCommit(false);
+			connectedOn = System.currentTimeMillis();
+		}
+		PreparedStatement statement = statements.get(tableName);
+		if (statement == null) {
+			// rows replayed from the spool may have been committed before a crash
+			statement = connection.prepareStatement("INSERT IGNORE INTO " + tableName
+					+ " (msg_id, batch_id, recipient, received_on, submit_on, status, status_code, remarks, attempts) "
+					+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?)");
+			statements.put(tableName, statement);
+		}
+		return statement;
+	}
+
+	private void release() {
+		for (PreparedStatement statement : statements.values()) {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+			}
+		}
+		statements.clear();
+		if (connection != null) {
+			try {
+				connection.rollback(); // anything not committed
+				connection.close();
+			} catch (SQLException e) {
+				logger.warn("Report Connection Release: " + e.getMessage());
+			}
+			connection = null;
+		}
+	}
+
+	private void adapt(int rows, long latency) {
+		if (latency > GlobalVar.REPORT_TARGET_LATENCY) {
+			batchSize = Math.max(GlobalVar.REPORT_BATCH_MIN, batchSize / 2);
+		} else if (rows >= batchSize) {
+			batchSize = Math.min(GlobalVar.REPORT_BATCH_MAX, batchSize + Math.max(1, batchSize / 4));
+		}
+		statsRows += rows;
+		statsFlushes++;
+		statsLatency += latency;
+		long now = System.currentTimeMillis();
+		if (now - statsStart >= STATS_INTERVAL) {
+			logger.info("Report Commit: " + (statsRows * 1000 / (now - statsStart)) + " rows/sec, Avg Flush "
+					+ (statsLatency / statsFlushes) + " ms, Batch Size " + batchSize + ", Queued "
+					+ processQueue.size());
+			statsStart = now;
+			statsRows = 0;
+			statsFlushes = 0;
+			statsLatency = 0;
+		}
+	}
+
+	private static class PendingReport {
+		private final String tableName;
+		private final ReportEntry entry;
+		private final long seq;
+
+		private PendingReport(String tableName, ReportEntry entry, long seq) {
+			this.tableName = tableName;
+			this.entry = entry;
+			this.seq = seq;
+		}
+	}
+
+}
@@ -5,111 +5,78 @@ import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import com.hti.database.ConnectionPool.Workload;
 import com.hti.entity.ReportEntry;
-import com.hti.service.SingletonService;
 import com.hti.util.GlobalVar;
-import com.hti.util.Queue;
 
-public class ReportService implements Runnable {
-
-	private Logger logger = LoggerFactory.getLogger("dbLogger");
-	private boolean stop;
-	private Queue processQueue;
+/**
+ * Report table of a user. Rows are spooled to the {@link LocalSpool} and
+ * written by the shared {@link ReportCommitter}, which also creates the table
+ * and its partitions before the first write.
+ */
+public class ReportService {
+
+	private static final Gson gson = new GsonBuilder()
+			.registerTypeAdapter(Timestamp.class,
+					(JsonSerializer<Timestamp>) (src, type, context) -> new JsonPrimitive(src.getTime()))
+			.registerTypeAdapter(Timestamp.class,
+					(JsonDeserializer<Timestamp>) (json, type, context) -> new Timestamp(json.getAsLong()))
+			.create();
+	private static Logger logger = LoggerFactory.getLogger("dbLogger");
 	private String systemId;
 	private String table_name = null;
-	private long lastActiveTime;
-    private static final long IDLE_TIMEOUT = 600_000; // 10 minutes
 
 	public ReportService(String systemId) {
-		logger.info(systemId + "_report thread starting");
 		this.systemId = systemId;
-		this.processQueue = new Queue();
-		this.lastActiveTime = System.currentTimeMillis(); // reset idle timer
 		this.table_name = "report_" + systemId;
-		new Thread(this, systemId + "_ReportInsert").start();
 	}
 
-	public void submit(ReportEntry entry) {
-		processQueue.enqueue(entry);
+	/**
+	 * Creates the report table if missing and the partitions of the days ahead,
+	 * which covers days a missed maintenance run did not add.
+	 */
+	static boolean prepareTable(String table_name) {
+		return checkTable(table_name) && new PartitionManager().ensure(table_name);
 	}
 
-	@Override
-	public void run() {
-		checkTable();
-		while (!stop) {
-			if (processQueue.isEmpty()) {
-				long idleFor = System.currentTimeMillis() - lastActiveTime;
-
-                if (idleFor > IDLE_TIMEOUT) {
-                    logger.info(systemId + "_ReportInsert Idle timeout. Auto-stopping.");
-                    SingletonService.removeUserReportService(systemId); // remove from cache
-                    break;
-                }
-				try {
-					Thread.sleep(GlobalVar.QUEUE_WAIT_TIME);
-				} catch (InterruptedException e) {
-				}
-				continue;
-			}
-			lastActiveTime = System.currentTimeMillis();
-			logger.info("processQueue: " + processQueue.size());
-			ReportEntry entry = null;
-			try (Connection connection = GlobalVar.connectionPool.getConnection();
-					PreparedStatement statement = connection.prepareStatement("INSERT INTO " + table_name
-							+ " (msg_id, batch_id, recipient, received_on, submit_on, status, status_code, remarks) "
-							+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?)")) {
-
-				connection.setAutoCommit(false);
-				int count = 0;
-
-				while (!processQueue.isEmpty()) {
-					entry = (ReportEntry) processQueue.dequeue();
-
-					statement.setString(1, entry.getMsgId());
-					statement.setString(2, entry.getBatchId());
-					statement.setString(3, entry.getRecipient());
-					statement.setTimestamp(4, entry.getReceivedOn());
-					statement.setTimestamp(5, entry.getSubmitOn());
-					statement.setString(6, entry.getStatus());
-					statement.setInt(7, entry.getStatusCode());
-					statement.setString(8, entry.getRemarks());
-					statement.addBatch();
-					if (++count > GlobalVar.JDBC_BATCH_SIZE) {
-						break;
-					}
-				}
-
-				if (count > 0) {
-					int[] executed = statement.executeBatch();
-					connection.commit();
-					logger.info("Executed: " + executed.length);
-				}
-
-			} catch (SQLException e) {
-				logger.error(systemId, e);
-			} catch (Exception e) {
-				logger.error(systemId, e);
-			}
+	/**
+	 * Queues the report row, spooled first so that it survives a failed commit
+	 * or a restart.
+	 */
+	public void submit(ReportEntry entry) {
+		long seq = LocalSpool.getInstance().append(LocalSpool.Kind.REPORT, table_name + "\t" + gson.toJson(entry));
+		ReportCommitter.getInstance().submit(table_name, entry, seq);
+	}
 
-		}
-		logger.info(systemId + "_ReportInsert Stopped.Queue:" + processQueue.size());
+	/**
+	 * Queues a report row again from its spooled record.
+	 */
+	static void replay(long seq, String record) {
+		int tab = record.indexOf('\t');
+		ReportCommitter.getInstance().submit(record.substring(0, tab),
+				gson.fromJson(record.substring(tab + 1), ReportEntry.class), seq);
 	}
 
 	public void stop() {
-		logger.info(systemId + "_ReportInsert Stopping.Queue:" + processQueue.size());
-		stop = true;
+		logger.info(systemId + "_ReportService Removed.");
 	}
 
-	private boolean checkTable() {
+	private static boolean checkTable(String table_name) {
 		boolean tableExists = false;
 
-		try (Connection connection = GlobalVar.connectionPool.getConnection()) {
+		try (Connection connection = GlobalVar.connectionPool.getConnection(Workload.MAINTENANCE)) {
 
 			DatabaseMetaData meta = connection.getMetaData();
 			try (ResultSet rs = meta.getTables(null, null, table_name, null)) {
@@ -120,11 +87,20 @@ public class ReportService implements Runnable {
 
 			if (tableExists) {
 				logger.info(table_name + " already exists. No need to create.");
+				try (ResultSet rs = meta.getColumns(null, null, table_name, "attempts")) {
+					if (!rs.next()) {
+						try (PreparedStatement stmt = connection.prepareStatement(
+								"ALTER TABLE " + table_name + " ADD COLUMN attempts int DEFAULT 1")) {
+							stmt.executeUpdate();
+							logger.info("<-- " + table_name + " attempts column added -->");
+						}
+					}
+				}
 				return true;
 			}
 
 			// If table does NOT exist → create table with partitions
-			String sql = buildCreateTableQuery();
+			String sql = buildCreateTableQuery(table_name);
 			logger.info(sql);
 
 			try (PreparedStatement stmt = connection.prepareStatement(sql)) {
@@ -140,14 +116,14 @@ public class ReportService implements Runnable {
 		return false;
 	}
 
-	private String buildCreateTableQuery() {
+	private static String buildCreateTableQuery(String table_name) {
 		StringBuilder sb = new StringBuilder();
 		sb.append("CREATE TABLE IF NOT EXISTS ").append(table_name).append("(").append("msg_id bigint NOT NULL, \n")
 				.append("batch_id bigint DEFAULT 0, \n").append("recipient varchar(50) DEFAULT NULL, \n")
 				.append("status varchar(12) DEFAULT NULL, \n").append("status_code int(3) DEFAULT 0, \n")
 				.append("received_on timestamp NULL DEFAULT CURRENT_TIMESTAMP, \n")
 				.append("submit_on timestamp NULL DEFAULT CURRENT_TIMESTAMP, \n")
-				.append("remarks varchar(100) DEFAULT NULL, \n")
+				.append("remarks varchar(100) DEFAULT NULL, \n").append("attempts int DEFAULT 1, \n")
 				.append("partition_id INT GENERATED ALWAYS AS (CAST(LEFT(msg_id, 6) AS UNSIGNED)) STORED, \n")
 				.append("PRIMARY KEY (msg_id, partition_id)")
 				.append(")\nENGINE=InnoDB\nPARTITION BY RANGE (partition_id) (\n");
@@ -0,0 +1,19 @@
+package com.hti.entity;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Batch shared by the cluster nodes, split into recipient ranges.
+ */
+@Data
+@AllArgsConstructor
+public class ClusterBatch implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private String systemId;
+	private String batchId;
+	private int ranges;
+	private String status;
+}
@@ -1,8 +1,8 @@
 package com.hti.entity;
 
 import java.sql.Timestamp;
-import java.time.LocalDateTime;
-import java.util.List;
+
+import com.hti.util.RecipientCursor;
 
 import lombok.AllArgsConstructor;
 import lombok.Data;
@@ -33,13 +33,15 @@ public class EmailEntry {
 
 	private double delay;
 
+	private boolean groupEnvelope; // multiple RCPT TO per transaction
+
 	private Timestamp createdOn;
 
 	private Timestamp updatedOn;
 
 	private int totalRecipients;
 
-	private List<RecipientsEntry> pendingRecipientList;
+	private RecipientCursor pendingRecipients;
 
 	private BatchStatus batchStatus;
 
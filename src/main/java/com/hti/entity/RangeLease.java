@@ -0,0 +1,24 @@
+package com.hti.entity;
+
+import java.io.Serializable;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * msg_id range (fromMsgId, toMsgId] of a batch sent by the cluster node that
+ * holds its lease.
+ */
+@Data
+@AllArgsConstructor
+public class RangeLease implements Serializable {
+	private static final long serialVersionUID = 1L;
+	private String systemId;
+	private String batchId;
+	private int index;
+	private long fromMsgId;
+	private long toMsgId;
+	private String owner;
+	private long leaseUntil;
+	private boolean done;
+}
@@ -9,9 +9,16 @@ public class RecipientsEntry {
 	private String msgId;
 	private String recipient;
 	private String flag;
+	private int attempts;
 
 	public RecipientsEntry(String msgId, String recipient) {
 		this.msgId = msgId;
 		this.recipient = recipient;
 	}
+
+	public RecipientsEntry(String msgId, String recipient, String flag) {
+		this.msgId = msgId;
+		this.recipient = recipient;
+		this.flag = flag;
+	}
 }
@@ -17,8 +17,7 @@ public class ReportEntry {
 	private String remarks;
 	private Timestamp receivedOn;
 	private Timestamp submitOn;
-	
+	private int attempts;
 
-	
 
 }
@@ -0,0 +1,15 @@
+package com.hti.entity;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+@Data
+@AllArgsConstructor
+public class RetryEntry {
+	private String systemId;
+	private String batchId;
+	private String msgId;
+	private String recipient;
+	private int attempts;
+	private long dueTime;
+}
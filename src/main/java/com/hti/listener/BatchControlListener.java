@@ -0,0 +1,29 @@
+package com.hti.listener;
+
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.topic.Message;
+import com.hazelcast.topic.MessageListener;
+import com.hti.process.ClusterCoordinator;
+
+public class BatchControlListener implements MessageListener<Map<String, String>> {
+
+	private Logger logger = LoggerFactory.getLogger(BatchControlListener.class);
+
+	@Override
+	public void onMessage(Message<Map<String, String>> message) {
+		Map<String, String> data = message.getMessageObject();
+		String action = data.get("ACTION");
+		String systemId = data.get("SYSTEM_ID");
+		String batchId = data.get("BATCH_ID");
+		if (action == null || systemId == null || batchId == null) {
+			return;
+		}
+		logger.info(systemId + "[" + batchId + "] Received " + action + " From " + data.get("NODE"));
+		ClusterCoordinator.getInstance().onControl(action, systemId, batchId);
+	}
+
+}
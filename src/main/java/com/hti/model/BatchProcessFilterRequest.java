@@ -5,6 +5,8 @@ import java.time.LocalDateTime;
 import org.springframework.format.annotation.DateTimeFormat;
 
 import io.swagger.v3.oas.annotations.media.Schema;
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
 import lombok.Data;
 
 @Data
@@ -21,4 +23,10 @@ public class BatchProcessFilterRequest {
 	private LocalDateTime endTime;
 	@Schema(description = "Status of the batch", example = "ACTIVE")
 	private String status;
+	@Schema(description = "Batch Id of the last entry of the previous page, batches are listed newest first", example = "2511261601534601001")
+	private long lastBatchId;
+	@Min(0)
+	@Max(1000)
+	@Schema(description = "Batches to return, all remaining pages are streamed if not given", example = "100")
+	private int limit;
 }
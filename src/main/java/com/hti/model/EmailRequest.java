@@ -36,4 +36,7 @@ public class EmailRequest {
 	@Schema(description = "Delay between mails in seconds", example = "1.5")
 	private double delay;
 
+	@Schema(description = "Send identical content to several recipients per SMTP transaction", example = "false")
+	private boolean groupEnvelope;
+
 }
@@ -0,0 +1,497 @@
+package com.hti.process;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hazelcast.topic.ITopic;
+import com.hti.database.service.DBService;
+import com.hti.entity.ClusterBatch;
+import com.hti.entity.EmailEntry;
+import com.hti.entity.EmailEntry.BatchStatus;
+import com.hti.entity.RangeLease;
+import com.hti.exception.InvalidRequestException;
+import com.hti.listener.BatchControlListener;
+import com.hti.util.CompactRecipientList;
+import com.hti.util.GlobalVar;
+import com.hti.util.LeasedRecipientCursor;
+
+/**
+ * Shares batches between the nodes of the cluster when
+ * {@link GlobalVar#CLUSTER_MODE} is set. The recipients of a batch are split
+ * into msg_id ranges of {@link GlobalVar#CLUSTER_RANGE_SIZE} kept in a Hazelcast
+ * map. Each node claims free ranges under a lease of
+ * {@link GlobalVar#CLUSTER_LEASE_TIME} that it renews while sending, ranges of a
+ * node that stops renewing are claimed by the others. A range is done once every
+ * recipient taken from it has completed, a batch is finished when all its ranges
+ * are done and no retry of it is left. Pause, abort and resume are published on
+ * the batch_control topic so that every node applies them.
+ */
+public class ClusterCoordinator implements Runnable {
+
+	public static final String PAUSE = "PAUSE";
+	public static final String ABORT = "ABORT";
+	public static final String RESUME = "RESUME";
+	// ranges read per call while looking for a free one
+	private static final int CLAIM_FETCH_SIZE = 32;
+	private static ClusterCoordinator instance;
+	private Logger logger = LoggerFactory.getLogger(ClusterCoordinator.class);
+	private DBService service = new DBService();
+	private IMap<String, ClusterBatch> batches;
+	private IMap<String, RangeLease> ranges;
+	private IMap<String, String> retryOwners;
+	private ITopic<Map<String, String>> controlTopic;
+	private String nodeId;
+	// leases held by this node
+	private Map<String, RangeLease> owned = new ConcurrentHashMap<String, RangeLease>();
+	// batches whose retries are restored by this node
+	private Set<String> ownedRetries = ConcurrentHashMap.newKeySet();
+	// index to look for a free range from, per batch
+	private Map<String, Integer> claimHints = new ConcurrentHashMap<String, Integer>();
+	private volatile boolean stop;
+	private Thread thread;
+
+	ClusterCoordinator(HazelcastInstance hazelInstance) {
+		this.batches = hazelInstance.getMap("cluster_batches");
+		this.ranges = hazelInstance.getMap("cluster_ranges");
+		this.retryOwners = hazelInstance.getMap("cluster_retry_owners");
+		this.controlTopic = hazelInstance.getTopic("batch_control");
+		this.nodeId = hazelInstance.getLocalEndpoint().getUuid().toString();
+		controlTopic.addMessageListener(new BatchControlListener());
+		this.thread = new Thread(this, "ClusterCoordinator");
+		thread.setDaemon(true);
+		thread.start();
+		logger.info("Cluster Coordinator Started On Node " + nodeId);
+	}
+
+	public static synchronized ClusterCoordinator getInstance() {
+		if (instance == null) {
+			instance = new ClusterCoordinator(GlobalVar.hazelInstance);
+		}
+		return instance;
+	}
+
+	/**
+	 * Releases the leases of this node so that other nodes take over its ranges
+	 * without waiting for them to expire.
+	 */
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.stop();
+			instance = null;
+		}
+	}
+
+	void stop() {
+		stop = true;
+		thread.interrupt();
+		for (RangeLease lease : owned.values()) {
+			release(lease);
+		}
+		for (String batchKey : ownedRetries) {
+			retryOwners.remove(batchKey, nodeId);
+		}
+		ownedRetries.clear();
+	}
+
+	private static String key(String systemId, String batchId) {
+		return systemId + "_" + batchId;
+	}
+
+	private static String key(String systemId, String batchId, int index) {
+		return systemId + "_" + batchId + "_" + index;
+	}
+
+	private static String key(RangeLease lease) {
+		return key(lease.getSystemId(), lease.getBatchId(), lease.getIndex());
+	}
+
+	/**
+	 * Splits a new batch into ranges. Recipients must be in ascending msg_id
+	 * order.
+	 */
+	public void distribute(String systemId, String batchId, CompactRecipientList recipients) {
+		int rangeSize = Math.max(1, GlobalVar.CLUSTER_RANGE_SIZE);
+		int count = Math.max(1, (recipients.size() + rangeSize - 1) / rangeSize);
+		long from = 0;
+		for (int index = 0; index < count; index++) {
+			long to = index == count - 1 ? Long.MAX_VALUE
+					: recipients.getMsgId(Math.min(recipients.size(), (index + 1) * rangeSize) - 1);
+			ranges.set(key(systemId, batchId, index), new RangeLease(systemId, batchId, index, from, to, null, 0, false));
+			from = to;
+		}
+		batches.set(key(systemId, batchId), new ClusterBatch(systemId, batchId, count, BatchStatus.ACTIVE.name()));
+		logger.info(systemId + "[" + batchId + "] Distributed In " + count + " Ranges");
+	}
+
+	/**
+	 * Makes a batch that is not split, after a resume or restart, available to
+	 * the cluster as one range. Done ranges of a known batch that still have F
+	 * recipients, taken but not sent before a pause, are reopened.
+	 */
+	public void adopt(String systemId, String batchId) {
+		String batchKey = key(systemId, batchId);
+		ClusterBatch batch = batches.get(batchKey);
+		if (batch == null) {
+			retryOwners.delete(batchKey);
+			ranges.putIfAbsent(key(systemId, batchId, 0),
+					new RangeLease(systemId, batchId, 0, 0, Long.MAX_VALUE, null, 0, false));
+			batches.putIfAbsent(batchKey, new ClusterBatch(systemId, batchId, 1, BatchStatus.ACTIVE.name()));
+		} else {
+			reopen(batch);
+			if (!BatchStatus.ACTIVE.name().equals(batch.getStatus())) {
+				batch.setStatus(BatchStatus.ACTIVE.name());
+				batches.set(batchKey, batch);
+			}
+		}
+	}
+
+	private void reopen(ClusterBatch batch) {
+		String systemId = batch.getSystemId();
+		String batchId = batch.getBatchId();
+		for (RangeLease lease : getRanges(batch, 0, batch.getRanges()).values()) {
+			if (lease.isDone() && service.countPendingRecipients(systemId, batchId, lease.getFromMsgId(),
+					lease.getToMsgId()) > 0) {
+				RangeLease free = new RangeLease(systemId, batchId, lease.getIndex(), lease.getFromMsgId(),
+						lease.getToMsgId(), null, 0, false);
+				if (ranges.replace(key(lease), lease, free)) {
+					logger.info(systemId + "[" + batchId + "] Range " + lease.getIndex() + " Reopened");
+				}
+			}
+		}
+		claimHints.remove(key(systemId, batchId));
+	}
+
+	/**
+	 * Ranges [from, to) of the batch keyed by range key, read in chunks of
+	 * {@link #CLAIM_FETCH_SIZE}.
+	 */
+	private Map<String, RangeLease> getRanges(ClusterBatch batch, int from, int to) {
+		Map<String, RangeLease> found = new LinkedHashMap<String, RangeLease>();
+		for (int start = from; start < to; start += CLAIM_FETCH_SIZE) {
+			Set<String> keys = new LinkedHashSet<String>();
+			for (int index = start; index < Math.min(to, start + CLAIM_FETCH_SIZE); index++) {
+				keys.add(key(batch.getSystemId(), batch.getBatchId(), index));
+			}
+			Map<String, RangeLease> fetched = ranges.getAll(keys);
+			for (String rangeKey : keys) {
+				RangeLease lease = fetched.get(rangeKey);
+				if (lease != null) {
+					found.put(rangeKey, lease);
+				}
+			}
+		}
+		return found;
+	}
+
+	/**
+	 * Takes the lease of the next free range of an active batch, null if there is
+	 * none. Ranges are looked for from the one after the last claimed, the ones
+	 * before it only if none is free after, as their leases may have expired.
+	 */
+	public RangeLease claim(String systemId, String batchId) {
+		String batchKey = key(systemId, batchId);
+		ClusterBatch batch = batches.get(batchKey);
+		if (batch == null || !BatchStatus.ACTIVE.name().equals(batch.getStatus()) || stop) {
+			return null;
+		}
+		int hint = Math.min(claimHints.getOrDefault(batchKey, 0), batch.getRanges());
+		RangeLease claimed = claim(batch, hint, batch.getRanges());
+		if (claimed == null && hint > 0) {
+			claimed = claim(batch, 0, hint);
+		}
+		return claimed;
+	}
+
+	private RangeLease claim(ClusterBatch batch, int from, int to) {
+		String systemId = batch.getSystemId();
+		String batchId = batch.getBatchId();
+		for (int start = from; start < to; start += CLAIM_FETCH_SIZE) {
+			for (Map.Entry<String, RangeLease> range : getRanges(batch, start, Math.min(to, start + CLAIM_FETCH_SIZE))
+					.entrySet()) {
+				RangeLease lease = range.getValue();
+				if (!isClaimable(lease)) {
+					continue;
+				}
+				RangeLease claimed = new RangeLease(systemId, batchId, lease.getIndex(), lease.getFromMsgId(),
+						lease.getToMsgId(), nodeId, System.currentTimeMillis() + GlobalVar.CLUSTER_LEASE_TIME, false);
+				if (ranges.replace(range.getKey(), lease, claimed)) {
+					owned.put(range.getKey(), claimed);
+					claimHints.put(key(systemId, batchId), lease.getIndex() + 1);
+					logger.info(systemId + "[" + batchId + "] Range " + lease.getIndex() + " Claimed ("
+							+ lease.getFromMsgId() + ", " + lease.getToMsgId() + "]"
+							+ (lease.getOwner() != null ? " From " + lease.getOwner() : ""));
+					return claimed;
+				}
+			}
+		}
+		return null;
+	}
+
+	private boolean isClaimable(RangeLease lease) {
+		return lease != null && !lease.isDone()
+				&& (lease.getOwner() == null || lease.getLeaseUntil() < System.currentTimeMillis());
+	}
+
+	/**
+	 * If this node restores the persisted retries of the batch. Only the first
+	 * node running the batch after it was shared does, it keeps them under a lease
+	 * like a range so that another node restores them if it stops.
+	 */
+	public boolean claimRetries(String systemId, String batchId) {
+		String batchKey = key(systemId, batchId);
+		String owner = retryOwners.putIfAbsent(batchKey, nodeId, GlobalVar.CLUSTER_LEASE_TIME, TimeUnit.MILLISECONDS);
+		if (owner == null || owner.equals(nodeId)) {
+			ownedRetries.add(batchKey);
+			return true;
+		}
+		return false;
+	}
+
+	public boolean isHeld(RangeLease lease) {
+		return owned.containsKey(key(lease));
+	}
+
+	public void complete(RangeLease lease) {
+		String rangeKey = key(lease);
+		RangeLease current = owned.remove(rangeKey);
+		if (current != null) {
+			RangeLease done = new RangeLease(lease.getSystemId(), lease.getBatchId(), lease.getIndex(),
+					lease.getFromMsgId(), lease.getToMsgId(), nodeId, current.getLeaseUntil(), true);
+			if (!ranges.replace(rangeKey, current, done)) {
+				logger.warn(rangeKey + " Range Lease Lost Before Completion");
+			}
+		}
+	}
+
+	private void release(RangeLease lease) {
+		String rangeKey = key(lease);
+		RangeLease current = owned.remove(rangeKey);
+		if (current != null) {
+			RangeLease free = new RangeLease(lease.getSystemId(), lease.getBatchId(), lease.getIndex(),
+					lease.getFromMsgId(), lease.getToMsgId(), null, 0, false);
+			ranges.replace(rangeKey, current, free);
+		}
+	}
+
+	/**
+	 * If every range of the batch is done and none of its retries is left. A
+	 * range stays undone while a node still sends recipients taken from it.
+	 */
+	public boolean isComplete(String systemId, String batchId) {
+		ClusterBatch batch = batches.get(key(systemId, batchId));
+		if (batch == null) {
+			return true;
+		}
+		return isDone(batch) && !service.hasRetries(systemId, batchId);
+	}
+
+	private boolean isDone(ClusterBatch batch) {
+		for (RangeLease lease : getRanges(batch, 0, batch.getRanges()).values()) {
+			if (!lease.isDone()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * The local processor of a batch stopped with the given status.
+	 */
+	public void released(String systemId, String batchId, BatchStatus status) {
+		for (RangeLease lease : owned.values()) {
+			if (lease.getSystemId().equals(systemId) && lease.getBatchId().equals(batchId)) {
+				release(lease);
+			}
+		}
+		String batchKey = key(systemId, batchId);
+		if (ownedRetries.remove(batchKey)) {
+			retryOwners.remove(batchKey, nodeId);
+		}
+		if (status == BatchStatus.FINISHED || status == BatchStatus.ABORTED) {
+			remove(systemId, batchId);
+		}
+	}
+
+	private void remove(String systemId, String batchId) {
+		ClusterBatch batch = batches.remove(key(systemId, batchId));
+		retryOwners.delete(key(systemId, batchId));
+		claimHints.remove(key(systemId, batchId));
+		if (batch != null) {
+			for (int index = 0; index < batch.getRanges(); index++) {
+				ranges.delete(key(systemId, batchId, index));
+			}
+		}
+	}
+
+	public boolean isKnown(String systemId, String batchId) {
+		return batches.containsKey(key(systemId, batchId));
+	}
+
+	/**
+	 * Applies a pause or abort to the batch on every node. Returns false if the
+	 * batch is not shared in the cluster.
+	 */
+	public boolean control(String action, String systemId, String batchId) {
+		ClusterBatch batch = batches.get(key(systemId, batchId));
+		if (batch == null) {
+			return false;
+		}
+		if (PAUSE.equals(action)) {
+			batch.setStatus(BatchStatus.PAUSED.name());
+			batches.set(key(systemId, batchId), batch);
+			service.updateBatchStatus(systemId, batchId, BatchStatus.PAUSED.name());
+		} else if (ABORT.equals(action)) {
+			service.updateBatchStatus(systemId, batchId, BatchStatus.ABORTED.name());
+		}
+		Map<String, String> message = new HashMap<String, String>();
+		message.put("ACTION", action);
+		message.put("SYSTEM_ID", systemId);
+		message.put("BATCH_ID", batchId);
+		message.put("NODE", nodeId);
+		controlTopic.publish(message);
+		if (ABORT.equals(action)) {
+			remove(systemId, batchId);
+		}
+		return true;
+	}
+
+	/**
+	 * Control message received from the topic, including the ones published by
+	 * this node.
+	 */
+	public void onControl(String action, String systemId, String batchId) {
+		if (RESUME.equals(action)) {
+			thread.interrupt(); // look for ranges now
+			return;
+		}
+		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
+		EmailProcessor processor = inner != null ? inner.remove(batchId) : null;
+		if (processor != null) {
+			processor.stop(ABORT.equals(action) ? BatchStatus.ABORTED : BatchStatus.PAUSED);
+		}
+		released(systemId, batchId, null);
+	}
+
+	public void resume(String systemId, String batchId) {
+		retryOwners.delete(key(systemId, batchId));
+		adopt(systemId, batchId);
+		Map<String, String> message = new HashMap<String, String>();
+		message.put("ACTION", RESUME);
+		message.put("SYSTEM_ID", systemId);
+		message.put("BATCH_ID", batchId);
+		message.put("NODE", nodeId);
+		controlTopic.publish(message);
+	}
+
+	@Override
+	public void run() {
+		while (!stop) {
+			try {
+				Thread.sleep(Math.max(1000, GlobalVar.CLUSTER_LEASE_TIME / 3));
+			} catch (InterruptedException e) {
+				// resume received or stopping
+			}
+			if (stop) {
+				break;
+			}
+			try {
+				renew();
+				adoptRanges();
+			} catch (Exception e) {
+				logger.error("Cluster Coordination Error", e);
+			}
+		}
+		logger.info("Cluster Coordinator Stopped");
+	}
+
+	private void renew() {
+		for (Map.Entry<String, RangeLease> entry : owned.entrySet()) {
+			RangeLease current = entry.getValue();
+			RangeLease renewed = new RangeLease(current.getSystemId(), current.getBatchId(), current.getIndex(),
+					current.getFromMsgId(), current.getToMsgId(), nodeId,
+					System.currentTimeMillis() + GlobalVar.CLUSTER_LEASE_TIME, false);
+			if (ranges.replace(entry.getKey(), current, renewed)) {
+				owned.replace(entry.getKey(), current, renewed);
+			} else {
+				owned.remove(entry.getKey(), current);
+				logger.warn(entry.getKey() + " Range Lease Lost");
+			}
+		}
+		for (String batchKey : ownedRetries) {
+			if (!nodeId.equals(retryOwners.get(batchKey))
+					|| !retryOwners.setTtl(batchKey, GlobalVar.CLUSTER_LEASE_TIME, TimeUnit.MILLISECONDS)) {
+				ownedRetries.remove(batchKey);
+				logger.warn(batchKey + " Retry Lease Lost");
+			}
+		}
+	}
+
+	/**
+	 * Starts a local processor for active batches that have a free range or
+	 * retries without an owner and do not run here. Finishes the batches that
+	 * have nothing left.
+	 */
+	private void adoptRanges() {
+		for (ClusterBatch batch : batches.values()) {
+			String systemId = batch.getSystemId();
+			String batchId = batch.getBatchId();
+			if (!BatchStatus.ACTIVE.name().equals(batch.getStatus())) {
+				continue;
+			}
+			Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
+			if (inner != null && inner.containsKey(batchId)) {
+				continue; // the running cursor claims the free ranges itself
+			}
+			boolean claimable = false;
+			boolean done = true;
+			for (RangeLease lease : getRanges(batch, 0, batch.getRanges()).values()) {
+				claimable = claimable || isClaimable(lease);
+				done = done && lease.isDone();
+			}
+			if (claimable) {
+				startLocal(systemId, batchId);
+			} else if (done) {
+				if (!service.hasRetries(systemId, batchId)) {
+					// the nodes of the last ranges stopped at the same time, none saw the batch complete
+					finish(systemId, batchId);
+				} else if (!retryOwners.containsKey(key(systemId, batchId))) {
+					// the node sending the retries stopped, the local processor restores them
+					startLocal(systemId, batchId);
+				}
+			}
+		}
+	}
+
+	private void finish(String systemId, String batchId) {
+		logger.info(systemId + "[" + batchId + "] All Ranges Done, Batch Finished.");
+		service.updateBatchStatus(systemId, batchId, BatchStatus.FINISHED.name());
+		service.deleteRecipients(systemId, batchId);
+		remove(systemId, batchId);
+	}
+
+	private void startLocal(String systemId, String batchId) {
+		EmailEntry entry = service.getEntry(systemId, batchId);
+		if (entry == null || entry.getBatchStatus() != BatchStatus.ACTIVE) {
+			return;
+		}
+		entry.setPendingRecipients(new LeasedRecipientCursor(systemId, batchId));
+		try {
+			EmailProcessor processor = new EmailProcessor(entry);
+			GlobalVar.processingMap.computeIfAbsent(systemId, k -> new ConcurrentHashMap<>()).put(batchId, processor);
+			logger.info(systemId + "[" + batchId + "] Joined Cluster Batch");
+		} catch (InvalidRequestException e) {
+			logger.error(systemId + "[" + batchId + "] " + e.getMessage());
+		}
+	}
+
+}
@@ -4,88 +4,155 @@ import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.List;
 
-import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.google.gson.Gson;
+import com.hti.database.service.LocalSpool;
 import com.hti.model.DeliverResponse;
 import com.hti.service.SingletonService;
-import com.hti.util.Queue;
+import com.hti.util.GlobalVar;
+import com.hti.util.MpscQueue.OverflowPolicy;
+import com.hti.util.QueueWriter;
+import com.hti.util.Threads;
 
-public class DlrForwarder implements Runnable {
-	private Logger logger = LoggerFactory.getLogger(DlrForwarder.class);
-	private String systemId;
-	private boolean stop;
-	private Queue processQueue;
-	private final ExecutorService webhookExecutor = Executors.newFixedThreadPool(3);
-	private final HttpClient httpClient = HttpClient.newHttpClient();
+public class DlrForwarder extends QueueWriter<DlrForwarder.PendingWebhook> {
+	private static HttpClient httpClient;
 	private final Gson gson = new Gson();
-	private long lastActiveTime;
-	private static final long IDLE_TIMEOUT = 600_000; // 10 minutes
+	private String systemId;
 
 	public DlrForwarder(String systemId) {
+		super(systemId + "_DlrForwarder", OverflowPolicy.SHED, GlobalVar.WRITER_IDLE_TIMEOUT);
+		this.logger = LoggerFactory.getLogger(DlrForwarder.class);
 		this.systemId = systemId;
-		this.processQueue = new Queue();
-		logger.info(systemId + "_DlrForwarder Starting.");
-		this.lastActiveTime = System.currentTimeMillis(); // reset idle timer
-		new Thread(this, systemId + "_DlrForwarder").start();
 	}
 
-	public void submit(DeliverResponse deliver) {
-		processQueue.enqueue(deliver);
+	/**
+	 * Client shared by the forwarders of all users, posting on
+	 * {@link GlobalVar#WEBHOOK_THREADS} threads or on virtual threads.
+	 */
+	private static synchronized HttpClient getHttpClient() {
+		if (httpClient == null) {
+			httpClient = HttpClient.newBuilder().executor(Threads.newExecutor("Webhook", GlobalVar.WEBHOOK_THREADS))
+					.build();
+		}
+		return httpClient;
+	}
+
+	/**
+	 * Queues the webhook, spooled first. A webhook shed while the queue is full
+	 * stays spooled and is replayed later.
+	 */
+	public boolean submit(DeliverResponse deliver) {
+		PendingWebhook webhook = new PendingWebhook(deliver, 0, System.currentTimeMillis(), 0);
+		webhook.seq = LocalSpool.getInstance().append(LocalSpool.Kind.WEBHOOK, record(webhook));
+		return submit(webhook);
+	}
+
+	/**
+	 * Spooled record: systemId, url, first post time, failed posts and the json
+	 * of the webhook separated by tabs.
+	 */
+	private String record(PendingWebhook webhook) {
+		return systemId + "\t" + webhook.response.getUrl() + "\t" + webhook.firstSeen + "\t" + webhook.attempts + "\t"
+				+ gson.toJson(webhook.response);
 	}
 
 	@Override
-	public void run() {
-		while (!stop) {
-			if (processQueue.isEmpty()) {
-				long idleFor = System.currentTimeMillis() - lastActiveTime;
-
-				if (idleFor > IDLE_TIMEOUT) {
-					logger.info(systemId + "_DlrForwarder Idle timeout. Auto-stopping.");
-					SingletonService.removeUserDlrForwarder(systemId); // remove from cache
-					break;
-				}
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e) {
-				}
-				continue;
-			}
-			lastActiveTime = System.currentTimeMillis(); // reset idle timer
-			while (!processQueue.isEmpty()) {
-				DeliverResponse response = (DeliverResponse) processQueue.dequeue();
-				sendWebhookAsync(response);
+	public boolean submit(PendingWebhook webhook) {
+		boolean added = super.submit(webhook);
+		if (!added) {
+			LocalSpool.getInstance().failed(webhook.seq);
+			if (processQueue.getShedCount() % 1000 == 1) {
+				logger.warn(systemId + "_DlrForwarder Queue Full, Webhooks Shed: " + processQueue.getShedCount());
 			}
+		}
+		return added;
+	}
 
+	/**
+	 * Queues a webhook again from its spooled record.
+	 */
+	public static void replay(long seq, String record) {
+		String[] fields = record.split("\t", 5);
+		PendingWebhook webhook;
+		if (fields.length == 5) {
+			webhook = new PendingWebhook(new Gson().fromJson(fields[4], DeliverResponse.class), seq,
+					Long.parseLong(fields[2]), Integer.parseInt(fields[3]));
+		} else {
+			// spooled before attempts were recorded
+			webhook = new PendingWebhook(new Gson().fromJson(fields[2], DeliverResponse.class), seq,
+					System.currentTimeMillis(), 0);
 		}
-		webhookExecutor.shutdownNow();
-		logger.info(systemId + "_DlrForwarder Stopped.");
+		webhook.response.setUrl(fields[1]);
+		SingletonService.getUserDlrForwarder(fields[0]).submit(webhook);
 	}
 
-	private void sendWebhookAsync(DeliverResponse response) {
-		webhookExecutor.submit(() -> {
+	/**
+	 * The post failed, the webhook is replayed later unless it failed
+	 * {@link GlobalVar#WEBHOOK_MAX_ATTEMPTS} times or is older than
+	 * {@link GlobalVar#WEBHOOK_MAX_AGE}.
+	 */
+	private void failed(PendingWebhook webhook) {
+		webhook.attempts++;
+		long age = System.currentTimeMillis() - webhook.firstSeen;
+		if (webhook.attempts >= GlobalVar.WEBHOOK_MAX_ATTEMPTS || age >= GlobalVar.WEBHOOK_MAX_AGE) {
+			logger.error(systemId + " Webhook Dropped After " + webhook.attempts + " Attempts In " + (age / 1000)
+					+ "s: " + webhook.response.getUrl() + " msgId=" + webhook.response.getMsgId());
+			LocalSpool.getInstance().done(LocalSpool.Kind.WEBHOOK, webhook.seq);
+		} else {
+			LocalSpool.getInstance().failed(LocalSpool.Kind.WEBHOOK, webhook.seq, record(webhook));
+		}
+	}
+
+	@Override
+	protected void write(List<PendingWebhook> batch) {
+		for (PendingWebhook webhook : batch) {
 			try {
-				String json = gson.toJson(response);
-				logger.info(systemId + " webhook post: " + json.toString());
-				HttpRequest request = HttpRequest.newBuilder().uri(URI.create(response.getUrl()))
-						.header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json))
-						.build();
-				HttpResponse<String> httpResponse = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-				logger.info(systemId + " Webhook POST to " + response.getUrl() + " status=" + httpResponse.statusCode()
-						+ " msgId=" + response.getMsgId());
+				sendWebhookAsync(webhook);
 			} catch (Exception e) {
+				logger.error(systemId + " Webhook send failed for " + webhook.response.getMsgId(), e);
+				failed(webhook);
+			}
+		}
+	}
+
+	@Override
+	protected void onIdle() {
+		SingletonService.removeUserDlrForwarder(systemId); // remove from cache
+	}
+
+	private void sendWebhookAsync(PendingWebhook webhook) {
+		DeliverResponse response = webhook.response;
+		String json = gson.toJson(response);
+		logger.info(systemId + " webhook post: " + json.toString());
+		HttpRequest request = HttpRequest.newBuilder().uri(URI.create(response.getUrl()))
+				.header("Content-Type", "application/json").POST(HttpRequest.BodyPublishers.ofString(json)).build();
+		getHttpClient().sendAsync(request, HttpResponse.BodyHandlers.ofString()).whenComplete((httpResponse, e) -> {
+			if (e != null) {
 				logger.error(systemId + " Webhook send failed for " + response.getMsgId(), e);
+				failed(webhook);
+			} else {
+				LocalSpool.getInstance().done(LocalSpool.Kind.WEBHOOK, webhook.seq);
+				logger.info(systemId + " Webhook POST to " + response.getUrl() + " status=" + httpResponse.statusCode()
+						+ " msgId=" + response.getMsgId());
 			}
 		});
 	}
 
-	public void stop() {
-		logger.info(systemId + "_DlrForwarder Stopping.");
-		stop = true;
+	static class PendingWebhook {
+		private final DeliverResponse response;
+		private long seq;
+		private final long firstSeen;
+		private int attempts;
+
+		private PendingWebhook(DeliverResponse response, long seq, long firstSeen, int attempts) {
+			this.response = response;
+			this.seq = seq;
+			this.firstSeen = firstSeen;
+			this.attempts = attempts;
+		}
 	}
 
 }
@@ -5,29 +5,36 @@ import java.io.IOException;
 import java.net.ConnectException;
 import java.sql.Timestamp;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Properties;
+import java.util.Map;
 import java.util.Set;
-
-import javax.mail.Message;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.regex.Pattern;
+
+import javax.mail.Address;
 import javax.mail.MessagingException;
-import javax.mail.Multipart;
-import javax.mail.PasswordAuthentication;
 import javax.mail.SendFailedException;
-import javax.mail.Session;
 import javax.mail.internet.AddressException;
 import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeBodyPart;
 import javax.mail.internet.MimeMessage;
-import javax.mail.internet.MimeMultipart;
 
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hti.database.service.BatchProgress;
 import com.hti.database.service.DBService;
 import com.hti.database.service.RecipientEntryService;
 import com.hti.database.service.ReportService;
@@ -36,49 +43,72 @@ import com.hti.entity.EmailEntry.BatchStatus;
 import com.hti.exception.InvalidRequestException;
 import com.hti.exception.ProcessingException;
 import com.hti.model.DeliverResponse;
+import com.hti.process.SmtpTransportPool.PooledTransport;
 import com.hti.service.SingletonService;
 import com.hti.entity.RecipientsEntry;
 import com.hti.entity.ReportEntry;
+import com.hti.entity.RetryEntry;
 import com.hti.entity.SmtpEntry;
 import com.hti.util.EmailStatus;
 import com.hti.util.GlobalVar;
-import com.hti.util.Queue;
+import com.hti.util.RecipientCursor;
+import com.hti.util.Threads;
+import com.sun.mail.smtp.SMTPAddressFailedException;
+import com.sun.mail.smtp.SMTPSendFailedException;
 import com.sun.mail.smtp.SMTPTransport;
 
 public class EmailProcessor implements Runnable {
 
+	private static final Pattern THROTTLE_REPLY = Pattern
+			.compile("\\b(rate|limit|limits|limited|throttl\\w*)\\b|too many");
+	private static final Pattern AUTH_REPLY = Pattern.compile("\\b(auth\\w*|login)\\b");
+	private static final Pattern REJECT_REPLY = Pattern.compile("\\b(reject\\w*|denied|spam)\\b");
+	private static final long PACE_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+	private static final InternetAddress[] UNDISCLOSED_RECIPIENTS = new InternetAddress[1];
+	static {
+		UNDISCLOSED_RECIPIENTS[0] = new InternetAddress();
+		UNDISCLOSED_RECIPIENTS[0].setAddress("undisclosed-recipients:;");
+	}
+
 	private String batchId;
 	private EmailEntry entry;
 	private Logger logger = LoggerFactory.getLogger(EmailProcessor.class);
 	private DBService service;
-	private Properties smtpProps;
-	private boolean stop;
-	private List<RecipientsEntry> pendingRecipients;
+	private volatile boolean stop;
+	private RecipientCursor pendingRecipients;
 	private String systemId;
 	private ReportService reportService;
-	private Queue updateQueue;
 	private RecipientEntryService recipientEntryService;
 	private SmtpEntry smtpEntry;
-	private boolean reconnect;
+	private SmtpTransportPool transportPool;
+	private SendPacer pacer;
+	private SendRateController rateController;
+	private volatile boolean discarded;
+	private RetryScheduler retryScheduler;
+	private ConcurrentLinkedQueue<RecipientsEntry> retryQueue = new ConcurrentLinkedQueue<RecipientsEntry>();
+	private AtomicInteger retriesPending = new AtomicInteger();
+	private volatile MimeTemplate template;
 	private Set<File> attachments;
 	private Set<String> ccRecipients;
 	private Set<String> bccRecipients;
 	private DlrForwarder dlrForwarder;
+	private BatchProgress.Counter progress;
 
 	public EmailProcessor(EmailEntry entry) throws InvalidRequestException {
 		logger.info(entry.getBatchId() + " Batch Initializing For " + entry.getSystemId() + " Total Recipients: "
-				+ entry.getTotalRecipients() + " Pending: " + entry.getPendingRecipientList().size());
+				+ entry.getTotalRecipients() + " Pending: " + entry.getPendingRecipients().getPendingCount());
 		this.systemId = entry.getSystemId();
 		this.batchId = entry.getBatchId();
-		this.pendingRecipients = entry.getPendingRecipientList();
+		this.pendingRecipients = entry.getPendingRecipients();
 		this.entry = entry;
 		this.service = new DBService();
 		loadSmtpConfiguration();
-		this.updateQueue = new Queue();
-		this.recipientEntryService = new RecipientEntryService(systemId, batchId, updateQueue);
+		this.progress = BatchProgress.getInstance().open(systemId, batchId, entry.getTotalRecipients());
+		this.recipientEntryService = new RecipientEntryService(systemId, batchId);
 		this.reportService = SingletonService.getUserReportService(systemId);
 		this.dlrForwarder = SingletonService.getUserDlrForwarder(systemId);
-		new Thread(this, "Batch_" + systemId + "_" + batchId).start();
+		this.retryScheduler = RetryScheduler.getInstance();
+		Threads.start("Batch_" + systemId + "_" + batchId, this);
 	}
 
 	private void loadSmtpConfiguration() throws InvalidRequestException {
@@ -91,22 +121,9 @@ public class EmailProcessor implements Runnable {
 		if (!smtpEntry.isVerified()) {
 			throw new InvalidRequestException("Smtp Configuration Not Verified!!");
 		}
-		this.smtpProps = new Properties();
-		smtpProps.put("mail.smtp.host", smtpEntry.getHost());
-		smtpProps.put("mail.transport.protocol", "smtp");
-		smtpProps.put("mail.smtp.port", smtpEntry.getPort());
-		smtpProps.put("mail.smtp.auth", "true");
-		switch (smtpEntry.getEncryptionType()) {
-		case STARTTLS -> smtpProps.put("mail.smtp.starttls.enable", "true");
-		case SSL -> {
-			smtpProps.put("mail.smtp.ssl.enable", "true");
-			smtpProps.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
-		}
-		case NONE -> {
-			smtpProps.put("mail.smtp.starttls.enable", "false");
-			smtpProps.put("mail.smtp.ssl.enable", "false");
-		}
-		}
+		this.transportPool = SmtpTransportPool.getPool(smtpEntry);
+		this.pacer = new SendPacer(smtpEntry, entry.getDelay());
+		this.rateController = SendRateController.get(smtpEntry.getId());
 	}
 
 	@Override
@@ -114,136 +131,355 @@ public class EmailProcessor implements Runnable {
 		listAttachments();
 		listCcRecipients();
 		listBccRecipients();
-		while (!stop) {
+		if (!renderTemplate()) {
+			entry.setBatchStatus(BatchStatus.PAUSED);
+			clear();
+			logger.info(batchId + " Batch Process Stopped For " + systemId);
+			return;
+		}
+		if (!GlobalVar.CLUSTER_MODE || ClusterCoordinator.getInstance().claimRetries(systemId, batchId)) {
+			retriesPending.addAndGet(retryScheduler.restore(systemId, batchId, this));
+		}
+		int senders = Math.max(1, Math.min(GlobalVar.SMTP_POOL_MAX_CONNECTIONS, pendingRecipients.getPendingCount()));
+		logger.info(systemId + "_" + batchId + " Starting " + senders + " Sender(s) On Smtp <" + smtpEntry.getHost()
+				+ " " + smtpEntry.getPort() + ">");
+		List<Thread> senderThreads = new ArrayList<Thread>();
+		for (int i = 1; i < senders; i++) {
+			senderThreads.add(Threads.start("Batch_" + systemId + "_" + batchId + "_" + i, this::sendLoop));
+		}
+		sendLoop();
+		for (Thread sender : senderThreads) {
 			try {
-				logger.info(systemId + "_" + batchId + " Trying to Connect SMTP Server <" + smtpEntry.getHost() + " "
-						+ smtpEntry.getPort() + ">");
-				Session mailSession = Session.getInstance(smtpProps, new javax.mail.Authenticator() {
-					@Override
-					protected PasswordAuthentication getPasswordAuthentication() {
-						return new PasswordAuthentication(smtpEntry.getEmailUser(), smtpEntry.getEmailPassword());
-					}
-				});
-				if (reconnect) {
-					reconnect = false;
+				sender.join();
+			} catch (InterruptedException e) {
+				logger.warn(batchId + " Interrupted While Waiting For Sender " + sender.getName());
+			}
+		}
+		clear();
+		logger.info(batchId + " Batch Process Stopped For " + systemId);
+
+	}
+
+	/**
+	 * Encodes the batch content once. Pauses the batch if it can not be rendered
+	 * so that it can be corrected and resumed.
+	 */
+	private boolean renderTemplate() {
+		try {
+			template = new MimeTemplate(transportPool.getSession(), entry, smtpEntry.getEmailUser(), ccRecipients,
+					bccRecipients, attachments);
+			return true;
+		} catch (MessagingException | IOException e) {
+			logger.error(systemId + "[" + batchId + "] Message Rendering Failed", e);
+		}
+		return false;
+	}
+
+	/**
+	 * Sends recipients from the shared cursor until it is exhausted or the batch is
+	 * stopped. Permits are taken from the pacer before a window is taken and a
+	 * connection is borrowed from the account pool, so a throttled batch never
+	 * holds a connection that another batch of the account could use, and a
+	 * pause while throttled does not leave a window taken but unsent. The sender
+	 * thread itself still parks while throttled, it is not handed other work.
+	 */
+	private void sendLoop() {
+		int limit = entry.isGroupEnvelope() ? Math.max(1, GlobalVar.ENVELOPE_MAX_RECIPIENTS) : 1;
+		while (!stop) {
+			long wait = pacer.tryAcquire(limit);
+			if (wait > 0) {
+				// short parks so that a pause or abort is seen while throttled
+				LockSupport.parkNanos(Math.min(wait, PACE_CHECK_NANOS));
+				continue;
+			}
+			List<RecipientsEntry> window = nextWindow(limit);
+			if (window.size() < limit) {
+				pacer.refund(limit - window.size());
+			}
+			if (window.isEmpty()) {
+				if (retriesPending.get() > 0) {
+					LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(200)); // waiting for scheduled retries
+					continue;
 				}
-				try (SMTPTransport transport = (SMTPTransport) mailSession.getTransport("smtp")) {
-					transport.connect(); // connect once
-					java.util.Iterator<RecipientsEntry> itr = pendingRecipients.iterator();
-					while (itr.hasNext()) {
-						RecipientsEntry recipientsEntry = itr.next();
-						EmailStatus status = EmailStatus.PENDING;
-						int statusCode = 400;
-						String response = null;
-						try {
-							Message message = new MimeMessage(mailSession);
-							message.setFrom(new InternetAddress(smtpEntry.getEmailUser()));
-							message.setRecipients(Message.RecipientType.TO,
-									InternetAddress.parse(recipientsEntry.getRecipient()));
-							if (!ccRecipients.isEmpty()) {
-								InternetAddress[] ccaddress = new InternetAddress[ccRecipients.size()];
-								int i = 0;
-								for (String cc : ccRecipients) {
-									ccaddress[i] = new InternetAddress(cc);
-									i++;
-								}
-								message.setRecipients(Message.RecipientType.CC, ccaddress);
-							}
-							if (!bccRecipients.isEmpty()) {
-								InternetAddress[] bccaddress = new InternetAddress[bccRecipients.size()];
-								int i = 0;
-								for (String bcc : bccRecipients) {
-									bccaddress[i] = new InternetAddress(bcc);
-									i++;
-								}
-								message.setRecipients(Message.RecipientType.BCC, bccaddress);
-							}
-							message.setSubject(entry.getSubject());
-							message.setText(entry.getBody());
-							Multipart multipart = new MimeMultipart();
-
-							MimeBodyPart textBodyPart = new MimeBodyPart();
-							textBodyPart.setText(entry.getBody(), "utf-8");
-							multipart.addBodyPart(textBodyPart);
-
-							for (File file : attachments) {
-								MimeBodyPart attachmentPart = new MimeBodyPart();
-								try {
-									attachmentPart.attachFile(file);
-									multipart.addBodyPart(attachmentPart);
-									logger.info(batchId + ": attached file " + file.getName());
-								} catch (IOException e) {
-									logger.error(batchId + ": attachement file Error " + file.getName(),
-											e.getMessage());
-								}
-
-							}
-							message.setContent(multipart);
-							logger.info(batchId + ": Sending Email To: " + recipientsEntry.getRecipient());
-							transport.sendMessage(message, message.getAllRecipients());
-							statusCode = transport.getLastReturnCode();
-							response = transport.getLastServerResponse();
-							System.out.println(batchId + " [" + recipientsEntry.getRecipient() + "]"
-									+ " SMTP Response Code: " + statusCode + " Text:" + response);
-							status = classifyResponse(statusCode, response);
-							recipientsEntry.setFlag("T");
-							// tracker.setStatus(..., DELIVERED);
-						} catch (SendFailedException e) {
-							status = EmailStatus.FAILED;
-							response = e.getMessage();
-							recipientsEntry.setFlag("E");
-							logger.error(systemId + "[" + batchId + "][" + recipientsEntry.getRecipient() + "]", e);
-						} catch (MessagingException e) {
-							status = EmailStatus.ERROR;
-							response = e.getMessage();
-							recipientsEntry.setFlag("E");
-							logger.error(systemId + "[" + batchId + "][" + recipientsEntry.getRecipient() + "]", e);
-						}
-						// put to delete queue
-						updateQueue.enqueue(recipientsEntry);
-						// put to report queue
-						reportService.submit(new ReportEntry(recipientsEntry.getMsgId(), batchId,
-								recipientsEntry.getRecipient(), status.toString(), statusCode, response,
-								entry.getCreatedOn(), new Timestamp(System.currentTimeMillis())));
-						if (smtpEntry.getWebhookUrl() != null) {
-							dlrForwarder.submit(new DeliverResponse(batchId, recipientsEntry.getMsgId(),
-									smtpEntry.getId(), entry.getSubject(), recipientsEntry.getRecipient(),
-									status.toString(), new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()),
-									smtpEntry.getWebhookUrl()));
-						}
+				break;
+			}
+			if (!deliver(window)) {
+				break;
+			}
+		}
+	}
 
-						itr.remove(); // remove the local entry
-						if (stop || reconnect) {
-							break;
-						}
-						if (entry.getDelay() > 0) {
-							try {
-								Thread.sleep((long) (entry.getDelay() * 1000));
-							} catch (InterruptedException ie) {
-								logger.warn(batchId + " Processing Thread Interrupted");
-							}
-						}
-					}
-					stop = true;
+	/**
+	 * Sends a window on a pooled connection, retrying the connection with backoff.
+	 * Returns false if the batch was stopped before the window could be sent.
+	 */
+	private boolean deliver(List<RecipientsEntry> window) {
+		int connectFailures = 0;
+		while (!stop) {
+			if (!rateController.tryEnter()) {
+				LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(10)); // account at its concurrency limit
+				continue;
+			}
+			try {
+				PooledTransport transport = null;
+				try {
+					transport = transportPool.borrow(1, TimeUnit.SECONDS);
 				} catch (MessagingException e) {
 					logger.error(systemId + "[" + batchId + "] MessagingException: " + e.getMessage());
-					try {
-						Thread.sleep(10 * 1000); // wait for 10 seconds
-					} catch (InterruptedException e1) {
-					}
+					backoff(++connectFailures);
+					continue;
+				} catch (InterruptedException e) {
+					logger.warn(batchId + " Processing Thread Interrupted");
+					break;
+				}
+				if (transport == null) {
+					continue; // all pooled connections busy
 				}
-			} catch (Exception e) {
-				logger.error(systemId + "[" + batchId + "] Exception: " + e.getMessage());
+				boolean healthy = true;
 				try {
-					Thread.sleep(10 * 1000); // wait for 10 seconds
-				} catch (InterruptedException e1) {
+					for (List<RecipientsEntry> group : groupEnvelopes(window)) {
+						if (!healthy) {
+							// connection lost, remaining groups of the window were not sent
+							group.forEach(this::requeue);
+							continue;
+						}
+						healthy = send(transport.getTransport(), group);
+					}
+				} finally {
+					transportPool.release(transport, healthy);
 				}
+				return true;
+			} finally {
+				rateController.exit();
 			}
+		}
+		// taken from the cursor but not sent, the checkpoint must not skip them
+		discarded = true;
+		return false;
+	}
 
+	/**
+	 * Next recipients to send: a single recipient, or up to
+	 * {@link GlobalVar#ENVELOPE_MAX_RECIPIENTS} when envelope grouping is enabled
+	 * for the batch. Due retries are taken before the cursor.
+	 */
+	private List<RecipientsEntry> nextWindow(int limit) {
+		List<RecipientsEntry> window = new ArrayList<RecipientsEntry>(limit);
+		RecipientsEntry recipientsEntry;
+		while (window.size() < limit && (recipientsEntry = retryQueue.poll()) != null) {
+			retriesPending.decrementAndGet();
+			window.add(recipientsEntry);
 		}
-		clear();
-		logger.info(batchId + " Batch Process Stopped For " + systemId);
+		while (window.size() < limit && (recipientsEntry = pendingRecipients.next()) != null) {
+			window.add(recipientsEntry);
+		}
+		return window;
+	}
+
+	/**
+	 * Splits a window into SMTP transactions, one per recipient domain if
+	 * {@link GlobalVar#ENVELOPE_GROUP_BY_DOMAIN} is set.
+	 */
+	private Collection<List<RecipientsEntry>> groupEnvelopes(List<RecipientsEntry> window) {
+		if (window.size() == 1 || !GlobalVar.ENVELOPE_GROUP_BY_DOMAIN) {
+			return List.of(window);
+		}
+		Map<String, List<RecipientsEntry>> buckets = new LinkedHashMap<String, List<RecipientsEntry>>();
+		for (RecipientsEntry recipientsEntry : window) {
+			String recipient = recipientsEntry.getRecipient();
+			String domain = recipient.substring(recipient.indexOf('@') + 1).toLowerCase();
+			buckets.computeIfAbsent(domain, k -> new ArrayList<RecipientsEntry>()).add(recipientsEntry);
+		}
+		return buckets.values();
+	}
 
+	/**
+	 * Sends the message to a group of recipients in one SMTP transaction and
+	 * queues the flag update, report and webhook of each recipient using the
+	 * status of its own RCPT reply. Returns false if the connection is no longer
+	 * usable.
+	 */
+	private boolean send(SMTPTransport transport, List<RecipientsEntry> group) {
+		Map<InternetAddress, RecipientsEntry> addressed = new LinkedHashMap<InternetAddress, RecipientsEntry>();
+		for (RecipientsEntry recipientsEntry : group) {
+			try {
+				InternetAddress address = new InternetAddress(recipientsEntry.getRecipient(), true);
+				if (addressed.putIfAbsent(address, recipientsEntry) != null) {
+					// the same address twice in one transaction, sent in a later window
+					requeue(recipientsEntry);
+				}
+			} catch (AddressException e) {
+				complete(recipientsEntry, false, EmailStatus.FAILED, 553, e.getMessage());
+			}
+		}
+		if (addressed.isEmpty()) {
+			return true;
+		}
+		InternetAddress[] to = addressed.keySet().toArray(new InternetAddress[0]);
+		String firstMsgId = addressed.values().iterator().next().getMsgId();
+		boolean healthy = true;
+		try {
+			MimeMessage message = template.render(transportPool.getSession(), firstMsgId,
+					to.length == 1 ? to : UNDISCLOSED_RECIPIENTS);
+			logger.info(batchId + ": Sending Email To: " + (to.length == 1 ? to[0] : to.length + " Recipients"));
+			transport.sendMessage(message, template.envelope(to));
+			int statusCode = transport.getLastReturnCode();
+			String response = transport.getLastServerResponse();
+			for (RecipientsEntry recipientsEntry : addressed.values()) {
+				if (logger.isDebugEnabled()) {
+					logger.debug(batchId + " [" + recipientsEntry.getRecipient() + "]" + " SMTP Response Code: "
+							+ statusCode + " Text:" + response);
+				}
+				complete(recipientsEntry, true, classifyResponse(statusCode, response), statusCode, response);
+			}
+		} catch (SendFailedException e) {
+			logger.error(systemId + "[" + batchId + "][" + addressed.size() + " Recipients] " + e.getMessage());
+			completeFailed(transport, addressed, e);
+		} catch (MessagingException e) {
+			healthy = transport.isConnected();
+			for (RecipientsEntry recipientsEntry : addressed.values()) {
+				logger.error(systemId + "[" + batchId + "][" + recipientsEntry.getRecipient() + "]", e);
+				complete(recipientsEntry, false, EmailStatus.ERROR, 400, e.getMessage());
+			}
+		}
+		return healthy;
+	}
+
+	/**
+	 * Resolves the status of each recipient of a partially failed transaction.
+	 * Recipients accepted by the server got the message, rejected ones carry the
+	 * reply of their RCPT command and the rest fail with the transaction reply.
+	 */
+	private void completeFailed(SMTPTransport transport, Map<InternetAddress, RecipientsEntry> addressed,
+			SendFailedException e) {
+		Set<Address> sent = new HashSet<Address>();
+		if (e.getValidSentAddresses() != null) {
+			sent.addAll(Arrays.asList(e.getValidSentAddresses()));
+		}
+		Map<Address, SMTPAddressFailedException> rejected = new HashMap<Address, SMTPAddressFailedException>();
+		for (Exception next = e; next != null; next = next instanceof MessagingException
+				? ((MessagingException) next).getNextException()
+				: null) {
+			if (next instanceof SMTPAddressFailedException) {
+				SMTPAddressFailedException failed = (SMTPAddressFailedException) next;
+				rejected.put(failed.getAddress(), failed);
+			}
+		}
+		int transactionCode = e instanceof SMTPSendFailedException ? ((SMTPSendFailedException) e).getReturnCode()
+				: 550;
+		for (Map.Entry<InternetAddress, RecipientsEntry> recipient : addressed.entrySet()) {
+			if (sent.contains(recipient.getKey())) {
+				int statusCode = transport.getLastReturnCode();
+				String response = transport.getLastServerResponse();
+				complete(recipient.getValue(), true, classifyResponse(statusCode, response), statusCode, response);
+			} else if (rejected.containsKey(recipient.getKey())) {
+				SMTPAddressFailedException failed = rejected.get(recipient.getKey());
+				EmailStatus status = classifyResponse(failed.getReturnCode(), failed.getMessage());
+				complete(recipient.getValue(), false, status == EmailStatus.TEMP_FAILURE || status == EmailStatus.BLOCKED
+						? status
+						: EmailStatus.FAILED, failed.getReturnCode(), failed.getMessage());
+			} else {
+				complete(recipient.getValue(), false, EmailStatus.FAILED, transactionCode, e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Queues the flag update, report and webhook of a processed recipient.
+	 *
+	 * @param sent if the server accepted the message for the recipient.
+	 */
+	private void complete(RecipientsEntry recipientsEntry, boolean sent, EmailStatus status, int statusCode,
+			String response) {
+		rateController.record(sent, status);
+		int attempts = recipientsEntry.getAttempts() + 1;
+		if (!sent && (status == EmailStatus.TEMP_FAILURE || status == EmailStatus.BLOCKED)
+				&& attempts < GlobalVar.RETRY_MAX_ATTEMPTS) {
+			scheduleRetry(recipientsEntry, attempts, statusCode, response);
+			return;
+		}
+		if (recipientsEntry.getAttempts() > 0) {
+			retryScheduler.completed(new RetryEntry(systemId, batchId, recipientsEntry.getMsgId(),
+					recipientsEntry.getRecipient(), attempts, 0));
+		}
+		recipientsEntry.setFlag(sent ? "T" : "E");
+		if (status == EmailStatus.DELIVERED) {
+			progress.delivered();
+		}
+		// put to delete queue
+		recipientEntryService.submit(recipientsEntry);
+		pendingRecipients.completed(recipientsEntry);
+		// put to report queue
+		reportService.submit(new ReportEntry(recipientsEntry.getMsgId(), batchId, recipientsEntry.getRecipient(),
+				status.toString(), statusCode, response, entry.getCreatedOn(),
+				new Timestamp(System.currentTimeMillis()), attempts));
+		if (smtpEntry.getWebhookUrl() != null) {
+			dlrForwarder.submit(new DeliverResponse(batchId, recipientsEntry.getMsgId(), smtpEntry.getId(),
+					entry.getSubject(), recipientsEntry.getRecipient(), status.toString(),
+					new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()), smtpEntry.getWebhookUrl()));
+		}
+	}
+
+	/**
+	 * Persists a temporarily failed recipient for a later attempt. The recipient
+	 * is flagged R once its retry row is saved, so that a resumed cursor does not
+	 * pick it up again. Until then it stays F and is sent again if the service
+	 * stops before the row could be saved.
+	 */
+	private void scheduleRetry(RecipientsEntry recipientsEntry, int attempts, int statusCode, String response) {
+		long delay = RetryScheduler.backoff(attempts);
+		logger.info(systemId + "[" + batchId + "][" + recipientsEntry.getRecipient() + "] " + statusCode + " "
+				+ response + " Retry " + attempts + " In " + (delay / 1000) + "s");
+		RecipientsEntry flagged = new RecipientsEntry(recipientsEntry.getMsgId(), recipientsEntry.getRecipient(), "R");
+		retriesPending.incrementAndGet();
+		retryScheduler.schedule(new RetryEntry(systemId, batchId, recipientsEntry.getMsgId(),
+				recipientsEntry.getRecipient(), attempts, System.currentTimeMillis() + delay), this,
+				() -> {
+					recipientEntryService.submitRetry(flagged);
+					pendingRecipients.completed(recipientsEntry);
+				});
+	}
+
+	/**
+	 * Puts a recipient taken from the cursor but not sent in front of the next
+	 * window.
+	 */
+	private void requeue(RecipientsEntry recipientsEntry) {
+		retriesPending.incrementAndGet();
+		retryQueue.add(recipientsEntry);
+	}
+
+	/**
+	 * Hands a due retry back to the batch. Returns false if the batch is no longer
+	 * running, the retry then stays persisted for a resume.
+	 */
+	public boolean retry(RetryEntry retryEntry) {
+		if (stop) {
+			return false;
+		}
+		RecipientsEntry recipientsEntry = new RecipientsEntry(retryEntry.getMsgId(), retryEntry.getRecipient());
+		recipientsEntry.setAttempts(retryEntry.getAttempts());
+		retryQueue.add(recipientsEntry);
+		return true;
+	}
+
+	/**
+	 * Waits before the next connection attempt, doubling the delay up to
+	 * {@link GlobalVar#SMTP_RECONNECT_MAX_DELAY} with random jitter so senders of
+	 * different batches do not reconnect in lockstep.
+	 */
+	private void backoff(int attempt) {
+		long delay = Math.min(GlobalVar.SMTP_RECONNECT_MAX_DELAY, 1000L << Math.min(attempt - 1, 16));
+		long jittered = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+		logger.info(systemId + "[" + batchId + "] Reconnect Attempt " + attempt + " In " + jittered + " ms");
+		long until = System.currentTimeMillis() + jittered;
+		while (!stop && System.currentTimeMillis() < until) {
+			try {
+				Thread.sleep(Math.min(1000, until - System.currentTimeMillis() + 1));
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
 	}
 
 	private void listBccRecipients() {
@@ -308,7 +544,23 @@ public class EmailProcessor implements Runnable {
 
 	private void clear() {
 		boolean drop = false;
-		if (pendingRecipients.isEmpty()) {
+		String checkpointKey = systemId + "_" + batchId;
+		if (!retryQueue.isEmpty()) {
+			discarded = true; // requeued recipients left unsent, the checkpoint must not skip them
+		}
+		if (pendingRecipients.getPendingCount() == 0 && retriesPending.get() == 0 && !discarded
+				&& entry.getBatchStatus() == BatchStatus.ACTIVE && !pendingRecipients.isComplete()) {
+			// other nodes are still sending their ranges, the last one finishes the batch
+			logger.info(systemId + "[" + batchId + "] Share Finished.");
+			Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
+			if (inner != null) {
+				inner.remove(batchId, this);
+			}
+			pendingRecipients.release(entry.getBatchStatus());
+			recipientEntryService.stop(false);
+			return;
+		}
+		if (pendingRecipients.getPendingCount() == 0 && retriesPending.get() == 0 && !discarded) {
 			entry.setBatchStatus(BatchStatus.FINISHED);
 			logger.info(systemId + "[" + batchId + "] Batch Finished.");
 			drop = true;
@@ -316,7 +568,15 @@ public class EmailProcessor implements Runnable {
 			logger.info(systemId + "[" + batchId + "] Batch Aborted.");
 			drop = true;
 		}
+		if (entry.getBatchStatus() == BatchStatus.PAUSED && pendingRecipients.getCheckpoint() > 0 && !discarded) {
+			GlobalVar.recipientCheckpoints.put(checkpointKey, pendingRecipients.getCheckpoint());
+			logger.info(systemId + "[" + batchId + "] Paused At Checkpoint: " + pendingRecipients.getCheckpoint());
+		} else {
+			GlobalVar.recipientCheckpoints.remove(checkpointKey);
+		}
+		retryScheduler.cancel(systemId, batchId, entry.getBatchStatus() == BatchStatus.ABORTED);
 		service.updateBatchStatus(systemId, batchId, entry.getBatchStatus().toString());
+		pendingRecipients.release(entry.getBatchStatus());
 		recipientEntryService.stop(drop);
 	}
 
@@ -345,33 +605,39 @@ public class EmailProcessor implements Runnable {
 	public void reloadSmtpConfiguration() throws InvalidRequestException {
 		logger.info(systemId + "_" + batchId + " Reload Smtp Configuration Requested.");
 		loadSmtpConfiguration();
+		if (template != null && !renderTemplate()) {
+			throw new InvalidRequestException("Message Rendering Failed With Updated Smtp Configuration");
+		}
 		logger.info(systemId + "_" + batchId + " Reloaded Smtp Configuration.");
-		reconnect = true;
 	}
 
+	/**
+	 * Status of an SMTP reply by its code. Only 4xx and 5xx replies are looked
+	 * at for throttling, authentication and rejection wording, so the text of a
+	 * successful reply can not feed a throttle into the {@link SendRateController}.
+	 */
 	public EmailStatus classifyResponse(int code, String response) {
-		String lower = response.toLowerCase();
+		if (code >= 200 && code < 300)
+			return EmailStatus.DELIVERED;
+		if (code >= 300 && code < 400)
+			return EmailStatus.PENDING; // <-- 3xx are intermediate responses
+		if (code < 400 || code >= 600)
+			return EmailStatus.UNKNOWN;
 
-		if (lower.contains("limit") || lower.contains("rate") || lower.contains("too many")) {
+		String lower = response != null ? response.toLowerCase() : "";
+		if (THROTTLE_REPLY.matcher(lower).find()) {
 			return EmailStatus.BLOCKED;
 		}
-		if (lower.contains("auth") || lower.contains("login")) {
+		if (AUTH_REPLY.matcher(lower).find()) {
 			return EmailStatus.AUTH_ERROR;
 		}
-		if (lower.contains("reject") || lower.contains("denied") || lower.contains("spam")) {
+		if (REJECT_REPLY.matcher(lower).find()) {
 			return EmailStatus.REJECTED;
 		}
 
-		if (code >= 200 && code < 300)
-			return EmailStatus.DELIVERED;
-		if (code >= 300 && code < 400)
-			return EmailStatus.PENDING; // <-- 3xx are intermediate responses
-		if (code >= 400 && code < 500)
+		if (code < 500)
 			return EmailStatus.TEMP_FAILURE;
-		if (code >= 500 && code < 600)
-			return EmailStatus.FAILED;
-
-		return EmailStatus.UNKNOWN;
+		return EmailStatus.FAILED;
 	}
 
 	public void stop(BatchStatus status) {
@@ -38,6 +38,7 @@ import com.hti.database.service.InboxService;
 import com.hti.entity.ImapEntry;
 import com.hti.service.SingletonService;
 import com.hti.util.GlobalVar;
+import com.hti.util.Threads;
 import com.sun.mail.imap.IMAPFolder;
 import com.sun.mail.imap.IMAPStore;
 
@@ -60,7 +61,7 @@ public class ImapIdleListener implements Runnable {
 		this.smtpEntry = smtpEntry;
 		this.keyName = smtpEntry.getSystemId() + "_" + smtpEntry.getId();
 		this.insertService = SingletonService.getUserInboxService(smtpEntry.getSystemId());
-		new Thread(this, keyName + "_ImapIdleListener").start();
+		Threads.start(keyName + "_ImapIdleListener", this);
 	}
 
 	@Override
@@ -0,0 +1,146 @@
+package com.hti.process;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Set;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMessage;
+import javax.mail.internet.MimeMultipart;
+import javax.mail.internet.MimeUtility;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.entity.EmailEntry;
+
+/**
+ * Batch level rendering of the message. Subject, body, CC and attachments are
+ * identical for every recipient, so the message is encoded once and only the
+ * To, Message-ID and Date headers are written per recipient in front of the
+ * cached bytes.
+ */
+public class MimeTemplate {
+
+	private static final String[] PER_RECIPIENT_HEADERS = { "To", "Message-ID", "Date", "Bcc", "Content-Length" };
+	private Logger logger = LoggerFactory.getLogger(MimeTemplate.class);
+	private final String batchId;
+	private final InternetAddress[] fromAddress;
+	private final InternetAddress[] copyRecipients;
+	private final String domain;
+	private final byte[] rendered;
+
+	public MimeTemplate(Session session, EmailEntry entry, String fromUser, Set<String> ccRecipients,
+			Set<String> bccRecipients, Set<File> attachments) throws MessagingException, IOException {
+		this.batchId = entry.getBatchId();
+		this.fromAddress = new InternetAddress[] { new InternetAddress(fromUser) };
+		this.domain = fromUser.contains("@") ? fromUser.substring(fromUser.indexOf('@') + 1) : "localhost";
+		MimeMessage message = new MimeMessage(session);
+		message.setFrom(fromAddress[0]);
+		InternetAddress[] ccaddress = toAddresses(ccRecipients);
+		if (ccaddress.length > 0) {
+			message.setRecipients(Message.RecipientType.CC, ccaddress);
+		}
+		InternetAddress[] bccaddress = toAddresses(bccRecipients);
+		this.copyRecipients = new InternetAddress[ccaddress.length + bccaddress.length];
+		System.arraycopy(ccaddress, 0, copyRecipients, 0, ccaddress.length);
+		System.arraycopy(bccaddress, 0, copyRecipients, ccaddress.length, bccaddress.length);
+		message.setSubject(entry.getSubject());
+		Multipart multipart = new MimeMultipart();
+
+		MimeBodyPart textBodyPart = new MimeBodyPart();
+		textBodyPart.setText(entry.getBody(), "utf-8");
+		multipart.addBodyPart(textBodyPart);
+
+		for (File file : attachments) {
+			MimeBodyPart attachmentPart = new MimeBodyPart();
+			try {
+				attachmentPart.attachFile(file);
+				multipart.addBodyPart(attachmentPart);
+				logger.info(batchId + ": attached file " + file.getName());
+			} catch (IOException e) {
+				logger.error(batchId + ": attachement file Error " + file.getName(), e.getMessage());
+			}
+		}
+		message.setContent(multipart);
+		message.saveChanges();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		message.writeTo(out, PER_RECIPIENT_HEADERS);
+		this.rendered = out.toByteArray();
+		logger.info(batchId + ": Message Template Rendered. Size: " + rendered.length + " bytes");
+	}
+
+	private InternetAddress[] toAddresses(Set<String> recipients) throws MessagingException {
+		InternetAddress[] addresses = new InternetAddress[recipients.size()];
+		int i = 0;
+		for (String recipient : recipients) {
+			addresses[i++] = new InternetAddress(recipient);
+		}
+		return addresses;
+	}
+
+	/**
+	 * Message addressed to the given recipients, sharing the rendered content.
+	 */
+	public MimeMessage render(Session session, String msgId, InternetAddress[] to) {
+		StringBuilder headers = new StringBuilder(128);
+		headers.append(MimeUtility.fold(4, "To: " + InternetAddress.toString(to))).append("\r\n");
+		headers.append("Message-ID: <").append(msgId).append('.').append(batchId).append('@')
+				.append(domain).append(">\r\n");
+		headers.append("Date: ").append(DateTimeFormatter.RFC_1123_DATE_TIME.format(ZonedDateTime.now()))
+				.append("\r\n");
+		return new TemplateMessage(session, headers.toString().getBytes(StandardCharsets.US_ASCII));
+	}
+
+	/**
+	 * Envelope recipients of a message: the given To addresses plus the batch CC
+	 * and BCC recipients.
+	 */
+	public Address[] envelope(InternetAddress[] to) {
+		if (copyRecipients.length == 0) {
+			return to;
+		}
+		Address[] envelope = new Address[to.length + copyRecipients.length];
+		System.arraycopy(to, 0, envelope, 0, to.length);
+		System.arraycopy(copyRecipients, 0, envelope, to.length, copyRecipients.length);
+		return envelope;
+	}
+
+	private class TemplateMessage extends MimeMessage {
+		private final byte[] recipientHeaders;
+
+		private TemplateMessage(Session session, byte[] recipientHeaders) {
+			super(session);
+			this.recipientHeaders = recipientHeaders;
+		}
+
+		@Override
+		public Address[] getFrom() {
+			return fromAddress;
+		}
+
+		@Override
+		public void writeTo(OutputStream os) throws IOException {
+			writeTo(os, null);
+		}
+
+		@Override
+		public void writeTo(OutputStream os, String[] ignoreList) throws IOException {
+			os.write(recipientHeaders);
+			os.write(rendered);
+			os.flush();
+		}
+	}
+
+}
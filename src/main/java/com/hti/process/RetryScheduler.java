@@ -0,0 +1,271 @@
+package com.hti.process;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.database.service.DBService;
+import com.hti.entity.RetryEntry;
+import com.hti.util.GlobalVar;
+
+/**
+ * Durable retry schedule of temporarily failed recipients. Scheduled retries
+ * are persisted in the retry_schedule table and kept in a hashed timing wheel
+ * of one second ticks; when due they are handed back to the processor that
+ * scheduled them. Retries of a batch that is no longer running stay in the
+ * table and are restored when the batch is resumed. All database work is done by the
+ * wheel thread so that senders never wait on it. The R flag of a recipient is
+ * only written once its retry row is saved, and saves or deletes that failed
+ * are kept and tried again on the next tick, so an R recipient always has a
+ * retry row. A retry is not handed back before its row is saved, its final
+ * flag could otherwise be overwritten by the late R flag.
+ */
+public class RetryScheduler implements Runnable {
+
+	private static final int WHEEL_SIZE = 512;
+	private static final long TICK_DURATION = 1000;
+	private static RetryScheduler instance;
+	private Logger logger = LoggerFactory.getLogger(RetryScheduler.class);
+	private DBService service = new DBService();
+	private final Queue<Timeout>[] wheel;
+	private final long startTime = System.currentTimeMillis();
+	private volatile long tick;
+	private volatile boolean stop;
+	private Map<String, Set<Timeout>> batchTimeouts = new ConcurrentHashMap<String, Set<Timeout>>();
+	private Queue<PendingSave> saveQueue = new ConcurrentLinkedQueue<PendingSave>();
+	private Queue<RetryEntry> deleteQueue = new ConcurrentLinkedQueue<RetryEntry>();
+	// failed writes, tried again before newer ones to keep their order
+	private List<PendingSave> unsaved = new ArrayList<PendingSave>();
+	private List<RetryEntry> undeleted = new ArrayList<RetryEntry>();
+	private Queue<String[]> abortQueue = new ConcurrentLinkedQueue<String[]>();
+
+	@SuppressWarnings("unchecked")
+	private RetryScheduler() {
+		wheel = new Queue[WHEEL_SIZE];
+		for (int i = 0; i < WHEEL_SIZE; i++) {
+			wheel[i] = new ConcurrentLinkedQueue<Timeout>();
+		}
+		service.createRetryTable();
+		Thread thread = new Thread(this, "RetryWheel");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public static synchronized RetryScheduler getInstance() {
+		if (instance == null) {
+			instance = new RetryScheduler();
+		}
+		return instance;
+	}
+
+	public static synchronized void shutdown() {
+		if (instance != null) {
+			instance.stop = true;
+			synchronized (instance) {
+				instance.flush();
+				if (!instance.unsaved.isEmpty()) {
+					// their recipients are still flagged F and sent again on resume
+					instance.logger.warn("Retries Not Saved At Shutdown: " + instance.unsaved.size());
+				}
+			}
+			instance = null;
+		}
+	}
+
+	/**
+	 * Delay before the given attempt, doubling from
+	 * {@link GlobalVar#RETRY_INITIAL_DELAY} up to {@link GlobalVar#RETRY_MAX_DELAY}
+	 * seconds.
+	 */
+	public static long backoff(int attempt) {
+		long delay = Math.min(GlobalVar.RETRY_MAX_DELAY,
+				(long) GlobalVar.RETRY_INITIAL_DELAY << Math.min(attempt - 1, 20));
+		return delay * 1000;
+	}
+
+	/**
+	 * Persists and schedules a retry.
+	 *
+	 * @param saved run once the retry row is written.
+	 */
+	public void schedule(RetryEntry entry, EmailProcessor processor, Runnable saved) {
+		saveQueue.add(new PendingSave(add(entry, processor, false), saved));
+	}
+
+	/**
+	 * Reloads the persisted retries of a batch into the wheel.
+	 */
+	public int restore(String systemId, String batchId, EmailProcessor processor) {
+		List<RetryEntry> list = service.listRetries(systemId, batchId);
+		for (RetryEntry entry : list) {
+			add(entry, processor, true);
+		}
+		if (!list.isEmpty()) {
+			logger.info(systemId + "[" + batchId + "] Restored Retries: " + list.size());
+		}
+		return list.size();
+	}
+
+	/**
+	 * Removes the persisted retry of a recipient that reached a final status.
+	 */
+	public void completed(RetryEntry entry) {
+		deleteQueue.add(entry);
+	}
+
+	/**
+	 * Removes the retries of a stopped batch from the wheel. Persisted retries
+	 * are kept for a resume unless the batch is dropped.
+	 */
+	public void cancel(String systemId, String batchId, boolean drop) {
+		Set<Timeout> timeouts = batchTimeouts.remove(systemId + "_" + batchId);
+		if (timeouts != null) {
+			for (Timeout timeout : timeouts) {
+				timeout.cancelled = true;
+			}
+		}
+		if (drop) {
+			abortQueue.add(new String[] { systemId, batchId });
+		}
+	}
+
+	private Timeout add(RetryEntry entry, EmailProcessor processor, boolean saved) {
+		long deadline = Math.max(tick + 1, (entry.getDueTime() - startTime) / TICK_DURATION);
+		Timeout timeout = new Timeout(entry, processor, deadline, saved);
+		batchTimeouts.computeIfAbsent(entry.getSystemId() + "_" + entry.getBatchId(),
+				k -> ConcurrentHashMap.newKeySet()).add(timeout);
+		wheel[(int) (deadline % WHEEL_SIZE)].add(timeout);
+		return timeout;
+	}
+
+	@Override
+	public void run() {
+		logger.info("Retry Scheduler Started");
+		long nextTick = startTime;
+		while (!stop) {
+			long sleep = nextTick - System.currentTimeMillis();
+			if (sleep > 0) {
+				try {
+					Thread.sleep(sleep);
+				} catch (InterruptedException e) {
+					break;
+				}
+			}
+			nextTick += TICK_DURATION;
+			tick++;
+			try {
+				expire(wheel[(int) (tick % WHEEL_SIZE)]);
+				synchronized (this) {
+					flush();
+				}
+			} catch (Exception e) {
+				logger.error("Retry Scheduler", e);
+			}
+		}
+		logger.info("Retry Scheduler Stopped");
+	}
+
+	private void expire(Queue<Timeout> slot) {
+		Iterator<Timeout> iterator = slot.iterator();
+		while (iterator.hasNext()) {
+			Timeout timeout = iterator.next();
+			if (timeout.cancelled) {
+				iterator.remove();
+			} else if (timeout.deadline <= tick) {
+				iterator.remove();
+				if (!timeout.saved) {
+					// row not saved yet, checked again on the next tick
+					timeout.deadline = tick + 1;
+					wheel[(int) (timeout.deadline % WHEEL_SIZE)].add(timeout);
+					continue;
+				}
+				RetryEntry entry = timeout.entry;
+				Set<Timeout> timeouts = batchTimeouts.get(entry.getSystemId() + "_" + entry.getBatchId());
+				if (timeouts != null) {
+					timeouts.remove(timeout);
+				}
+				if (!timeout.processor.retry(entry)) {
+					logger.info(entry.getSystemId() + "[" + entry.getBatchId() + "] Batch Not Running, Retry Kept For "
+							+ entry.getRecipient());
+				}
+			}
+		}
+	}
+
+	private void flush() {
+		PendingSave pending;
+		while ((pending = saveQueue.poll()) != null) {
+			unsaved.add(pending);
+		}
+		if (!unsaved.isEmpty()) {
+			List<RetryEntry> list = new ArrayList<RetryEntry>(unsaved.size());
+			for (PendingSave save : unsaved) {
+				list.add(save.entry);
+			}
+			if (!service.saveRetries(list)) {
+				return; // kept, deletes wait so that they follow the saves
+			}
+			for (PendingSave save : unsaved) {
+				save.timeout.saved = true;
+				save.saved.run();
+			}
+			unsaved.clear();
+		}
+		undeleted.addAll(drain(deleteQueue));
+		if (!undeleted.isEmpty()) {
+			if (!service.deleteRetries(undeleted)) {
+				return;
+			}
+			undeleted.clear();
+		}
+		String[] batch;
+		while ((batch = abortQueue.poll()) != null) {
+			service.deleteRetries(batch[0], batch[1]);
+		}
+	}
+
+	private List<RetryEntry> drain(Queue<RetryEntry> queue) {
+		List<RetryEntry> list = new ArrayList<RetryEntry>();
+		RetryEntry entry;
+		while ((entry = queue.poll()) != null) {
+			list.add(entry);
+		}
+		return list;
+	}
+
+	private static class PendingSave {
+		private final RetryEntry entry;
+		private final Timeout timeout;
+		private final Runnable saved;
+
+		private PendingSave(Timeout timeout, Runnable saved) {
+			this.entry = timeout.entry;
+			this.timeout = timeout;
+			this.saved = saved;
+		}
+	}
+
+	private static class Timeout {
+		private final RetryEntry entry;
+		private final EmailProcessor processor;
+		private long deadline;
+		private volatile boolean saved;
+		private volatile boolean cancelled;
+
+		private Timeout(RetryEntry entry, EmailProcessor processor, long deadline, boolean saved) {
+			this.entry = entry;
+			this.processor = processor;
+			this.deadline = deadline;
+			this.saved = saved;
+		}
+	}
+
+}
@@ -2,7 +2,6 @@ package com.hti.process;
 
 import java.time.Duration;
 import java.time.LocalDateTime;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -20,9 +19,12 @@ import com.hti.entity.EmailEntry;
 import com.hti.entity.EmailEntry.BatchStatus;
 import com.hti.entity.EmailEntry.BatchType;
 import com.hti.exception.ProcessingException;
-import com.hti.entity.RecipientsEntry;
 import com.hti.entity.ScheduleEntry;
+import com.hti.util.CompactRecipientList;
 import com.hti.util.GlobalVar;
+import com.hti.util.LeasedRecipientCursor;
+import com.hti.util.ListRecipientCursor;
+import com.hti.util.MessageIdGenerator;
 
 import jakarta.annotation.PostConstruct;
 import jakarta.annotation.PreDestroy;
@@ -118,11 +120,11 @@ public class SchedulerManager {
 		entry.setBatchType(BatchType.SCHEDULED);
 		entry.setBatchStatus(BatchStatus.ACTIVE);
 		List<String> recipients = dbService.listScheduledRecipients(systemId, batchId);
-		List<RecipientsEntry> recipientsEntries = new ArrayList<RecipientsEntry>();
+		CompactRecipientList recipientsEntries = new CompactRecipientList(recipients.size());
 		for (String recipient : recipients) {
-			recipientsEntries.add(new RecipientsEntry(GlobalVar.assignMessageId(), recipient, "F"));
+			recipientsEntries.add(MessageIdGenerator.nextId(), recipient, 'F');
 		}
-		entry.setPendingRecipientList(recipientsEntries);
+		entry.setPendingRecipients(new ListRecipientCursor(recipientsEntries));
 		if (!dbService.createBatchEntry(entry)) {
 			logger.error(systemId + "[" + batchId + "]: Batch Entry Creation Failed.");
 			throw new ProcessingException("Batch Entry Creation Failed");
@@ -132,6 +134,11 @@ public class SchedulerManager {
 			logger.error(systemId + "[" + batchId + "]: Recipients Entry Creation Failed.");
 			throw new ProcessingException("Recipients Entry Creation Failed");
 		}
+		if (GlobalVar.CLUSTER_MODE) {
+			ClusterCoordinator.getInstance().distribute(systemId, batchId, recipientsEntries);
+			recipientsEntries.close();
+			entry.setPendingRecipients(new LeasedRecipientCursor(systemId, batchId));
+		}
 		EmailProcessor processor = new EmailProcessor(entry);
 		GlobalVar.processingMap.computeIfAbsent(systemId, k -> new ConcurrentHashMap<>()).put(batchId, processor);
 		dbService.clearScheduleEntry(systemId, batchId);
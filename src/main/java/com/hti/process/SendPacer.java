@@ -0,0 +1,52 @@
+package com.hti.process;
+
+import com.hti.entity.SmtpEntry;
+import com.hti.util.TokenBucket;
+
+/**
+ * Send pacing of a batch. Every batch on an smtp account draws from the token
+ * bucket of that account, whose rate is adapted by its
+ * {@link SendRateController}, and a batch with a delay additionally draws from
+ * its own bucket of one message per delay.
+ */
+public class SendPacer {
+
+	private final TokenBucket accountBucket;
+	private final TokenBucket batchBucket;
+
+	public SendPacer(SmtpEntry smtpEntry, double delay) {
+		this.accountBucket = SendRateController.get(smtpEntry.getId()).getBucket();
+		this.batchBucket = delay > 0 ? new TokenBucket(1 / delay, 1) : null;
+	}
+
+	/**
+	 * Tries to take permits for the given number of messages from the batch and
+	 * account buckets without blocking.
+	 *
+	 * @return 0 if granted, otherwise nanoseconds to wait before trying again.
+	 */
+	public long tryAcquire(int permits) {
+		if (batchBucket != null) {
+			long wait = batchBucket.tryAcquire(permits);
+			if (wait > 0) {
+				return wait;
+			}
+		}
+		long wait = accountBucket.tryAcquire(permits);
+		if (wait > 0 && batchBucket != null) {
+			batchBucket.refund(permits);
+		}
+		return wait;
+	}
+
+	/**
+	 * Gives back permits granted by {@link #tryAcquire(int)} but not used.
+	 */
+	public void refund(int permits) {
+		if (batchBucket != null) {
+			batchBucket.refund(permits);
+		}
+		accountBucket.refund(permits);
+	}
+
+}
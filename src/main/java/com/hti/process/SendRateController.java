@@ -0,0 +1,169 @@
+package com.hti.process;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.util.EmailStatus;
+import com.hti.util.GlobalVar;
+import com.hti.util.TokenBucket;
+
+/**
+ * Adaptive send rate of an smtp account. Throttling and temporary failure
+ * replies cut the rate and the number of concurrent senders multiplicatively,
+ * a streak of accepted messages raises them additively, so that sending settles
+ * at what the relay accepts. The rate is applied to the token bucket of the
+ * account shared by all its batches. The configured rate and burst of an account
+ * are set by smtp.rate.per.second.&lt;smtpId&gt; and
+ * smtp.rate.burst.&lt;smtpId&gt;, falling back to the global ones.
+ */
+public class SendRateController {
+
+	private static Logger logger = LoggerFactory.getLogger(SendRateController.class);
+	private static Map<Integer, SendRateController> controllers = new ConcurrentHashMap<Integer, SendRateController>();
+	private final int smtpId;
+	private final TokenBucket bucket;
+	private final double ceiling; // configured rate, 0 for unlimited
+	private final int burst;
+	private double rate; // 0 while not limited
+	private int concurrency;
+	private int active;
+	private int successStreak;
+	private long lastDecrease;
+	private long throttled;
+	private double measuredRate;
+	private long windowStart = System.currentTimeMillis();
+	private int windowCount;
+
+	private SendRateController(int smtpId) {
+		this.smtpId = smtpId;
+		this.ceiling = GlobalVar.SMTP_RATE_PER_SECOND_BY_ACCOUNT.getOrDefault(smtpId, GlobalVar.SMTP_RATE_PER_SECOND);
+		this.burst = GlobalVar.SMTP_RATE_BURST_BY_ACCOUNT.getOrDefault(smtpId, GlobalVar.SMTP_RATE_BURST);
+		this.rate = ceiling;
+		this.concurrency = GlobalVar.SMTP_POOL_MAX_CONNECTIONS;
+		this.bucket = new TokenBucket(rate, burst);
+	}
+
+	public static SendRateController get(int smtpId) {
+		return controllers.computeIfAbsent(smtpId, k -> new SendRateController(k));
+	}
+
+	public static void remove(int smtpId) {
+		controllers.remove(smtpId);
+	}
+
+	public TokenBucket getBucket() {
+		return bucket;
+	}
+
+	/**
+	 * Takes a sender slot if the account is below its current concurrency limit.
+	 */
+	public synchronized boolean tryEnter() {
+		if (active < concurrency) {
+			active++;
+			return true;
+		}
+		return false;
+	}
+
+	public synchronized void exit() {
+		active--;
+	}
+
+	/**
+	 * Feeds the outcome of one recipient into the controller.
+	 */
+	public void record(boolean sent, EmailStatus status) {
+		if (status == EmailStatus.BLOCKED || status == EmailStatus.TEMP_FAILURE) {
+			decrease();
+		} else if (sent) {
+			increase();
+		}
+	}
+
+	private synchronized void decrease() {
+		throttled++;
+		successStreak = 0;
+		long now = System.currentTimeMillis();
+		if (now - lastDecrease < GlobalVar.AIMD_COOLDOWN) {
+			return; // replies of transactions already in flight
+		}
+		lastDecrease = now;
+		double base = rate > 0 ? rate : Math.max(measuredRate, GlobalVar.AIMD_MIN_RATE);
+		rate = Math.max(GlobalVar.AIMD_MIN_RATE, base * GlobalVar.AIMD_DECREASE_FACTOR);
+		concurrency = Math.max(1, (int) (concurrency * GlobalVar.AIMD_DECREASE_FACTOR));
+		apply();
+		logger.warn("Smtp[" + smtpId + "] Throttled, Rate Reduced To " + String.format("%.2f", rate)
+				+ "/s Concurrency: " + concurrency);
+	}
+
+	private synchronized void increase() {
+		long now = System.currentTimeMillis();
+		windowCount++;
+		if (now - windowStart >= 1000) {
+			measuredRate = windowCount * 1000d / (now - windowStart);
+			windowStart = now;
+			windowCount = 0;
+		}
+		if (++successStreak < GlobalVar.AIMD_SUCCESS_WINDOW) {
+			return;
+		}
+		successStreak = 0;
+		boolean changed = false;
+		if (concurrency < GlobalVar.SMTP_POOL_MAX_CONNECTIONS) {
+			concurrency++;
+			changed = true;
+		}
+		if (rate > 0 && (ceiling <= 0 || rate < ceiling)) {
+			rate += GlobalVar.AIMD_INCREASE_STEP;
+			if (ceiling > 0 && rate > ceiling) {
+				rate = ceiling;
+			}
+			changed = true;
+		}
+		if (changed) {
+			apply();
+		}
+	}
+
+	private void apply() {
+		bucket.setRate(rate, Math.max(1, Math.min(burst, (int) rate)));
+	}
+
+	public synchronized Map<String, Object> getStats() {
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("smtpId", smtpId);
+		stats.put("rate", rate);
+		stats.put("measuredRate", measuredRate);
+		stats.put("concurrency", concurrency);
+		stats.put("activeSenders", active);
+		stats.put("throttled", throttled);
+		return stats;
+	}
+
+	public static List<Map<String, Object>> listStats(Iterable<Integer> smtpIds) {
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (Integer smtpId : smtpIds) {
+			SendRateController controller = controllers.get(smtpId);
+			if (controller != null) {
+				list.add(controller.getStats());
+			}
+		}
+		return list;
+	}
+
+	public static void logStats() {
+		for (SendRateController controller : controllers.values()) {
+			if (controller.active > 0) {
+				logger.info("Smtp Rate: " + controller.getStats());
+			}
+		}
+	}
+
+}
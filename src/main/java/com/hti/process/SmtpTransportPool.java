@@ -0,0 +1,217 @@
+package com.hti.process;
+
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.mail.MessagingException;
+import javax.mail.PasswordAuthentication;
+import javax.mail.Session;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.entity.SmtpEntry;
+import com.hti.util.GlobalVar;
+import com.sun.mail.smtp.SMTPTransport;
+
+/**
+ * Pool of authenticated SMTP connections for one smtp account, shared by every
+ * batch sending through that account. At most
+ * {@link GlobalVar#SMTP_POOL_MAX_CONNECTIONS} connections are open at a time,
+ * idle connections are kept for reuse by later batches and closed after
+ * {@link GlobalVar#SMTP_POOL_IDLE_TIMEOUT} seconds.
+ */
+public class SmtpTransportPool {
+
+	private static final long VALIDATE_AFTER_IDLE = 30_000; // NOOP check before reuse
+	private static Logger logger = LoggerFactory.getLogger(SmtpTransportPool.class);
+	private static Map<Integer, SmtpTransportPool> pools = new ConcurrentHashMap<Integer, SmtpTransportPool>();
+	private static ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+		Thread thread = new Thread(r, "SmtpPoolEvictor");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	static {
+		evictor.scheduleWithFixedDelay(() -> pools.values().forEach(SmtpTransportPool::evictIdle), 30, 30,
+				TimeUnit.SECONDS);
+	}
+
+	private volatile SmtpEntry smtpEntry;
+	private volatile Session session;
+	private volatile int generation;
+	private final Deque<PooledTransport> idle = new ConcurrentLinkedDeque<PooledTransport>();
+	private final Semaphore permits;
+
+	/**
+	 * Connection borrowed from the pool. Must be handed back with
+	 * {@link SmtpTransportPool#release(PooledTransport, boolean)}.
+	 */
+	public static class PooledTransport {
+		private final SMTPTransport transport;
+		private final int generation;
+		private long lastUsed;
+
+		private PooledTransport(SMTPTransport transport, int generation) {
+			this.transport = transport;
+			this.generation = generation;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		public SMTPTransport getTransport() {
+			return transport;
+		}
+	}
+
+	private SmtpTransportPool(SmtpEntry smtpEntry) {
+		this.permits = new Semaphore(GlobalVar.SMTP_POOL_MAX_CONNECTIONS);
+		configure(smtpEntry);
+	}
+
+	/**
+	 * Returns the pool of the smtp account, reconfiguring it if the entry has been
+	 * reloaded since the pool was created.
+	 */
+	public static SmtpTransportPool getPool(SmtpEntry smtpEntry) {
+		SmtpTransportPool pool = pools.computeIfAbsent(smtpEntry.getId(), k -> new SmtpTransportPool(smtpEntry));
+		if (pool.smtpEntry != smtpEntry) {
+			pool.configure(smtpEntry);
+		}
+		return pool;
+	}
+
+	/**
+	 * Closes and forgets the pool of a removed smtp account.
+	 */
+	public static void removePool(int smtpId) {
+		SmtpTransportPool pool = pools.remove(smtpId);
+		if (pool != null) {
+			pool.generation++;
+			pool.closeIdle();
+		}
+	}
+
+	public static void closeAll() {
+		pools.values().forEach(SmtpTransportPool::closeIdle);
+		pools.clear();
+	}
+
+	private synchronized void configure(SmtpEntry smtpEntry) {
+		if (this.smtpEntry != null) {
+			logger.info(smtpEntry.getId() + " Smtp Pool Reconfigured. Closing Idle Connections.");
+		}
+		Properties smtpProps = new Properties();
+		smtpProps.put("mail.smtp.host", smtpEntry.getHost());
+		smtpProps.put("mail.transport.protocol", "smtp");
+		smtpProps.put("mail.smtp.port", smtpEntry.getPort());
+		smtpProps.put("mail.smtp.auth", "true");
+		smtpProps.put("mail.smtp.connectiontimeout", String.valueOf(GlobalVar.SMTP_SEND_TIMEOUT));
+		smtpProps.put("mail.smtp.timeout", String.valueOf(GlobalVar.SMTP_SEND_TIMEOUT));
+		smtpProps.put("mail.smtp.writetimeout", String.valueOf(GlobalVar.SMTP_SEND_TIMEOUT));
+		// deliver to accepted recipients when others of the envelope are rejected
+		smtpProps.put("mail.smtp.sendpartial", "true");
+		switch (smtpEntry.getEncryptionType()) {
+		case STARTTLS -> smtpProps.put("mail.smtp.starttls.enable", "true");
+		case SSL -> {
+			smtpProps.put("mail.smtp.ssl.enable", "true");
+			smtpProps.put("mail.smtp.socketFactory.class", "javax.net.ssl.SSLSocketFactory");
+		}
+		case NONE -> {
+			smtpProps.put("mail.smtp.starttls.enable", "false");
+			smtpProps.put("mail.smtp.ssl.enable", "false");
+		}
+		}
+		this.session = Session.getInstance(smtpProps, new javax.mail.Authenticator() {
+			@Override
+			protected PasswordAuthentication getPasswordAuthentication() {
+				return new PasswordAuthentication(smtpEntry.getEmailUser(), smtpEntry.getEmailPassword());
+			}
+		});
+		this.smtpEntry = smtpEntry;
+		this.generation++;
+		closeIdle();
+	}
+
+	public Session getSession() {
+		return session;
+	}
+
+	/**
+	 * Borrows a connected transport, opening a new connection if no idle one is
+	 * available. Returns null if all connections stay busy for the given time.
+	 */
+	public PooledTransport borrow(long timeout, TimeUnit unit) throws MessagingException, InterruptedException {
+		if (!permits.tryAcquire(timeout, unit)) {
+			return null;
+		}
+		try {
+			PooledTransport pooled;
+			while ((pooled = idle.pollFirst()) != null) {
+				if (pooled.generation == generation && (System.currentTimeMillis() - pooled.lastUsed < VALIDATE_AFTER_IDLE
+						|| pooled.transport.isConnected())) {
+					return pooled;
+				}
+				close(pooled);
+			}
+			int currentGeneration = generation;
+			SMTPTransport transport = (SMTPTransport) session.getTransport("smtp");
+			logger.info(smtpEntry.getId() + " Opening Smtp Connection <" + smtpEntry.getHost() + " "
+					+ smtpEntry.getPort() + ">");
+			transport.connect();
+			return new PooledTransport(transport, currentGeneration);
+		} catch (MessagingException | RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Returns a borrowed transport. Unhealthy or outdated connections are closed
+	 * instead of being kept for reuse.
+	 */
+	public void release(PooledTransport pooled, boolean healthy) {
+		if (healthy && pooled.generation == generation) {
+			pooled.lastUsed = System.currentTimeMillis();
+			idle.offerFirst(pooled);
+		} else {
+			close(pooled);
+		}
+		permits.release();
+	}
+
+	private void evictIdle() {
+		long idleTimeout = GlobalVar.SMTP_POOL_IDLE_TIMEOUT * 1000L;
+		Iterator<PooledTransport> itr = idle.descendingIterator();
+		while (itr.hasNext()) {
+			PooledTransport pooled = itr.next();
+			if (System.currentTimeMillis() - pooled.lastUsed > idleTimeout && idle.removeLastOccurrence(pooled)) {
+				logger.info(smtpEntry.getId() + " Closing Idle Smtp Connection.");
+				close(pooled);
+			}
+		}
+	}
+
+	private void closeIdle() {
+		PooledTransport pooled;
+		while ((pooled = idle.pollFirst()) != null) {
+			close(pooled);
+		}
+	}
+
+	private void close(PooledTransport pooled) {
+		try {
+			pooled.transport.close();
+		} catch (MessagingException e) {
+			logger.debug(smtpEntry.getId() + " Smtp Connection Close Error: " + e.getMessage());
+		}
+	}
+
+}
@@ -1,6 +1,7 @@
 package com.hti.service;
 
 import java.util.List;
+import java.util.Map;
 
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.multipart.MultipartFile;
@@ -31,5 +32,9 @@ public interface BatchService {
 	public List<EmailProcessResponse> getAllBulk(String systemId, String ipAddress,
 			BatchProcessFilterRequest batchProcessFilterRequest);
 
+	public List<Map<String, Object>> getSmtpRates(String systemId);
+
+	public Map<String, Object> getProgress(String systemId, String batchId);
+
 
 }
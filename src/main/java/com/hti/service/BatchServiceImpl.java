@@ -6,6 +6,7 @@ import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
 import org.json.JSONArray;
@@ -16,11 +17,12 @@ import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import com.hazelcast.internal.json.JsonArray;
+import com.hti.database.service.BatchProgress;
 import com.hti.database.service.DBService;
 import com.hti.entity.EmailEntry;
 import com.hti.entity.EmailEntry.BatchStatus;
 import com.hti.entity.EmailEntry.BatchType;
-import com.hti.entity.RecipientsEntry;
+import com.hti.entity.SmtpEntry;
 import com.hti.exception.InvalidRequestException;
 import com.hti.exception.ProcessingException;
 import com.hti.model.BatchProcessFilterRequest;
@@ -28,9 +30,17 @@ import com.hti.model.EmailProcessResponse;
 import com.hti.model.EmailRequest;
 import com.hti.model.EmailScheduleResponse;
 import com.hti.model.ScheduleEmailRequest;
+import com.hti.process.ClusterCoordinator;
 import com.hti.process.EmailProcessor;
+import com.hti.process.SendRateController;
+import com.hti.util.CompactRecipientList;
 import com.hti.util.DiskMultipartFile;
 import com.hti.util.GlobalVar;
+import com.hti.util.LeasedRecipientCursor;
+import com.hti.util.ListRecipientCursor;
+import com.hti.util.MessageIdGenerator;
+import com.hti.util.PagedRecipientCursor;
+import com.hti.util.RecipientCursor;
 
 import jakarta.validation.Valid;
 import jakarta.validation.constraints.NotBlank;
@@ -38,6 +48,7 @@ import jakarta.validation.constraints.NotBlank;
 @Service
 public class BatchServiceImpl implements BatchService {
 
+	private static final Pattern EMAIL_PATTERN = Pattern.compile("^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$");
 	private DBService dbService = new DBService();
 
 	private Logger logger = LoggerFactory.getLogger(BatchServiceImpl.class);
@@ -56,30 +67,32 @@ public class BatchServiceImpl implements BatchService {
 	public EmailProcessResponse editBulk(String systemId, String ipAddress, String batchId) {
 		EmailEntry entry = null;
 		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
-		int pendingCounter = 0;
 		if (inner != null) {
 			EmailProcessor processor = inner.remove(batchId);
 			if (processor != null) {
 				processor.stop(BatchStatus.PAUSED);
 				entry = processor.getEntry();
-				pendingCounter = entry.getPendingRecipientList().size();
 			}
 		}
+		if (GlobalVar.CLUSTER_MODE) {
+			ClusterCoordinator.getInstance().control(ClusterCoordinator.PAUSE, systemId, batchId);
+		}
 		if (entry == null) {
 			entry = dbService.getEntry(systemId, batchId);
-			if (entry != null) {
-				pendingCounter = dbService.countPendingRecipients(systemId, batchId);
-			}
 		}
 		if (entry != null) {
 			EmailProcessResponse response = prepareResponse(entry, true);
-			response.setPendingCounter(pendingCounter);
+			response.setPendingCounter(BatchProgress.getInstance().list(systemId, List.of(batchId)).get(batchId)
+					.getPending());
 			return response;
 		}
 		throw new InvalidRequestException("No Batch Found For batchId " + batchId);
 	}
 
 	public void pauseBulk(String systemId, String ipAddress, String batchId) {
+		if (GlobalVar.CLUSTER_MODE && ClusterCoordinator.getInstance().control(ClusterCoordinator.PAUSE, systemId, batchId)) {
+			return; // every node stops its ranges, including this one
+		}
 		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
 		if (inner == null) {
 			throw new InvalidRequestException("No Running Batch Found For batchId " + batchId);
@@ -92,6 +105,9 @@ public class BatchServiceImpl implements BatchService {
 	}
 
 	public void abortBulk(String systemId, String ipAddress, String batchId) {
+		if (GlobalVar.CLUSTER_MODE && ClusterCoordinator.getInstance().control(ClusterCoordinator.ABORT, systemId, batchId)) {
+			return;
+		}
 		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
 		if (inner == null) {
 			EmailEntry entry = dbService.getEntry(systemId, batchId);
@@ -116,13 +132,13 @@ public class BatchServiceImpl implements BatchService {
 		if (entry.getBatchStatus() != BatchStatus.PAUSED) {
 			throw new InvalidRequestException("Requested batch not PAUSED");
 		}
-		List<RecipientsEntry> pendingRecipients = dbService.listPendingRecipients(systemId, batchId);
-		if (pendingRecipients.isEmpty()) {
+		RecipientCursor pendingRecipients = localCursor(systemId, batchId);
+		if (!hasRemaining(systemId, batchId, pendingRecipients)) {
 			throw new InvalidRequestException("No Recipients Found For Requested batchId");
 		}
-		entry.setPendingRecipientList(pendingRecipients);
 		entry.setBatchStatus(BatchStatus.ACTIVE);
 		dbService.updateBatchStatus(systemId, batchId, BatchStatus.ACTIVE.toString());
+		entry.setPendingRecipients(pendingRecipients != null ? pendingRecipients : shareAgain(systemId, batchId));
 		EmailProcessor processor = new EmailProcessor(entry);
 		GlobalVar.processingMap.computeIfAbsent(entry.getSystemId(), k -> new ConcurrentHashMap<>()).put(batchId,
 				processor);
@@ -137,17 +153,18 @@ public class BatchServiceImpl implements BatchService {
 		if (entry.getBatchStatus() != BatchStatus.PAUSED) {
 			throw new InvalidRequestException("Requested batch not PAUSED");
 		}
-		List<RecipientsEntry> pendingRecipients = dbService.listPendingRecipients(systemId, batchId);
-		if (pendingRecipients.isEmpty()) {
+		RecipientCursor pendingRecipients = localCursor(systemId, batchId);
+		if (!hasRemaining(systemId, batchId, pendingRecipients)) {
 			throw new InvalidRequestException("No Recipients Found For batchId " + batchId);
 		}
-		entry.setPendingRecipientList(pendingRecipients);
+		entry.setPendingRecipients(pendingRecipients != null ? pendingRecipients : shareAgain(systemId, batchId));
 		// updatable fields from received request
 		entry.setSubject(emailRequest.getSubject());
 		entry.setBody(emailRequest.getBody());
 		entry.setCcRecipients(emailRequest.getCcRecipients());
 		entry.setBccRecipients(emailRequest.getBccRecipients());
 		entry.setDelay(emailRequest.getDelay());
+		entry.setGroupEnvelope(emailRequest.isGroupEnvelope());
 		entry.setSmtpId(emailRequest.getSmtpId());
 		// End updatable fields from received request
 		entry.setBatchStatus(BatchStatus.ACTIVE);
@@ -157,28 +174,84 @@ public class BatchServiceImpl implements BatchService {
 		dbService.updateBatch(entry);
 	}
 
+	/**
+	 * Cursor of a resumed batch from its pause checkpoint, null in cluster mode
+	 * where the batch is shared again instead.
+	 */
+	private RecipientCursor localCursor(String systemId, String batchId) {
+		if (GlobalVar.CLUSTER_MODE) {
+			return null;
+		}
+		return new PagedRecipientCursor(systemId, batchId,
+				GlobalVar.recipientCheckpoints.getOrDefault(systemId + "_" + batchId, 0L));
+	}
+
+	/**
+	 * If a resumed batch has recipients or retries left. Without a local cursor
+	 * the pending flag is checked with an exists query rather than a page read.
+	 */
+	private boolean hasRemaining(String systemId, String batchId, RecipientCursor pendingRecipients) {
+		boolean pending = pendingRecipients != null ? pendingRecipients.hasNext()
+				: dbService.hasPendingRecipients(systemId, batchId);
+		return pending || dbService.hasRetries(systemId, batchId);
+	}
+
+	/**
+	 * Shares the resumed batch in the cluster again, its remaining recipients are
+	 * found by the pending flag so no checkpoint is used.
+	 */
+	private RecipientCursor shareAgain(String systemId, String batchId) {
+		GlobalVar.recipientCheckpoints.remove(systemId + "_" + batchId);
+		ClusterCoordinator.getInstance().resume(systemId, batchId);
+		return new LeasedRecipientCursor(systemId, batchId);
+	}
+
 	public List<EmailProcessResponse> getAllBulk(String systemId, String ipAddress,
 			BatchProcessFilterRequest batchProcessFilterRequest) {
 		List<EmailProcessResponse> responseList = new ArrayList<EmailProcessResponse>();
-		List<EmailEntry> list = dbService.listEntries(systemId, batchProcessFilterRequest);
+		int limit = batchProcessFilterRequest.getLimit() > 0 ? batchProcessFilterRequest.getLimit()
+				: GlobalVar.BATCH_LIST_PAGE_SIZE;
+		List<EmailEntry> list = dbService.listEntries(systemId, batchProcessFilterRequest, limit);
 		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
+		Map<String, BatchProgress.Counter> progress = BatchProgress.getInstance().list(systemId,
+				list.stream().map(EmailEntry::getBatchId).toList());
 		for (EmailEntry entry : list) {
-			if (inner != null && inner.containsKey(entry.getBatchId())) {
-				EmailProcessor processor = inner.get(entry.getBatchId());
-				EmailEntry runningEntry = processor.getEntry();
-				EmailProcessResponse response = prepareResponse(runningEntry, false);
-				response.setPendingCounter(runningEntry.getPendingRecipientList().size());
-				responseList.add(response);
-				continue;
+			EmailProcessor processor = inner != null ? inner.get(entry.getBatchId()) : null;
+			if (processor != null) {
+				entry.setBatchStatus(processor.getEntry().getBatchStatus());
 			}
-			int pendingCounter = dbService.countPendingRecipients(systemId, entry.getBatchId());
 			EmailProcessResponse response = prepareResponse(entry, false);
-			response.setPendingCounter(pendingCounter);
+			response.setPendingCounter(progress.get(entry.getBatchId()).getPending());
 			responseList.add(response);
 		}
 		return responseList;
 	}
 
+	public Map<String, Object> getProgress(String systemId, String batchId) {
+		EmailEntry entry = null;
+		Map<String, EmailProcessor> inner = GlobalVar.processingMap.get(systemId);
+		if (inner != null && inner.containsKey(batchId)) {
+			entry = inner.get(batchId).getEntry();
+		} else {
+			entry = dbService.getEntry(systemId, batchId);
+		}
+		if (entry == null) {
+			throw new InvalidRequestException("No Batch Found For batchId " + batchId);
+		}
+		Map<String, Object> progress = BatchProgress.getInstance().list(systemId, List.of(batchId)).get(batchId)
+				.toMap();
+		progress.put("status", entry.getBatchStatus().toString());
+		return progress;
+	}
+
+	public List<Map<String, Object>> getSmtpRates(String systemId) {
+		Map<Integer, SmtpEntry> smtpEntries = GlobalVar.SmtpEntries.get(systemId);
+		if (smtpEntries == null) {
+			throw new InvalidRequestException("No Smtp Configuration Found For " + systemId);
+		}
+		return SendRateController.listStats(smtpEntries.keySet());
+	}
+
 	private EmailEntry prepareEntry(EmailRequest request, List<MultipartFile> attachmentList, String systemId,
 			String ipAddress) throws ProcessingException, InvalidRequestException {
 		String batchId = request.getBatchId();
@@ -204,13 +277,13 @@ public class BatchServiceImpl implements BatchService {
 			}
 			entry.setAttachments(json.toString()); // store JSON string
 		}
-		List<RecipientsEntry> recipients = parseRecipients(request.getRecipients());
+		CompactRecipientList recipients = parseRecipients(request.getRecipients());
 		if (recipients.isEmpty()) {
 			logger.error(systemId + "[" + batchId + "]: No Valid Recipient Found.");
 			throw new InvalidRequestException("No Valid Recipient Found");
 		}
 		entry.setTotalRecipients(recipients.size());
-		entry.setPendingRecipientList(recipients);
+		entry.setPendingRecipients(new ListRecipientCursor(recipients));
 		if (!dbService.createBatchEntry(entry)) {
 			logger.error(systemId + "[" + batchId + "]: Batch Entry Creation Failed.");
 			throw new ProcessingException("Batch Entry Creation Failed");
@@ -220,6 +293,11 @@ public class BatchServiceImpl implements BatchService {
 			logger.error(systemId + "[" + batchId + "]: Recipients Entry Creation Failed.");
 			throw new ProcessingException("Recipients Entry Creation Failed");
 		}
+		if (GlobalVar.CLUSTER_MODE) {
+			ClusterCoordinator.getInstance().distribute(systemId, batchId, recipients);
+			recipients.close();
+			entry.setPendingRecipients(new LeasedRecipientCursor(systemId, batchId));
+		}
 		logger.error(systemId + "[" + batchId + "] Recipients Entries:" + recipients.size());
 		return entry;
 	}
@@ -244,23 +322,24 @@ public class BatchServiceImpl implements BatchService {
 		}
 	}
 
-	private List<RecipientsEntry> parseRecipients(String jsonArrayStr) {
-		List<RecipientsEntry> list = new ArrayList<>();
-		String EMAIL_REGEX = "^[A-Za-z0-9+_.-]+@[A-Za-z0-9.-]+$";
+	private CompactRecipientList parseRecipients(String jsonArrayStr) {
 		if (jsonArrayStr == null || jsonArrayStr.trim().isEmpty()) {
-			return list;
+			return new CompactRecipientList();
 		}
 		JSONArray array = new JSONArray(jsonArrayStr);
+		CompactRecipientList list = new CompactRecipientList(array.length());
 		for (int i = 0; i < array.length(); i++) {
 			String email = array.getString(i).trim();
 
-			if (!email.matches(EMAIL_REGEX)) {
+			if (!EMAIL_PATTERN.matcher(email).matches()) {
 				System.err.println("Invalid email skipped: " + email);
 				continue;
 			}
 
-			list.add(new RecipientsEntry(GlobalVar.assignMessageId(), email, "F"));
+			list.add(MessageIdGenerator.nextId(), email, 'F');
 		}
+		logger.info("Recipients Parsed: " + list.size() + " Heap Bytes: " + list.getHeapBytes() + " Spilled Bytes: "
+				+ list.getSpilledBytes());
 
 		return list;
 	}
@@ -10,22 +10,42 @@ import org.eclipse.collections.impl.map.mutable.ConcurrentHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.hti.database.service.BatchProgress;
+import com.hti.database.service.BatchRegistry;
 import com.hti.database.service.DBService;
+import com.hti.database.service.LocalSpool;
+import com.hti.database.service.RecipientStore;
+import com.hti.database.service.ReportCommitter;
 import com.hti.entity.EmailEntry;
 import com.hti.entity.ImapEntry;
-import com.hti.entity.RecipientsEntry;
 import com.hti.entity.SmtpEntry;
 import com.hti.entity.EmailEntry.BatchStatus;
 import com.hti.exception.InvalidRequestException;
+import com.hti.process.ClusterCoordinator;
 import com.hti.process.EmailProcessor;
 import com.hti.process.ImapIdleListener;
+import com.hti.process.RetryScheduler;
+import com.hti.process.SendRateController;
+import com.hti.process.SmtpTransportPool;
 import com.hti.util.GlobalVar;
+import com.hti.util.LeasedRecipientCursor;
+import com.hti.util.MessageIdGenerator;
+import com.hti.util.PagedRecipientCursor;
+import com.hti.util.WriterRuntime;
 
 public class EventService {
 	private static Logger logger = LoggerFactory.getLogger(EventService.class);
 	private DBService dbService = new DBService();
 
 	public void handleStart() {
+		RecipientStore recipientStore = new RecipientStore();
+		recipientStore.createTable();
+		recipientStore.migrateLegacy();
+		BatchRegistry.init();
+		LocalSpool.getInstance().recover();
+		if (GlobalVar.CLUSTER_MODE) {
+			ClusterCoordinator.getInstance();
+		}
 		loadSmtpEntries();
 		loadImapEntries();
 		ExecutorService exec = Executors.newSingleThreadExecutor();
@@ -42,7 +62,15 @@ public class EventService {
 	public void handleStop() {
 		stopImapListeners();
 		stopRunningBatches();
+		ClusterCoordinator.shutdown();
+		SmtpTransportPool.closeAll();
+		RetryScheduler.shutdown();
 		SingletonService.clear();
+		WriterRuntime.shutdown(30, TimeUnit.SECONDS);
+		BatchProgress.shutdown(30, TimeUnit.SECONDS);
+		ReportCommitter.shutdown(30, TimeUnit.SECONDS);
+		LocalSpool.shutdown();
+		MessageIdGenerator.release();
 	}
 
 	public void setSmtpVerified(String systemId, int smtpId) {
@@ -114,9 +142,13 @@ public class EventService {
 
 	private void processEntry(EmailEntry entry) {
 		try {
-			DBService service = new DBService();
-			List<RecipientsEntry> recipients = service.listPendingRecipients(entry.getSystemId(), entry.getBatchId());
-			entry.setPendingRecipientList(recipients);
+			if (GlobalVar.CLUSTER_MODE) {
+				// joins the ranges of a batch the other nodes are running, or shares it again
+				ClusterCoordinator.getInstance().adopt(entry.getSystemId(), entry.getBatchId());
+				entry.setPendingRecipients(new LeasedRecipientCursor(entry.getSystemId(), entry.getBatchId()));
+			} else {
+				entry.setPendingRecipients(new PagedRecipientCursor(entry.getSystemId(), entry.getBatchId(), 0));
+			}
 			EmailProcessor processor = new EmailProcessor(entry);
 			GlobalVar.processingMap.computeIfAbsent(entry.getSystemId(), k -> new ConcurrentHashMap<>())
 					.put(entry.getBatchId(), processor);
@@ -247,6 +279,8 @@ public class EventService {
 			}
 
 		}
+		SmtpTransportPool.removePool(smtpId);
+		SendRateController.remove(smtpId);
 		if (GlobalVar.ImapEntries.containsKey(systemId)) {
 			GlobalVar.ImapEntries.get(systemId).remove(smtpId);
 		}
@@ -0,0 +1,195 @@
+package com.hti.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import com.hti.entity.RecipientsEntry;
+
+/**
+ * Recipients of a batch held in primitive arrays: msg ids in a long[], flags in
+ * a byte[] and the UTF-8 addresses packed into segments of a byte arena. Once
+ * the arena exceeds {@link GlobalVar#RECIPIENT_SPILL_THRESHOLD} MB further
+ * segments are memory mapped from a temporary file. Elements are materialized
+ * as {@link RecipientsEntry} only when read, so the list can be passed where a
+ * List of entries is expected.
+ */
+public class CompactRecipientList extends AbstractList<RecipientsEntry> implements RandomAccess {
+
+	private static final int SEGMENT_SIZE = 1 << 24;
+	private static final int INITIAL_SEGMENT_SIZE = 1 << 16;
+	private static final int MAX_ADDRESS_LENGTH = 255;
+	private long[] msgIds;
+	private long[] positions;
+	private byte[] lengths;
+	private byte[] flags;
+	private int size;
+	private List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private ByteBuffer current;
+	private long heapBytes;
+	private FileChannel spill;
+	private long spillBytes;
+
+	public CompactRecipientList() {
+		this(16);
+	}
+
+	public CompactRecipientList(int capacity) {
+		capacity = Math.max(1, capacity);
+		this.msgIds = new long[capacity];
+		this.positions = new long[capacity];
+		this.lengths = new byte[capacity];
+		this.flags = new byte[capacity];
+	}
+
+	public void add(long msgId, String recipient, char flag) {
+		byte[] address = recipient.getBytes(StandardCharsets.UTF_8);
+		if (address.length > MAX_ADDRESS_LENGTH) {
+			throw new IllegalArgumentException("Recipient Too Long: " + recipient);
+		}
+		if (size == msgIds.length) {
+			int capacity = size + (size >> 1) + 1;
+			msgIds = Arrays.copyOf(msgIds, capacity);
+			positions = Arrays.copyOf(positions, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			flags = Arrays.copyOf(flags, capacity);
+		}
+		msgIds[size] = msgId;
+		positions[size] = write(address);
+		lengths[size] = (byte) address.length;
+		flags[size] = (byte) flag;
+		size++;
+	}
+
+	@Override
+	public boolean add(RecipientsEntry entry) {
+		add(Long.parseLong(entry.getMsgId()), entry.getRecipient(),
+				entry.getFlag() != null ? entry.getFlag().charAt(0) : 'F');
+		return true;
+	}
+
+	/**
+	 * Appends the address to the arena and returns its position as segment *
+	 * SEGMENT_SIZE + offset. Addresses never span two segments.
+	 */
+	private long write(byte[] address) {
+		if (current == null || current.remaining() < address.length) {
+			if (current != null && current.hasArray() && current.capacity() < SEGMENT_SIZE) {
+				// grow the last heap segment until it reaches full size
+				int capacity = Math.min(SEGMENT_SIZE, current.capacity() * 2);
+				heapBytes += capacity - current.capacity();
+				ByteBuffer grown = ByteBuffer.wrap(Arrays.copyOf(current.array(), capacity));
+				grown.position(current.position());
+				current = grown;
+				segments.set(segments.size() - 1, current);
+			} else {
+				current = newSegment();
+				segments.add(current);
+			}
+		}
+		long position = (long) (segments.size() - 1) * SEGMENT_SIZE + current.position();
+		current.put(address);
+		return position;
+	}
+
+	private ByteBuffer newSegment() {
+		long threshold = GlobalVar.RECIPIENT_SPILL_THRESHOLD * 1024L * 1024L;
+		if (threshold <= 0 || heapBytes < threshold) {
+			int capacity = segments.isEmpty() ? INITIAL_SEGMENT_SIZE : SEGMENT_SIZE;
+			heapBytes += capacity;
+			return ByteBuffer.allocate(capacity);
+		}
+		try {
+			if (spill == null) {
+				Path file = Files.createTempFile("recipients", ".spill");
+				spill = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+				// the open channel and its mappings keep the data until collected
+				if (!file.toFile().delete()) {
+					file.toFile().deleteOnExit();
+				}
+			}
+			ByteBuffer segment = spill.map(FileChannel.MapMode.READ_WRITE, spillBytes, SEGMENT_SIZE);
+			spillBytes += SEGMENT_SIZE;
+			return segment;
+		} catch (IOException e) {
+			throw new UncheckedIOException("Recipient Spill Failed", e);
+		}
+	}
+
+	@Override
+	public RecipientsEntry get(int index) {
+		checkIndex(index);
+		return new RecipientsEntry(Long.toString(msgIds[index]), getRecipient(index),
+				String.valueOf((char) flags[index]));
+	}
+
+	public long getMsgId(int index) {
+		checkIndex(index);
+		return msgIds[index];
+	}
+
+	public String getRecipient(int index) {
+		checkIndex(index);
+		long position = positions[index];
+		byte[] address = new byte[lengths[index] & 0xFF];
+		segments.get((int) (position / SEGMENT_SIZE)).get((int) (position % SEGMENT_SIZE), address);
+		return new String(address, StandardCharsets.UTF_8);
+	}
+
+	public char getFlag(int index) {
+		checkIndex(index);
+		return (char) flags[index];
+	}
+
+	public void setFlag(int index, char flag) {
+		checkIndex(index);
+		flags[index] = (byte) flag;
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+
+	@Override
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Heap bytes held by the arrays and the heap segments of the arena.
+	 */
+	public long getHeapBytes() {
+		return (long) msgIds.length * 17 + flags.length + heapBytes;
+	}
+
+	public long getSpilledBytes() {
+		return spillBytes;
+	}
+
+	/**
+	 * Releases the spill file. Mapped segments stay readable until collected.
+	 */
+	public void close() {
+		if (spill != null) {
+			try {
+				spill.close();
+			} catch (IOException e) {
+				// temporary file is already unlinked
+			}
+			spill = null;
+		}
+	}
+
+}
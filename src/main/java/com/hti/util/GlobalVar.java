@@ -8,17 +8,65 @@ import com.hti.process.EmailProcessor;
 import com.hti.process.ImapIdleListener;
 import com.hti.service.EventService;
 
-import java.text.SimpleDateFormat;
-import java.util.Date;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class GlobalVar {
 	public static String FLAG_DIR = "flag";
 	public static String CONFIG_DIR = "config";
-	private static int INCREMNT_NUMBER = 1000;
-	public static long QUEUE_WAIT_TIME = 100;
+	public static int NODE_ID = -1;
+	public static long NODE_ID_LEASE_TIME = 30;
+	public static long QUEUE_WAIT_TIME = 1000;
+	public static int QUEUE_CAPACITY = 65536;
+	public static int WRITER_THREADS = 4;
+	public static long WRITER_IDLE_TIMEOUT = 600000;
+	public static int WEBHOOK_THREADS = 4;
+	public static boolean VIRTUAL_THREADS = false;
+	public static int REPORT_BATCH_MIN = 100;
+	public static int REPORT_BATCH_MAX = 5000;
+	public static long REPORT_LINGER_TIME = 20;
+	public static long REPORT_TARGET_LATENCY = 200;
 	public static int JDBC_BATCH_SIZE = 1000;
+	public static int FLAG_UPDATE_CHUNK_SIZE = 500;
+	public static int RECIPIENT_PAGE_SIZE = 5000;
+	public static int BATCH_LIST_PAGE_SIZE = 500;
+	public static int RECIPIENT_SPILL_THRESHOLD = 256;
+	public static int BULK_INSERT_CHUNK_SIZE = 1000;
+	public static int BULK_INSERT_THREADS = 4;
+	public static int SMTP_POOL_MAX_CONNECTIONS = 4;
+	public static int SMTP_POOL_IDLE_TIMEOUT = 300;
+	public static int SMTP_SEND_TIMEOUT = 30000;
+	public static long SMTP_RECONNECT_MAX_DELAY = 60000;
+	public static int ENVELOPE_MAX_RECIPIENTS = 50;
+	public static boolean ENVELOPE_GROUP_BY_DOMAIN = true;
+	public static double SMTP_RATE_PER_SECOND = 0;
+	public static int SMTP_RATE_BURST = 10;
+	public static Map<Integer, Double> SMTP_RATE_PER_SECOND_BY_ACCOUNT = new ConcurrentHashMap<Integer, Double>();
+	public static Map<Integer, Integer> SMTP_RATE_BURST_BY_ACCOUNT = new ConcurrentHashMap<Integer, Integer>();
+	public static double AIMD_DECREASE_FACTOR = 0.5;
+	public static double AIMD_INCREASE_STEP = 1;
+	public static double AIMD_MIN_RATE = 0.2;
+	public static int AIMD_SUCCESS_WINDOW = 50;
+	public static long AIMD_COOLDOWN = 2000;
+	public static int RETRY_MAX_ATTEMPTS = 5;
+	public static int RETRY_INITIAL_DELAY = 60;
+	public static int RETRY_MAX_DELAY = 3600;
+	public static long PROGRESS_FLUSH_INTERVAL = 5000;
+	public static boolean CLUSTER_MODE = false;
+	public static int CLUSTER_RANGE_SIZE = 10000;
+	public static long CLUSTER_LEASE_TIME = 30000;
+	public static long REPLICA_READ_WINDOW = 5000;
+	public static long REPLICA_RETRY_INTERVAL = 30000;
+	public static String SPOOL_DIR = "spool";
+	public static long SPOOL_COMMIT_INTERVAL = 200;
+	public static long SPOOL_REPLAY_INTERVAL = 60000;
+	public static int WEBHOOK_MAX_ATTEMPTS = 10;
+	public static long WEBHOOK_MAX_AGE = 86400000;
+	public static int PARTITION_DAYS_AHEAD = 3;
+	public static int PARTITION_RETENTION_DAYS = 0;
+	public static Map<String, Integer> PARTITION_RETENTION_DAYS_BY_USER = new ConcurrentHashMap<String, Integer>();
+	public static boolean PARTITION_ARCHIVE = false;
+	public static int PARTITION_THREADS = 4;
 	public static String ATTACHMENT_DIR = "attachments";
 	// --- smtp configuration -----
 	public static String EMAIL_CC;
@@ -34,12 +82,11 @@ public class GlobalVar {
 	public static Map<String, Map<Integer, SmtpEntry>> SmtpEntries = new ConcurrentHashMap<String, Map<Integer, SmtpEntry>>();
 	public static Map<String, Map<Integer, ImapEntry>> ImapEntries = new ConcurrentHashMap<String, Map<Integer, ImapEntry>>();
 	public static EventService eventService = new EventService();
+	// <systemId_batchId , last msg_id handed out before pause>
+	public static Map<String, Long> recipientCheckpoints = new ConcurrentHashMap<String, Long>();
 
-	public static synchronized String assignMessageId() {
-		if (++INCREMNT_NUMBER > 9999) {
-			INCREMNT_NUMBER = 1000;
-		}
-		return new SimpleDateFormat("yyMMddHHmmssSSS").format(new Date()) + "" + INCREMNT_NUMBER;
+	public static String assignMessageId() {
+		return Long.toString(MessageIdGenerator.nextId());
 	}
 
 }
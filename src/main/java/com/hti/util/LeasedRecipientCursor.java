@@ -0,0 +1,157 @@
+package com.hti.util;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import com.hti.entity.EmailEntry.BatchStatus;
+import com.hti.entity.RangeLease;
+import com.hti.entity.RecipientsEntry;
+import com.hti.process.ClusterCoordinator;
+
+/**
+ * Cursor over the recipient ranges of a cluster batch that this node holds the
+ * lease of. A used up range stays leased until every recipient handed out from
+ * it has completed, only then it is marked done and the next free range of the
+ * batch is claimed, so nodes keep taking ranges until none is left. A range
+ * whose lease was lost is left to the node that took it over.
+ */
+public class LeasedRecipientCursor implements RecipientCursor {
+
+	// a claim that found no free range is not repeated before
+	private static final long CLAIM_RETRY_INTERVAL = 1000;
+	private final String systemId;
+	private final String batchId;
+	private final ClusterCoordinator coordinator;
+	private Range current;
+	// used up ranges with recipients still being sent
+	private List<Range> draining = new ArrayList<Range>();
+	private long nextClaimOn;
+
+	public LeasedRecipientCursor(String systemId, String batchId) {
+		this(systemId, batchId, ClusterCoordinator.getInstance());
+	}
+
+	public LeasedRecipientCursor(String systemId, String batchId, ClusterCoordinator coordinator) {
+		this.systemId = systemId;
+		this.batchId = batchId;
+		this.coordinator = coordinator;
+	}
+
+	private static class Range {
+		private final RangeLease lease;
+		private final PagedRecipientCursor cursor;
+		private final Set<String> inFlight = new HashSet<String>();
+
+		private Range(RangeLease lease, PagedRecipientCursor cursor) {
+			this.lease = lease;
+			this.cursor = cursor;
+		}
+
+		private boolean contains(long msgId) {
+			return msgId > lease.getFromMsgId() && msgId <= lease.getToMsgId();
+		}
+	}
+
+	@Override
+	public synchronized RecipientsEntry next() {
+		if (!advance()) {
+			return null;
+		}
+		RecipientsEntry entry = current.cursor.next();
+		if (entry != null) {
+			current.inFlight.add(entry.getMsgId());
+		}
+		return entry;
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		return advance();
+	}
+
+	/**
+	 * Makes sure a held range with a pending recipient is current, claiming the
+	 * next one when required.
+	 */
+	private boolean advance() {
+		while (true) {
+			if (current != null) {
+				if (!coordinator.isHeld(current.lease)) {
+					current = null;
+				} else if (current.cursor.hasNext()) {
+					return true;
+				} else {
+					drain(current);
+					current = null;
+				}
+			}
+			if (System.currentTimeMillis() < nextClaimOn) {
+				return false;
+			}
+			RangeLease lease = coordinator.claim(systemId, batchId);
+			if (lease == null) {
+				nextClaimOn = System.currentTimeMillis() + CLAIM_RETRY_INTERVAL;
+				return false;
+			}
+			current = new Range(lease,
+					new PagedRecipientCursor(systemId, batchId, lease.getFromMsgId(), lease.getToMsgId()));
+		}
+	}
+
+	/**
+	 * Marks a used up range done once nothing handed out from it is in flight.
+	 */
+	private void drain(Range range) {
+		if (range.inFlight.isEmpty()) {
+			coordinator.complete(range.lease);
+		} else {
+			draining.add(range);
+		}
+	}
+
+	@Override
+	public synchronized void completed(RecipientsEntry entry) {
+		long msgId = Long.parseLong(entry.getMsgId());
+		if (current != null && current.contains(msgId)) {
+			current.inFlight.remove(entry.getMsgId());
+			return;
+		}
+		for (Iterator<Range> iterator = draining.iterator(); iterator.hasNext();) {
+			Range range = iterator.next();
+			if (range.contains(msgId)) {
+				if (range.inFlight.remove(entry.getMsgId()) && range.inFlight.isEmpty()) {
+					iterator.remove();
+					coordinator.complete(range.lease);
+				}
+				return;
+			}
+		}
+	}
+
+	@Override
+	public synchronized int getPendingCount() {
+		return advance() ? current.cursor.getPendingCount() : 0;
+	}
+
+	@Override
+	public long getCheckpoint() {
+		return 0; // progress is kept by the ranges
+	}
+
+	@Override
+	public boolean isComplete() {
+		return coordinator.isComplete(systemId, batchId);
+	}
+
+	@Override
+	public synchronized void release(BatchStatus status) {
+		// draining ranges are released undone, recipients not sent are still F
+		coordinator.released(systemId, batchId, status);
+		current = null;
+		draining.clear();
+	}
+
+}
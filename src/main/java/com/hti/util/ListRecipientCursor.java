@@ -0,0 +1,48 @@
+package com.hti.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.hti.entity.RecipientsEntry;
+
+/**
+ * Index based cursor over the in-memory recipients of a new batch. Entries are
+ * materialized from the compact list as they are handed out.
+ */
+public class ListRecipientCursor implements RecipientCursor {
+
+	private final CompactRecipientList entries;
+	private final AtomicInteger position = new AtomicInteger();
+
+	public ListRecipientCursor(CompactRecipientList list) {
+		this.entries = list;
+	}
+
+	@Override
+	public RecipientsEntry next() {
+		int index;
+		do {
+			index = position.get();
+			if (index >= entries.size()) {
+				entries.close(); // spill file no longer needed
+				return null;
+			}
+		} while (!position.compareAndSet(index, index + 1));
+		return entries.get(index);
+	}
+
+	@Override
+	public boolean hasNext() {
+		return position.get() < entries.size();
+	}
+
+	@Override
+	public int getPendingCount() {
+		return Math.max(0, entries.size() - position.get());
+	}
+
+	@Override
+	public long getCheckpoint() {
+		return 0; // list order is not guaranteed to follow msg_id
+	}
+
+}
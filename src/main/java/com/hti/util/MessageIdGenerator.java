@@ -0,0 +1,163 @@
+package com.hti.util;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+/**
+ * Lock-free generator of numeric message and batch ids laid out as
+ * yyMMdd(6) second-of-day(5) node(2) sequence(6). The yyMMdd prefix keeps the
+ * report partitioning on LEFT(msg_id, 6), the node id keeps ids of different
+ * instances apart and up to a million ids per second are handed out per node.
+ * When a second is used up the sequence continues in the next second, so ids
+ * stay unique and increasing even if the clock goes back. The node id is a slot
+ * of a Hazelcast map claimed with a TTL of {@link GlobalVar#NODE_ID_LEASE_TIME}
+ * and renewed while the node runs, so a node that stopped frees its slot and a
+ * running node's slot is never handed out again.
+ */
+public final class MessageIdGenerator {
+
+	private static final long SEQUENCE_LIMIT = 1_000_000;
+	private static final int NODE_LIMIT = 100;
+	private static final String NODE_SLOTS = "email_service_node_ids";
+	private static final DateTimeFormatter PREFIX_FORMAT = DateTimeFormatter.ofPattern("yyMMdd");
+	private static Logger logger = LoggerFactory.getLogger(MessageIdGenerator.class);
+	// epoch second * SEQUENCE_LIMIT + sequence of the last id
+	private static final AtomicLong state = new AtomicLong();
+	private static volatile int nodeId = -1;
+	private static volatile boolean leaseLost;
+	private static IMap<Integer, String> slots;
+	private static String owner;
+	private static Thread renewer;
+	private static volatile Day day = Day.of(System.currentTimeMillis() / 1000);
+
+	private MessageIdGenerator() {
+	}
+
+	/**
+	 * Claims the node id slot {@link GlobalVar#NODE_ID} if configured, otherwise
+	 * the first free one, and keeps renewing its lease.
+	 *
+	 * @throws IllegalStateException if no slot could be claimed.
+	 */
+	public static synchronized void init(HazelcastInstance hazelInstance) {
+		slots = hazelInstance.getMap(NODE_SLOTS);
+		owner = hazelInstance.getLocalEndpoint().getUuid().toString();
+		int slot = claimSlot(slots, owner, GlobalVar.NODE_ID, GlobalVar.NODE_ID_LEASE_TIME);
+		if (slot < 0) {
+			throw new IllegalStateException(GlobalVar.NODE_ID >= 0 ? "Node Id " + GlobalVar.NODE_ID + " In Use"
+					: "No Free Node Id Of " + NODE_LIMIT);
+		}
+		nodeId = slot;
+		leaseLost = false;
+		renewer = new Thread(MessageIdGenerator::renew, "NodeIdLease");
+		renewer.setDaemon(true);
+		renewer.start();
+		logger.info("Message Id Node: " + nodeId);
+	}
+
+	/**
+	 * Claims a slot for the owner with a lease of the given seconds.
+	 *
+	 * @param preferred slot to claim, or -1 for the first free one.
+	 * @return the slot, or -1 if none is free.
+	 */
+	static int claimSlot(IMap<Integer, String> slots, String owner, int preferred, long leaseTime) {
+		int first = preferred >= 0 ? preferred % NODE_LIMIT : 0;
+		int last = preferred >= 0 ? first : NODE_LIMIT - 1;
+		for (int slot = first; slot <= last; slot++) {
+			String current = slots.putIfAbsent(slot, owner, leaseTime, TimeUnit.SECONDS);
+			if (current == null || current.equals(owner)) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Frees the slot at shutdown so that a restarted node can reuse it at once.
+	 */
+	public static synchronized void release() {
+		if (renewer != null) {
+			renewer.interrupt();
+			renewer = null;
+			try {
+				slots.remove(nodeId, owner);
+			} catch (Exception e) {
+				logger.warn("Node Id " + nodeId + " Not Released, It Expires With Its Lease: " + e.getMessage());
+			}
+		}
+	}
+
+	private static void renew() {
+		long interval = Math.max(1, GlobalVar.NODE_ID_LEASE_TIME * 1000 / 3);
+		while (!Thread.currentThread().isInterrupted()) {
+			try {
+				Thread.sleep(interval);
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				String current = slots.putIfAbsent(nodeId, owner, GlobalVar.NODE_ID_LEASE_TIME, TimeUnit.SECONDS);
+				if (current == null || current.equals(owner)) {
+					slots.setTtl(nodeId, GlobalVar.NODE_ID_LEASE_TIME, TimeUnit.SECONDS);
+				} else {
+					// expired while unreachable and taken by another node
+					leaseLost = true;
+					logger.error("Node Id " + nodeId + " Taken Over By " + current + ", Message Ids Stopped");
+					return;
+				}
+			} catch (Exception e) {
+				logger.warn("Node Id " + nodeId + " Lease Not Renewed: " + e.getMessage());
+			}
+		}
+	}
+
+	public static long nextId() {
+		if (nodeId < 0 || leaseLost) {
+			throw new IllegalStateException("No Node Id Lease For Message Ids");
+		}
+		long now = System.currentTimeMillis() / 1000;
+		long current, next;
+		do {
+			current = state.get();
+			next = now > current / SEQUENCE_LIMIT ? now * SEQUENCE_LIMIT : current + 1;
+		} while (!state.compareAndSet(current, next));
+		long second = next / SEQUENCE_LIMIT;
+		Day today = day;
+		if (second < today.start || second >= today.end) {
+			day = today = Day.of(second);
+		}
+		return ((today.prefix * 100_000 + (second - today.start)) * NODE_LIMIT + nodeId) * SEQUENCE_LIMIT
+				+ next % SEQUENCE_LIMIT;
+	}
+
+	private static class Day {
+		private final long prefix;
+		private final long start;
+		private final long end;
+
+		private Day(long prefix, long start, long end) {
+			this.prefix = prefix;
+			this.start = start;
+			this.end = end;
+		}
+
+		private static Day of(long epochSecond) {
+			ZoneId zone = ZoneId.systemDefault();
+			LocalDate date = Instant.ofEpochSecond(epochSecond).atZone(zone).toLocalDate();
+			return new Day(Long.parseLong(date.format(PREFIX_FORMAT)), date.atStartOfDay(zone).toEpochSecond(),
+					date.plusDays(1).atStartOfDay(zone).toEpochSecond());
+		}
+	}
+
+}
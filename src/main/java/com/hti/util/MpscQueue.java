@@ -0,0 +1,217 @@
+package com.hti.util;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Bounded lock-free multi-producer single-consumer queue. Producers claim slots
+ * of a power of two ring by CAS on the tail sequence; the single consumer reads
+ * without contention and parks while the queue is empty, to be unparked by the
+ * next producer. What happens to an element offered to a full ring is decided by
+ * the {@link OverflowPolicy} of the queue.
+ *
+ * Only one thread may call the consuming methods ({@link #poll()},
+ * {@link #take()} and {@link #drainTo(Collection, int, long, TimeUnit)}).
+ */
+public class MpscQueue<T> {
+
+	public enum OverflowPolicy {
+		/** producers wait until the consumer frees a slot */
+		BLOCK,
+		/** elements go to an unbounded overflow list drained after the ring */
+		SPILL,
+		/** elements are dropped and counted */
+		SHED
+	}
+
+	private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+	private final int capacity;
+	private final int mask;
+	private final AtomicReferenceArray<T> buffer;
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+	private volatile long head;
+	private volatile Thread waiter;
+	private final OverflowPolicy policy;
+	private final ConcurrentLinkedQueue<T> spill = new ConcurrentLinkedQueue<T>();
+	private final AtomicLong spilled = new AtomicLong();
+	private final AtomicLong shed = new AtomicLong();
+
+	public MpscQueue(int capacity, OverflowPolicy policy) {
+		int size = 2;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.capacity = size;
+		this.mask = size - 1;
+		this.buffer = new AtomicReferenceArray<T>(size);
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			sequences.set(i, i);
+		}
+		this.policy = policy;
+	}
+
+	/**
+	 * Adds an element to the ring if there is room, without applying the overflow
+	 * policy.
+	 */
+	public boolean offer(T element) {
+		while (true) {
+			long position = tail.get();
+			int index = (int) (position & mask);
+			long diff = sequences.get(index) - position;
+			if (diff == 0) {
+				if (tail.compareAndSet(position, position + 1)) {
+					buffer.set(index, element);
+					sequences.set(index, position + 1);
+					signal();
+					return true;
+				}
+			} else if (diff < 0) {
+				return false; // full
+			}
+		}
+	}
+
+	/**
+	 * Adds an element, applying the overflow policy if the ring is full.
+	 *
+	 * @return false if the element was shed.
+	 */
+	public boolean put(T element) {
+		if (offer(element)) {
+			return true;
+		}
+		switch (policy) {
+		case BLOCK:
+			while (!offer(element)) {
+				LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+			}
+			return true;
+		case SPILL:
+			spill.add(element);
+			spilled.incrementAndGet();
+			signal();
+			return true;
+		default:
+			shed.incrementAndGet();
+			return false;
+		}
+	}
+
+	/**
+	 * Removes the head element, or returns null if the queue is empty.
+	 */
+	public T poll() {
+		long position = head;
+		int index = (int) (position & mask);
+		if (sequences.get(index) - (position + 1) < 0) {
+			return spill.poll(); // ring empty
+		}
+		T element = buffer.get(index);
+		buffer.set(index, null);
+		sequences.set(index, position + capacity);
+		head = position + 1;
+		return element;
+	}
+
+	/**
+	 * Removes the head element, waiting for one if the queue is empty.
+	 */
+	public T take() throws InterruptedException {
+		T element;
+		while ((element = poll()) == null) {
+			await(Long.MAX_VALUE);
+		}
+		return element;
+	}
+
+	/**
+	 * Moves up to max elements into the collection, waiting up to the timeout for
+	 * the first one.
+	 *
+	 * @return number of elements moved, 0 if the timeout elapsed.
+	 */
+	public int drainTo(Collection<? super T> collection, int max, long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		T element;
+		while ((element = poll()) == null) {
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return 0;
+			}
+			await(remaining);
+		}
+		collection.add(element);
+		return 1 + drainTo(collection, max - 1);
+	}
+
+	/**
+	 * Moves up to max available elements into the collection without waiting.
+	 */
+	public int drainTo(Collection<? super T> collection, int max) {
+		int count = 0;
+		T element;
+		while (count < max && (element = poll()) != null) {
+			collection.add(element);
+			count++;
+		}
+		return count;
+	}
+
+	private void await(long nanos) throws InterruptedException {
+		waiter = Thread.currentThread();
+		try {
+			if (isEmpty()) {
+				LockSupport.parkNanos(this, nanos);
+			}
+		} finally {
+			waiter = null;
+		}
+		if (Thread.interrupted()) {
+			throw new InterruptedException();
+		}
+	}
+
+	private void signal() {
+		Thread thread = waiter;
+		if (thread != null) {
+			LockSupport.unpark(thread);
+		}
+	}
+
+	/**
+	 * Wakes the consumer if it is waiting, e.g. to let it notice a stop request.
+	 */
+	public void wakeup() {
+		signal();
+	}
+
+	public int size() {
+		return (int) Math.max(0, tail.get() - head) + spill.size();
+	}
+
+	public boolean isEmpty() {
+		return sequences.get((int) (head & mask)) - (head + 1) < 0 && spill.isEmpty();
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	public long getSpilledCount() {
+		return spilled.get();
+	}
+
+	public long getShedCount() {
+		return shed.get();
+	}
+
+}
@@ -0,0 +1,168 @@
+package com.hti.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.database.service.DBService;
+import com.hti.database.service.LocalSpool;
+import com.hti.entity.RecipientsEntry;
+
+/**
+ * Streams the pending recipients of a batch from its recipient table in msg_id
+ * keyset pages of {@link GlobalVar#RECIPIENT_PAGE_SIZE}. The next page is
+ * fetched in the background while the current one is being sent, so only two
+ * pages are held in memory whatever the size of the batch.
+ */
+public class PagedRecipientCursor implements RecipientCursor {
+
+	private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "RecipientPrefetch");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final int MAX_FETCH_ATTEMPTS = 3;
+	private Logger logger = LoggerFactory.getLogger(PagedRecipientCursor.class);
+	private DBService service = new DBService();
+	private LocalSpool spool = LocalSpool.getInstance();
+	private String systemId;
+	private String batchId;
+	private int pageSize;
+	private List<RecipientsEntry> page;
+	private int index;
+	private long lastFetchedMsgId;
+	private long toMsgId;
+	private volatile long checkpoint;
+	private boolean exhausted;
+	private Future<List<RecipientsEntry>> nextPage;
+	private AtomicInteger pendingCount;
+
+	/**
+	 * @param afterMsgId keyset position to start after, 0 to start from the first
+	 *                   pending recipient.
+	 */
+	public PagedRecipientCursor(String systemId, String batchId, long afterMsgId) {
+		this(systemId, batchId, afterMsgId, Long.MAX_VALUE);
+	}
+
+	/**
+	 * Cursor over the pending recipients in the msg_id range (afterMsgId,
+	 * toMsgId].
+	 */
+	public PagedRecipientCursor(String systemId, String batchId, long afterMsgId, long toMsgId) {
+		this.systemId = systemId;
+		this.batchId = batchId;
+		this.pageSize = GlobalVar.RECIPIENT_PAGE_SIZE;
+		this.lastFetchedMsgId = afterMsgId;
+		this.toMsgId = toMsgId;
+		this.checkpoint = afterMsgId;
+		this.pendingCount = new AtomicInteger(service.countPendingRecipients(systemId, batchId, afterMsgId, toMsgId));
+		this.nextPage = prefetch(afterMsgId);
+		logger.info(systemId + "[" + batchId + "] Paged Recipient Cursor After: " + afterMsgId + " Pending: "
+				+ pendingCount.get());
+	}
+
+	@Override
+	public synchronized RecipientsEntry next() {
+		if (!loadPage()) {
+			return null;
+		}
+		RecipientsEntry entry = page.get(index);
+		page.set(index++, null); // release consumed slot
+		checkpoint = Long.parseLong(entry.getMsgId());
+		pendingCount.decrementAndGet();
+		return entry;
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		return loadPage();
+	}
+
+	@Override
+	public int getPendingCount() {
+		return Math.max(0, pendingCount.get());
+	}
+
+	@Override
+	public long getCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * Makes sure the current page has an unconsumed entry, skipping recipients
+	 * of the spool's sent-ledger whose flag is not written yet.
+	 */
+	private boolean loadPage() {
+		while (nextPage()) {
+			RecipientsEntry entry = page.get(index);
+			if (!spool.isFlagged(systemId, batchId, entry.getMsgId())) {
+				return true;
+			}
+			page.set(index++, null);
+			checkpoint = Long.parseLong(entry.getMsgId());
+			pendingCount.decrementAndGet();
+			logger.info(systemId + "[" + batchId + "] Skipped Already Handled Recipient: " + entry.getMsgId());
+		}
+		return false;
+	}
+
+	/**
+	 * Switches to the prefetched page when the current one is consumed and
+	 * requests the one after it.
+	 */
+	private boolean nextPage() {
+		while (page == null || index >= page.size()) {
+			if (exhausted) {
+				return false;
+			}
+			List<RecipientsEntry> fetched = awaitNextPage();
+			if (fetched == null) {
+				logger.error(systemId + "[" + batchId + "] Unable to read recipients after " + lastFetchedMsgId
+						+ ". Pending: " + pendingCount.get());
+				exhausted = true;
+				return false;
+			}
+			page = fetched;
+			index = 0;
+			if (fetched.size() < pageSize) {
+				exhausted = true;
+			} else {
+				lastFetchedMsgId = Long.parseLong(fetched.get(fetched.size() - 1).getMsgId());
+				nextPage = prefetch(lastFetchedMsgId);
+			}
+		}
+		return true;
+	}
+
+	private Future<List<RecipientsEntry>> prefetch(long afterMsgId) {
+		return prefetchExecutor.submit(() -> {
+			for (int attempt = 1; attempt <= MAX_FETCH_ATTEMPTS; attempt++) {
+				List<RecipientsEntry> list = service.listPendingRecipients(systemId, batchId, afterMsgId, toMsgId,
+						pageSize);
+				if (list != null) {
+					return list;
+				}
+				Thread.sleep(attempt * 1000L);
+			}
+			return null;
+		});
+	}
+
+	private List<RecipientsEntry> awaitNextPage() {
+		try {
+			return nextPage.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (Exception e) {
+			logger.error(systemId + "[" + batchId + "] Recipient Prefetch Error", e);
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,118 @@
+package com.hti.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.hti.util.MpscQueue.OverflowPolicy;
+
+/**
+ * Background writer fed through a {@link MpscQueue}. A writer owns no thread:
+ * submitting work schedules it on the shared {@link WriterRuntime}, which
+ * drains one batch of at most {@link GlobalVar#JDBC_BATCH_SIZE} elements per
+ * turn.
+ */
+public abstract class QueueWriter<T> {
+
+	protected Logger logger = LoggerFactory.getLogger("dbLogger");
+	protected final MpscQueue<T> processQueue;
+	private final String name;
+	private final long idleTimeout;
+	final AtomicBoolean scheduled = new AtomicBoolean();
+	final AtomicBoolean finished = new AtomicBoolean();
+	private volatile boolean stopped;
+	private volatile long lastActiveTime = System.currentTimeMillis();
+	private boolean started;
+
+	/**
+	 * @param idleTimeout milliseconds without work after which {@link #onIdle()}
+	 *                    is called, 0 to never time out.
+	 */
+	protected QueueWriter(String name, OverflowPolicy policy, long idleTimeout) {
+		this.name = name;
+		this.idleTimeout = idleTimeout;
+		this.processQueue = new MpscQueue<T>(GlobalVar.QUEUE_CAPACITY, policy);
+		WriterRuntime.register(this);
+	}
+
+	/**
+	 * Queues an element for writing.
+	 *
+	 * @return false if the element was shed because the queue is full.
+	 */
+	public boolean submit(T element) {
+		boolean added = processQueue.put(element);
+		lastActiveTime = System.currentTimeMillis();
+		WriterRuntime.schedule(this);
+		return added;
+	}
+
+	/**
+	 * Stops the writer once everything submitted so far is written.
+	 */
+	public void stop() {
+		logger.info(name + " Stopping.Queue:" + processQueue.size());
+		stopped = true;
+		WriterRuntime.schedule(this);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	boolean hasWork() {
+		return !processQueue.isEmpty();
+	}
+
+	boolean isIdle(long now) {
+		return idleTimeout > 0 && !stopped && !hasWork() && now - lastActiveTime > idleTimeout;
+	}
+
+	void drain() {
+		if (!started) {
+			started = true;
+			onStart();
+		}
+		List<T> batch = new ArrayList<T>();
+		if (processQueue.drainTo(batch, GlobalVar.JDBC_BATCH_SIZE) > 0) {
+			lastActiveTime = System.currentTimeMillis();
+			try {
+				write(batch);
+			} catch (Exception e) {
+				logger.error(name, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes one batch, called by a single runtime thread at a time.
+	 */
+	protected abstract void write(List<T> batch);
+
+	/**
+	 * Called before the first batch is written.
+	 */
+	protected void onStart() {
+	}
+
+	/**
+	 * Called once the writer is stopped and its queue is empty.
+	 */
+	protected void onStopped() {
+		logger.info(name + " Stopped.");
+	}
+
+	/**
+	 * Called by the runtime when the writer had no work for its idle timeout.
+	 */
+	protected void onIdle() {
+	}
+
+}
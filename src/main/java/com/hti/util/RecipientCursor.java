@@ -0,0 +1,57 @@
+package com.hti.util;
+
+import com.hti.entity.EmailEntry.BatchStatus;
+import com.hti.entity.RecipientsEntry;
+
+/**
+ * Forward-only view over the pending recipients of a batch. Each entry is
+ * handed out exactly once and the pending count is tracked without scanning the
+ * underlying storage.
+ */
+public interface RecipientCursor {
+
+	/**
+	 * Returns the next pending recipient and advances the cursor. Returns null
+	 * once all recipients have been handed out.
+	 */
+	RecipientsEntry next();
+
+	/**
+	 * If there is at least one recipient left to hand out.
+	 */
+	boolean hasNext();
+
+	/**
+	 * Current count of recipients not yet handed out.
+	 */
+	int getPendingCount();
+
+	/**
+	 * msg_id of the last recipient handed out when recipients are consumed in
+	 * ascending msg_id order, otherwise 0. A paused batch can be resumed after
+	 * this position.
+	 */
+	long getCheckpoint();
+
+	/**
+	 * If no recipient of the batch is left anywhere once this cursor is used up.
+	 * False while other cluster nodes are still sending parts of the batch.
+	 */
+	default boolean isComplete() {
+		return true;
+	}
+
+	/**
+	 * A recipient handed out by this cursor reached its final status or was
+	 * persisted for a retry.
+	 */
+	default void completed(RecipientsEntry entry) {
+	}
+
+	/**
+	 * Called once the batch stopped with the given status.
+	 */
+	default void release(BatchStatus status) {
+	}
+
+}
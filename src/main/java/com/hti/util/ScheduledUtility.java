@@ -5,7 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
 
-import com.hti.database.service.DBService;
+import com.hti.database.service.PartitionManager;
 
 @Component
 public class ScheduledUtility {
@@ -14,8 +14,7 @@ public class ScheduledUtility {
 	@Scheduled(cron = "${scheduler.db.cleanup.cron}")
 	public void runCleanup() {
 		logger.info("<----- DB Cleanup Task Started --> ");
-		new DBService().addUserReportPartition();
-		new DBService().addUserInboxPartition();
+		new PartitionManager().maintain();
 	}
 
 }
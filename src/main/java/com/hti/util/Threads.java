@@ -0,0 +1,44 @@
+package com.hti.util;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Creates the threads of blocking I/O work (batch senders, imap listeners,
+ * webhook posts) as virtual threads when {@link GlobalVar#VIRTUAL_THREADS} is
+ * set, otherwise as platform threads.
+ */
+public class Threads {
+
+	/**
+	 * Starts a named thread running the task.
+	 */
+	public static Thread start(String name, Runnable task) {
+		if (GlobalVar.VIRTUAL_THREADS) {
+			return Thread.ofVirtual().name(name).start(task);
+		}
+		Thread thread = new Thread(task, name);
+		thread.start();
+		return thread;
+	}
+
+	/**
+	 * Executor for short blocking tasks: a new virtual thread per task, or a fixed
+	 * pool of daemon platform threads.
+	 */
+	public static ExecutorService newExecutor(String prefix, int platformThreads) {
+		if (GlobalVar.VIRTUAL_THREADS) {
+			return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name(prefix + "_", 1).factory());
+		}
+		AtomicInteger counter = new AtomicInteger();
+		ThreadFactory factory = r -> {
+			Thread thread = new Thread(r, prefix + "_" + counter.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		};
+		return Executors.newFixedThreadPool(platformThreads, factory);
+	}
+
+}
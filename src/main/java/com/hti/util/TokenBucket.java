@@ -0,0 +1,75 @@
+package com.hti.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock-free token bucket implemented as a generic cell rate algorithm: the
+ * bucket only stores the theoretical arrival time of the next permit. A rate of
+ * 0 means unlimited.
+ */
+public class TokenBucket {
+
+	private final AtomicLong theoreticalArrival = new AtomicLong(System.nanoTime());
+	private volatile long intervalNanos;
+	private volatile int burst;
+
+	public TokenBucket(double ratePerSecond, int burst) {
+		setRate(ratePerSecond, burst);
+	}
+
+	/**
+	 * Changes the sustained rate and burst size, keeping already granted permits.
+	 */
+	public void setRate(double ratePerSecond, int burst) {
+		this.intervalNanos = ratePerSecond > 0 ? (long) (1_000_000_000L / ratePerSecond) : 0;
+		this.burst = Math.max(1, burst);
+	}
+
+	public double getRate() {
+		long interval = intervalNanos;
+		return interval > 0 ? 1_000_000_000d / interval : 0;
+	}
+
+	public int getBurst() {
+		return burst;
+	}
+
+	/**
+	 * Tries to take the given number of permits without blocking. A request larger
+	 * than the burst is admitted once the bucket is full and the excess is carried
+	 * as debt by later requests.
+	 *
+	 * @return 0 if the permits were granted, otherwise nanoseconds until they can
+	 *         be granted.
+	 */
+	public long tryAcquire(int permits) {
+		long interval = intervalNanos;
+		if (interval <= 0) {
+			return 0;
+		}
+		long tolerance = (burst - 1) * interval;
+		while (true) {
+			long now = System.nanoTime();
+			long arrival = theoreticalArrival.get();
+			long start = Math.max(arrival, now);
+			long wait = start - now - tolerance;
+			if (wait > 0) {
+				return wait;
+			}
+			if (theoreticalArrival.compareAndSet(arrival, start + permits * interval)) {
+				return 0;
+			}
+		}
+	}
+
+	/**
+	 * Gives back permits granted by {@link #tryAcquire(int)} but not used.
+	 */
+	public void refund(int permits) {
+		long interval = intervalNanos;
+		if (interval > 0) {
+			theoreticalArrival.addAndGet(-permits * interval);
+		}
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.hti.util;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Shared threads of all {@link QueueWriter}s (flag updates, reports, inbox and
+ * webhooks of every tenant and batch). A writer with pending work is queued
+ * once; each turn drains a single batch and puts the writer back at the end of
+ * the line if more is pending, so busy writers can not starve the others. The
+ * number of threads is {@link GlobalVar#WRITER_THREADS} whatever the number of
+ * writers. A sweeper calls {@link QueueWriter#onIdle()} on idle writers.
+ */
+public class WriterRuntime {
+
+	private static Logger logger = LoggerFactory.getLogger(WriterRuntime.class);
+	private static Set<QueueWriter<?>> writers = ConcurrentHashMap.newKeySet();
+	private static ExecutorService executor;
+	private static ScheduledExecutorService sweeper;
+
+	private static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			AtomicInteger counter = new AtomicInteger();
+			executor = new ThreadPoolExecutor(GlobalVar.WRITER_THREADS, GlobalVar.WRITER_THREADS, 0L,
+					TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+					r -> new Thread(r, "Writer_" + counter.incrementAndGet()));
+			sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "WriterSweeper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			sweeper.scheduleWithFixedDelay(WriterRuntime::sweep, 30, 30, TimeUnit.SECONDS);
+			logger.info("Writer Runtime Started With " + GlobalVar.WRITER_THREADS + " Threads");
+		}
+		return executor;
+	}
+
+	static void register(QueueWriter<?> writer) {
+		writers.add(writer);
+		logger.info(writer.getName() + " Registered. Writers: " + writers.size());
+	}
+
+	static void schedule(QueueWriter<?> writer) {
+		if (writer.scheduled.compareAndSet(false, true)) {
+			getExecutor().execute(() -> run(writer));
+		}
+	}
+
+	private static void run(QueueWriter<?> writer) {
+		try {
+			writer.drain();
+			if (writer.isStopped() && !writer.hasWork() && writer.finished.compareAndSet(false, true)) {
+				writers.remove(writer);
+				writer.onStopped();
+			}
+		} catch (Exception e) {
+			logger.error(writer.getName(), e);
+		} finally {
+			writer.scheduled.set(false);
+		}
+		if (writer.hasWork() || (writer.isStopped() && !writer.finished.get())) {
+			schedule(writer); // back of the line
+		}
+	}
+
+	private static void sweep() {
+		long now = System.currentTimeMillis();
+		for (QueueWriter<?> writer : writers) {
+			if (writer.isIdle(now)) {
+				logger.info(writer.getName() + " Idle timeout.");
+				try {
+					writer.onIdle();
+				} catch (Exception e) {
+					logger.error(writer.getName(), e);
+				}
+			}
+		}
+	}
+
+	public static int getWriterCount() {
+		return writers.size();
+	}
+
+	/**
+	 * Waits for stopped writers to flush, then stops the runtime threads.
+	 */
+	public static void shutdown(long timeout, TimeUnit unit) {
+		long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+		while (writers.stream().anyMatch(QueueWriter::isStopped) && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				break;
+			}
+		}
+		synchronized (WriterRuntime.class) {
+			if (executor != null) {
+				executor.shutdown();
+				sweeper.shutdownNow();
+				executor = null;
+			}
+		}
+		logger.info("Writer Runtime Stopped. Writers Left: " + writers.size());
+	}
+
+}
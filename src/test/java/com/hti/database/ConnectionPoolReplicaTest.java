@@ -0,0 +1,89 @@
+package com.hti.database;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.hti.util.GlobalVar;
+
+/**
+ * Replica routing against in-memory H2 databases standing in for the primary
+ * and the replica.
+ */
+class ConnectionPoolReplicaTest {
+
+	private static final String PRIMARY = "jdbc:h2:mem:primary;DB_CLOSE_DELAY=-1";
+	private static final String REPLICA = "jdbc:h2:mem:replica;DB_CLOSE_DELAY=-1";
+	// nothing listens on port 1
+	private static final String UNREACHABLE = "jdbc:h2:tcp://127.0.0.1:1/mem:replica";
+	private ConnectionPool pool;
+
+	@BeforeEach
+	void setUp() {
+		GlobalVar.REPLICA_READ_WINDOW = 300;
+		GlobalVar.REPLICA_RETRY_INTERVAL = 60000;
+	}
+
+	@AfterEach
+	void tearDown() {
+		if (pool != null) {
+			pool.close();
+		}
+	}
+
+	private static Properties properties(String replicaUrl) {
+		Properties properties = new Properties();
+		properties.setProperty("spring.datasource.url", PRIMARY);
+		properties.setProperty("spring.datasource.username", "sa");
+		properties.setProperty("spring.datasource.password", "");
+		properties.setProperty("spring.datasource.driver-class-name", "org.h2.Driver");
+		properties.setProperty("spring.datasource.replica.url", replicaUrl);
+		properties.setProperty("spring.datasource.hikari.maximum-pool-size", "2");
+		properties.setProperty("spring.datasource.hikari.minimum-idle", "1");
+		properties.setProperty("spring.datasource.hikari.idle-timeout", "60000");
+		properties.setProperty("spring.datasource.hikari.connection-timeout", "20000");
+		properties.setProperty("spring.datasource.hikari.max-lifetime", "1800000");
+		properties.setProperty("spring.datasource.hikari.replica.connection-timeout", "500");
+		return properties;
+	}
+
+	private static boolean readsFrom(Connection connection, String url) throws SQLException {
+		try (connection) {
+			return connection.getMetaData().getURL().startsWith(url.substring(0, url.indexOf(';')));
+		}
+	}
+
+	@Test
+	void readsGoToReplicaUnlessUserWroteRecently() throws Exception {
+		pool = new ConnectionPool(new DataSourceFactory(properties(REPLICA)));
+		assertTrue(readsFrom(pool.getReadConnection("user1"), REPLICA));
+		pool.written("user1");
+		assertTrue(readsFrom(pool.getReadConnection("user1"), PRIMARY), "own writes are read from the primary");
+		assertTrue(readsFrom(pool.getReadConnection("user2"), REPLICA), "other users stay on the replica");
+		Thread.sleep(GlobalVar.REPLICA_READ_WINDOW + 100);
+		assertTrue(readsFrom(pool.getReadConnection("user1"), REPLICA), "back on the replica after the window");
+	}
+
+	@Test
+	void unreachableReplicaFallsBackToPrimaryQuickly() throws Exception {
+		// starts although the replica is down
+		pool = new ConnectionPool(new DataSourceFactory(properties(UNREACHABLE)));
+		long start = System.currentTimeMillis();
+		assertTrue(readsFrom(pool.getReadConnection("user1"), PRIMARY));
+		long firstRead = System.currentTimeMillis() - start;
+		assertTrue(firstRead < 5000, "first read waited " + firstRead + " ms");
+		start = System.currentTimeMillis();
+		assertTrue(readsFrom(pool.getReadConnection("user1"), PRIMARY));
+		long secondRead = System.currentTimeMillis() - start;
+		assertTrue(secondRead < 200, "replica marked down, second read waited " + secondRead + " ms");
+		assertFalse(pool.getStats().isEmpty());
+	}
+
+}
@@ -0,0 +1,28 @@
+package com.hti.database;
+
+import java.util.Properties;
+
+/**
+ * Connection pool on an in-memory H2 database in MySQL mode for the tests of
+ * other packages.
+ */
+public final class TestDatabase {
+
+	private TestDatabase() {
+	}
+
+	public static ConnectionPool open(String name) {
+		Properties properties = new Properties();
+		properties.setProperty("spring.datasource.url", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1");
+		properties.setProperty("spring.datasource.username", "sa");
+		properties.setProperty("spring.datasource.password", "");
+		properties.setProperty("spring.datasource.driver-class-name", "org.h2.Driver");
+		properties.setProperty("spring.datasource.hikari.maximum-pool-size", "4");
+		properties.setProperty("spring.datasource.hikari.minimum-idle", "1");
+		properties.setProperty("spring.datasource.hikari.idle-timeout", "60000");
+		properties.setProperty("spring.datasource.hikari.connection-timeout", "20000");
+		properties.setProperty("spring.datasource.hikari.max-lifetime", "1800000");
+		return new ConnectionPool(new DataSourceFactory(properties));
+	}
+
+}
@@ -0,0 +1,194 @@
+package com.hti.process;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+import com.hti.database.ConnectionPool;
+import com.hti.database.TestDatabase;
+import com.hti.database.service.LocalSpool;
+import com.hti.entity.RangeLease;
+import com.hti.entity.RecipientsEntry;
+import com.hti.util.CompactRecipientList;
+import com.hti.util.GlobalVar;
+import com.hti.util.LeasedRecipientCursor;
+
+/**
+ * Range leases of a shared batch on two embedded Hazelcast members, with the
+ * recipients in an in-memory H2 database.
+ */
+class ClusterCoordinatorTest {
+
+	private static final String SYSTEM_ID = "user1";
+	private static HazelcastInstance member1;
+	private static HazelcastInstance member2;
+	private static ClusterCoordinator node1;
+	private static ClusterCoordinator node2;
+	private static ConnectionPool pool;
+
+	@BeforeAll
+	static void start() throws Exception {
+		GlobalVar.CLUSTER_RANGE_SIZE = 10;
+		GlobalVar.CLUSTER_LEASE_TIME = 60000; // no renewal or adoption while the tests run
+		GlobalVar.RECIPIENT_PAGE_SIZE = 4;
+		GlobalVar.SPOOL_DIR = Files.createTempDirectory("spool").toString();
+		pool = TestDatabase.open("cluster");
+		GlobalVar.connectionPool = pool;
+		execute("CREATE TABLE recipient_store (system_id varchar(15) NOT NULL, batch_id bigint NOT NULL, "
+				+ "msg_id bigint NOT NULL, recipient varchar(100) NOT NULL, flag char(1) NOT NULL DEFAULT 'F', "
+				+ "PRIMARY KEY (system_id, batch_id, msg_id))");
+		execute("CREATE TABLE retry_schedule (system_id varchar(15) NOT NULL, batch_id bigint NOT NULL, "
+				+ "msg_id bigint NOT NULL)");
+		member1 = Hazelcast.newHazelcastInstance(config());
+		member2 = Hazelcast.newHazelcastInstance(config());
+		node1 = new ClusterCoordinator(member1);
+		node2 = new ClusterCoordinator(member2);
+	}
+
+	@AfterAll
+	static void stop() {
+		node1.stop();
+		node2.stop();
+		member1.shutdown();
+		member2.shutdown();
+		LocalSpool.shutdown();
+		pool.close();
+	}
+
+	private static Config config() {
+		Config config = new Config();
+		config.setClusterName("cluster-coordinator-test");
+		config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+		config.getNetworkConfig().getJoin().getTcpIpConfig().setEnabled(true).addMember("127.0.0.1");
+		return config;
+	}
+
+	private static void execute(String sql) throws SQLException {
+		try (Connection connection = pool.getConnection(); PreparedStatement statement = connection.prepareStatement(sql)) {
+			statement.execute();
+		}
+	}
+
+	/**
+	 * Stores recipients with msg_id 1 to count and splits the batch.
+	 */
+	private static void distribute(String batchId, int count) throws SQLException {
+		CompactRecipientList recipients = new CompactRecipientList();
+		for (int msgId = 1; msgId <= count; msgId++) {
+			recipients.add(msgId, "r" + msgId + "@example.com", 'F');
+			execute("INSERT INTO recipient_store (system_id, batch_id, msg_id, recipient) VALUES ('" + SYSTEM_ID
+					+ "', " + batchId + ", " + msgId + ", 'r" + msgId + "@example.com')");
+		}
+		node1.distribute(SYSTEM_ID, batchId, recipients);
+	}
+
+	private static RangeLease range(String batchId, int index) {
+		IMap<String, RangeLease> ranges = member1.getMap("cluster_ranges");
+		return ranges.get(SYSTEM_ID + "_" + batchId + "_" + index);
+	}
+
+	private static List<RecipientsEntry> take(LeasedRecipientCursor cursor, int count) {
+		List<RecipientsEntry> taken = new ArrayList<RecipientsEntry>();
+		for (int i = 0; i < count; i++) {
+			RecipientsEntry entry = cursor.next();
+			assertNotNull(entry, "recipient " + i + " expected");
+			taken.add(entry);
+		}
+		return taken;
+	}
+
+	@Test
+	void rangeIsDoneOnlyOnceItsRecipientsCompleted() throws Exception {
+		distribute("1", 25);
+		LeasedRecipientCursor cursor1 = new LeasedRecipientCursor(SYSTEM_ID, "1", node1);
+		List<RecipientsEntry> first = take(cursor1, 10);
+		assertEquals("10", first.get(9).getMsgId());
+		assertTrue(cursor1.hasNext(), "next range claimed");
+		assertFalse(range("1", 0).isDone(), "recipients of range 0 are still being sent");
+		assertFalse(node2.isComplete(SYSTEM_ID, "1"));
+
+		// the used up range stays leased, the other node gets the next free one
+		LeasedRecipientCursor cursor2 = new LeasedRecipientCursor(SYSTEM_ID, "1", node2);
+		assertEquals("21", cursor2.next().getMsgId());
+
+		for (RecipientsEntry entry : first.subList(0, 9)) {
+			cursor1.completed(entry);
+		}
+		assertFalse(range("1", 0).isDone(), "one recipient still in flight");
+		cursor1.completed(first.get(9));
+		assertTrue(range("1", 0).isDone());
+
+		cursor1.release(null);
+		cursor2.release(null);
+	}
+
+	@Test
+	void releasedRangeIsClaimedAgainBehindTheHint() throws Exception {
+		distribute("2", 30);
+		LeasedRecipientCursor cursor2 = new LeasedRecipientCursor(SYSTEM_ID, "2", node2);
+		assertEquals("1", cursor2.next().getMsgId());
+		LeasedRecipientCursor cursor1 = new LeasedRecipientCursor(SYSTEM_ID, "2", node1);
+		assertEquals("11", cursor1.next().getMsgId());
+		take(cursor1, 9);
+		assertEquals("21", cursor1.next().getMsgId(), "range 2 follows the hint");
+
+		// a pause releases taken but unsent recipients, their range is not done
+		cursor2.release(null);
+		assertFalse(range("2", 0).isDone());
+		take(cursor1, 9);
+		assertEquals("1", cursor1.next().getMsgId(), "range 0 is found before the hint once free");
+		cursor1.release(null);
+	}
+
+	@Test
+	void resumeReopensDoneRangesWithPendingRecipients() throws Exception {
+		distribute("3", 20);
+		LeasedRecipientCursor cursor = new LeasedRecipientCursor(SYSTEM_ID, "3", node1);
+		for (RecipientsEntry entry : take(cursor, 20)) {
+			cursor.completed(entry);
+		}
+		assertFalse(cursor.hasNext());
+		assertTrue(range("3", 0).isDone());
+		assertTrue(range("3", 1).isDone());
+		// range 0 was sent, the flags of range 1 were never written
+		execute("UPDATE recipient_store SET flag = 'T' WHERE batch_id = 3 AND msg_id <= 10");
+
+		node2.adopt(SYSTEM_ID, "3");
+		assertTrue(range("3", 0).isDone());
+		assertFalse(range("3", 1).isDone(), "range with F recipients reopened");
+		cursor.release(null);
+	}
+
+	@Test
+	void batchIsCompleteOnlyWithoutRetries() throws Exception {
+		distribute("4", 5);
+		LeasedRecipientCursor cursor = new LeasedRecipientCursor(SYSTEM_ID, "4", node1);
+		List<RecipientsEntry> taken = take(cursor, 5);
+		for (RecipientsEntry entry : taken) {
+			cursor.completed(entry);
+		}
+		assertFalse(cursor.hasNext());
+		execute("INSERT INTO retry_schedule (system_id, batch_id, msg_id) VALUES ('" + SYSTEM_ID + "', 4, 3)");
+		assertFalse(node2.isComplete(SYSTEM_ID, "4"), "a retry is outstanding");
+		execute("DELETE FROM retry_schedule WHERE batch_id = 4");
+		assertTrue(node2.isComplete(SYSTEM_ID, "4"));
+		cursor.release(null);
+	}
+
+}
@@ -0,0 +1,86 @@
+package com.hti.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import com.hazelcast.config.Config;
+import com.hazelcast.core.Hazelcast;
+import com.hazelcast.core.HazelcastInstance;
+import com.hazelcast.map.IMap;
+
+class MessageIdGeneratorTest {
+
+	private static HazelcastInstance hazelcast;
+
+	@BeforeAll
+	static void start() {
+		Config config = new Config();
+		config.setClusterName("message-id-test");
+		config.getNetworkConfig().getJoin().getMulticastConfig().setEnabled(false);
+		config.getNetworkConfig().getJoin().getTcpIpConfig().setEnabled(false);
+		hazelcast = Hazelcast.newHazelcastInstance(config);
+	}
+
+	@AfterAll
+	static void stop() {
+		MessageIdGenerator.release();
+		hazelcast.shutdown();
+	}
+
+	@Test
+	void idsAreUniqueAndIncreasingAcrossThreads() throws Exception {
+		MessageIdGenerator.init(hazelcast);
+		int threads = 16;
+		int perThread = 200_000;
+		Set<Long> ids = ConcurrentHashMap.newKeySet(threads * perThread);
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+		for (int t = 0; t < threads; t++) {
+			results.add(executor.submit(() -> {
+				long last = 0;
+				boolean increasing = true;
+				for (int i = 0; i < perThread; i++) {
+					long id = MessageIdGenerator.nextId();
+					increasing &= id > last;
+					last = id;
+					ids.add(id);
+				}
+				return increasing;
+			}));
+		}
+		for (Future<Boolean> result : results) {
+			assertTrue(result.get(), "ids of a thread must increase");
+		}
+		executor.shutdown();
+		assertEquals(threads * perThread, ids.size(), "duplicate ids generated");
+	}
+
+	@Test
+	void slotsAreNotHandedOutTwice() {
+		IMap<Integer, String> slots = hazelcast.getMap("node_ids_test");
+		Set<Integer> claimed = new java.util.HashSet<Integer>();
+		for (int node = 0; node < 100; node++) {
+			int slot = MessageIdGenerator.claimSlot(slots, "node-" + node, -1, 30);
+			assertTrue(slot >= 0, "free slot expected for node " + node);
+			assertTrue(claimed.add(slot), "slot " + slot + " handed out twice");
+		}
+		assertEquals(-1, MessageIdGenerator.claimSlot(slots, "node-100", -1, 30), "all slots are leased");
+		assertEquals(-1, MessageIdGenerator.claimSlot(slots, "node-100", 5, 30), "configured slot is leased");
+		assertEquals(5, MessageIdGenerator.claimSlot(slots, "node-5", 5, 30), "owner keeps its slot");
+		slots.remove(7);
+		assertEquals(7, MessageIdGenerator.claimSlot(slots, "node-100", -1, 30), "freed slot is reused");
+	}
+
+}